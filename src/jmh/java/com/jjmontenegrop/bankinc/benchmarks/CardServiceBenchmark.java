@@ -0,0 +1,52 @@
+package com.jjmontenegrop.bankinc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class CardServiceBenchmark {
+
+    private static final BigDecimal RECHARGE_AMOUNT = BigDecimal.ONE;
+
+    @State(Scope.Thread)
+    public static class OwnCard {
+
+        String cardId;
+
+        @Setup(Level.Trial)
+        public void setUp(ServiceBackend backend) {
+            cardId = backend.newActiveCard();
+        }
+    }
+
+    @Benchmark
+    public String generateCardNumber(ServiceBackend backend) {
+        return backend.cardService.generateCardNumber(ServiceBackend.PRODUCT_ID);
+    }
+
+    @Benchmark
+    public void rechargeCard(ServiceBackend backend, OwnCard card) {
+        backend.cardService.rechargeCard(card.cardId, RECHARGE_AMOUNT);
+    }
+
+    @Benchmark
+    public String getCardBalance(ServiceBackend backend, OwnCard card) {
+        return backend.cardService.getCardBalance(card.cardId);
+    }
+}
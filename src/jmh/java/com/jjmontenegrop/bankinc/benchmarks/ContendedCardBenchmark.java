@@ -0,0 +1,76 @@
+package com.jjmontenegrop.bankinc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Every thread works on the same card; override the thread count with -t
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(8)
+public class ContendedCardBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class HotCard {
+
+        String cardId;
+
+        @Setup(Level.Trial)
+        public void setUp(ServiceBackend backend) {
+            cardId = backend.newActiveCard();
+        }
+    }
+
+    @Benchmark
+    public Long purchase(ServiceBackend backend, HotCard card) {
+        return backend.transactionService.purchase(card.cardId, TransactionServiceBenchmark.PRICE);
+    }
+
+    @Benchmark
+    public void rechargeCard(ServiceBackend backend, HotCard card) {
+        backend.cardService.rechargeCard(card.cardId, TransactionServiceBenchmark.PRICE);
+    }
+
+    @Benchmark
+    public String getCardBalance(ServiceBackend backend, HotCard card) {
+        return backend.cardService.getCardBalance(card.cardId);
+    }
+
+    @Benchmark
+    public Long purchaseThenAnulation(ServiceBackend backend, HotCard card) {
+        Long transactionId = backend.transactionService.purchase(card.cardId, TransactionServiceBenchmark.PRICE);
+        backend.transactionService.anulation(card.cardId, transactionId.toString());
+        return transactionId;
+    }
+
+    // Balance reads while purchases keep evicting the cached entry of the same card
+    @Benchmark
+    @Group("balanceUnderPurchases")
+    @GroupThreads(6)
+    public String balanceUnderPurchasesRead(ServiceBackend backend, HotCard card) {
+        return backend.cardService.getCardBalance(card.cardId);
+    }
+
+    @Benchmark
+    @Group("balanceUnderPurchases")
+    @GroupThreads(2)
+    public Long balanceUnderPurchasesWrite(ServiceBackend backend, HotCard card) {
+        return backend.transactionService.purchase(card.cardId, TransactionServiceBenchmark.PRICE);
+    }
+}
@@ -0,0 +1,173 @@
+package com.jjmontenegrop.bankinc.benchmarks;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import com.jjmontenegrop.bankinc.repositories.TransactionRepository;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Map-backed stand-ins for the Spring Data repositories, so the service layer can be measured without a database.
+// Entities are copied on the way in and out, like detached JPA entities; transaction isolation is not modelled.
+final class InMemoryRepositories {
+
+    private InMemoryRepositories() {
+    }
+
+    // Shares the transaction map with transactionRepository(transactions) so anulation can credit the price
+    static CardRepository cardRepository(Map<String, Transaction> transactions) {
+        Map<String, Card> cards = new ConcurrentHashMap<>();
+
+        return proxy(CardRepository.class, (method, args) -> switch (method) {
+            case "findById" -> Optional.ofNullable(cards.get((String) args[0])).map(InMemoryRepositories::copy);
+            case "existsById" -> cards.containsKey((String) args[0]);
+            case "save" -> saveCard(cards, (Card) args[0]);
+            case "saveAll" -> {
+                List<Card> saved = new ArrayList<>();
+                for (Object card : (Iterable<?>) args[0]) {
+                    saved.add(saveCard(cards, (Card) card));
+                }
+                yield saved;
+            }
+            case "debitBalance" -> debitBalance(cards, (String) args[0], (BigDecimal) args[1]);
+            case "creditTransactionPrice" -> creditBalance(cards, (String) args[0],
+                    transactions.get(args[1].toString()).getPrice());
+            case "findAllForUpdate" -> ((Collection<?>) args[0]).stream()
+                    .map(cards::get)
+                    .filter(card -> card != null)
+                    .map(InMemoryRepositories::copy)
+                    .toList();
+            case "streamAllCardIds" -> List.copyOf(cards.keySet()).stream();
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    static TransactionRepository transactionRepository(Map<String, Transaction> transactions) {
+        AtomicLong sequence = new AtomicLong(1000);
+
+        return proxy(TransactionRepository.class, (method, args) -> switch (method) {
+            case "findTransaction" -> Optional.ofNullable(transactions.get(args[0].toString()))
+                    .filter(transaction -> !transaction.getTransactionDate().isBefore((LocalDateTime) args[1]))
+                    .map(InMemoryRepositories::copy);
+            case "save" -> {
+                Transaction transaction = (Transaction) args[0];
+                if (transaction.getTransactionId() == null) {
+                    transaction.setTransactionId(sequence.incrementAndGet());
+                    transaction.setTransactionDate(LocalDateTime.now());
+                    transaction.setIsAnnulled(false);
+                }
+                transactions.put(transaction.getTransactionId().toString(), copy(transaction));
+                yield transaction;
+            }
+            case "markAnnulled" -> markAnnulled(transactions, (Long) args[0], (String) args[2]);
+            default -> throw new UnsupportedOperationException(method);
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T noOp(Class<T> type) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getReturnType() == boolean.class) {
+                return false;
+            }
+            return method.getReturnType().isPrimitive() && method.getReturnType() != void.class ? 0 : null;
+        });
+    }
+
+    private static Card saveCard(Map<String, Card> cards, Card card) {
+        if (card.isNew()) {
+            card.prePersist();
+        }
+        cards.put(card.getCardId(), copy(card));
+        return card;
+    }
+
+    private static int debitBalance(Map<String, Card> cards, String cardId, BigDecimal price) {
+        int[] debited = new int[1];
+
+        cards.computeIfPresent(cardId, (id, card) -> {
+            if (card.getIsActive() && !card.getIsBlocked() && !card.isExpired()
+                    && card.getBalance().compareTo(price) >= 0) {
+                Card debitedCard = copy(card);
+                debitedCard.setBalance(card.getBalance().subtract(price));
+                debited[0] = 1;
+                return debitedCard;
+            }
+            return card;
+        });
+
+        return debited[0];
+    }
+
+    private static int creditBalance(Map<String, Card> cards, String cardId, BigDecimal amount) {
+        int[] credited = new int[1];
+
+        cards.computeIfPresent(cardId, (id, card) -> {
+            Card creditedCard = copy(card);
+            creditedCard.setBalance(card.getBalance().add(amount));
+            credited[0] = 1;
+            return creditedCard;
+        });
+
+        return credited[0];
+    }
+
+    private static int markAnnulled(Map<String, Transaction> transactions, Long transactionId, String cardId) {
+        int[] annulled = new int[1];
+
+        transactions.computeIfPresent(transactionId.toString(), (id, transaction) -> {
+            if (transaction.getCardId().equals(cardId) && !transaction.getIsAnnulled()) {
+                Transaction annulledTransaction = copy(transaction);
+                annulledTransaction.setAnulated();
+                annulled[0] = 1;
+                return annulledTransaction;
+            }
+            return transaction;
+        });
+
+        return annulled[0];
+    }
+
+    private static Card copy(Card card) {
+        return new Card(card.getCardId(), card.getExpirationDate(), card.getIsActive(), card.getIsBlocked(),
+                card.getBalance());
+    }
+
+    private static Transaction copy(Transaction transaction) {
+        Transaction copy = new Transaction();
+        copy.setTransactionId(transaction.getTransactionId());
+        copy.setCardId(transaction.getCardId());
+        copy.setPrice(transaction.getPrice());
+        copy.setTransactionDate(transaction.getTransactionDate());
+        copy.setIsAnnulled(transaction.getIsAnnulled());
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, RepositoryMethod handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> type.getSimpleName() + "(in-memory)";
+                };
+            }
+            return handler.invoke(method.getName(), args);
+        });
+    }
+
+    @FunctionalInterface
+    private interface RepositoryMethod {
+        Object invoke(String method, Object[] args);
+    }
+}
@@ -0,0 +1,112 @@
+package com.jjmontenegrop.bankinc.benchmarks;
+
+import com.jjmontenegrop.bankinc.BankIncApplication;
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import com.jjmontenegrop.bankinc.services.CardBalanceCache;
+import com.jjmontenegrop.bankinc.services.CardBalanceLedger;
+import com.jjmontenegrop.bankinc.services.CardBalanceSlots;
+import com.jjmontenegrop.bankinc.services.CardNumberAllocator;
+import com.jjmontenegrop.bankinc.services.CardServiceImpl;
+import com.jjmontenegrop.bankinc.services.RechargeCoalescer;
+import com.jjmontenegrop.bankinc.services.ReplicaReadPolicy;
+import com.jjmontenegrop.bankinc.services.TransactionArchive;
+import com.jjmontenegrop.bankinc.services.TransactionIdWatermarks;
+import com.jjmontenegrop.bankinc.services.TransactionServiceImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@State(Scope.Benchmark)
+public class ServiceBackend {
+
+    static final String PRODUCT_ID = "123456";
+
+    // Large enough that no measurement run can drain a card with unit-price purchases
+    static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000000000");
+
+    @Param({"in-memory", "h2"})
+    public String backend;
+
+    CardServiceImpl cardService;
+    TransactionServiceImpl transactionService;
+
+    private ConfigurableApplicationContext context;
+    private CardNumberAllocator cardNumberAllocator;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("h2".equals(backend)) {
+            context = new SpringApplicationBuilder(BankIncApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .run("--spring.datasource.url=jdbc:h2:mem:bench;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE",
+                            "--spring.datasource.driver-class-name=org.h2.Driver",
+                            "--spring.datasource.username=sa",
+                            "--spring.datasource.password=",
+                            "--spring.jpa.database-platform=org.hibernate.dialect.H2Dialect",
+                            "--spring.jpa.hibernate.ddl-auto=create",
+                            "--spring.flyway.enabled=false",
+                            "--bankinc.transaction-partitions.enabled=false",
+                            "--spring.jpa.show-sql=false",
+                            "--logging.level.root=WARN",
+                            "--PORT=0");
+            cardService = context.getBean(CardServiceImpl.class);
+            transactionService = context.getBean(TransactionServiceImpl.class);
+            return;
+        }
+
+        Map<String, Transaction> transactions = new ConcurrentHashMap<>();
+        CardRepository cardRepository = InMemoryRepositories.cardRepository(transactions);
+        CardBalanceCache cardBalanceCache = new CardBalanceCache("maximumSize=10000,expireAfterWrite=30s");
+        EntityManager entityManager = InMemoryRepositories.noOp(EntityManager.class);
+        CardBalanceLedger cardBalanceLedger = new CardBalanceLedger(null, null, cardRepository, false,
+                Duration.ZERO, 0);
+        CardBalanceSlots cardBalanceSlots = new CardBalanceSlots(null, cardRepository, entityManager, 64);
+        PlatformTransactionManager transactionManager = InMemoryRepositories.noOp(PlatformTransactionManager.class);
+        RechargeCoalescer rechargeCoalescer = new RechargeCoalescer(cardRepository, cardBalanceCache,
+                transactionManager, false, Duration.ZERO, 1, Duration.ofSeconds(5));
+
+        ReplicaReadPolicy replicaReadPolicy = new ReplicaReadPolicy(transactionManager, false, Duration.ZERO,
+                Duration.ZERO);
+
+        cardNumberAllocator = new CardNumberAllocator(cardRepository, 1000, 1_000_000);
+        cardService = new CardServiceImpl(cardRepository, cardBalanceCache, cardNumberAllocator, transactionManager,
+                cardBalanceLedger, cardBalanceSlots, rechargeCoalescer, replicaReadPolicy);
+        transactionService = new TransactionServiceImpl(InMemoryRepositories.transactionRepository(transactions),
+                cardRepository, cardBalanceCache, entityManager, cardBalanceLedger, cardBalanceSlots,
+                new TransactionArchive(false, Path.of("archive")), replicaReadPolicy, new TransactionIdWatermarks(),
+                transactionManager, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (context != null) {
+            context.close();
+        }
+        if (cardNumberAllocator != null) {
+            cardNumberAllocator.shutdown();
+        }
+    }
+
+    String newActiveCard() {
+        String cardId = cardService.generateCardNumber(PRODUCT_ID);
+        cardService.activateCard(cardId);
+        cardService.rechargeCard(cardId, INITIAL_BALANCE);
+        return cardId;
+    }
+}
@@ -0,0 +1,35 @@
+package com.jjmontenegrop.bankinc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class TransactionServiceBenchmark {
+
+    static final BigDecimal PRICE = BigDecimal.ONE;
+
+    @Benchmark
+    public Long purchase(ServiceBackend backend, CardServiceBenchmark.OwnCard card) {
+        return backend.transactionService.purchase(card.cardId, PRICE);
+    }
+
+    // anulation needs a fresh transaction each time; subtract the purchase score to isolate it
+    @Benchmark
+    public Long purchaseThenAnulation(ServiceBackend backend, CardServiceBenchmark.OwnCard card) {
+        Long transactionId = backend.transactionService.purchase(card.cardId, PRICE);
+        backend.transactionService.anulation(card.cardId, transactionId.toString());
+        return transactionId;
+    }
+}
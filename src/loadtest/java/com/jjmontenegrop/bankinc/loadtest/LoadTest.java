@@ -0,0 +1,308 @@
+package com.jjmontenegrop.bankinc.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jjmontenegrop.bankinc.BankIncApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Open-loop HTTP load generator: requests are sent on a fixed schedule and latency is measured from the
+// scheduled send time, so a slow server cannot hide its queueing delay by slowing the generator down.
+public class LoadTest {
+
+    private static final String OPTION_PREFIX = "--loadtest.";
+
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000");
+
+    private final Map<String, String> options;
+    private final HttpClient httpClient;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore inFlight;
+    private final AtomicLong pending = new AtomicLong();
+    private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private final EndpointStats balanceReads = new EndpointStats("GET /card/balance/{cardId}");
+    private final EndpointStats purchases = new EndpointStats("POST /transaction/purchase");
+    private final EndpointStats recharges = new EndpointStats("POST /card/balance");
+
+    private String baseUrl;
+    private List<String> cards;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.inFlight = new Semaphore(intOption("max-in-flight"));
+        this.httpClient = HttpClient.newBuilder()
+                .executor(executor)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("url", "");
+        options.put("rate", "500");
+        options.put("warmup", "15s");
+        options.put("duration", "60s");
+        options.put("cards", "1000");
+        options.put("hot-cards", "10");
+        options.put("hot-traffic", "0.5");
+        options.put("mix", "70,25,5");
+        options.put("max-in-flight", "512");
+        options.put("product-id", "123456");
+        options.put("result-file", "target/loadtest-result.json");
+
+        Map<String, String> applicationArgs = new LinkedHashMap<>();
+        applicationArgs.put("spring.datasource.url", "jdbc:h2:mem:loadtest;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE");
+        applicationArgs.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        applicationArgs.put("spring.datasource.username", "sa");
+        applicationArgs.put("spring.datasource.password", "");
+        applicationArgs.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        // Only read with --spring.profiles.active=reactive; points R2DBC at the same in-memory database
+        applicationArgs.put("spring.r2dbc.url", "r2dbc:h2:mem:///loadtest;MODE=PostgreSQL;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000;DB_CLOSE_ON_EXIT=FALSE");
+        applicationArgs.put("spring.r2dbc.username", "sa");
+        applicationArgs.put("spring.r2dbc.password", "");
+        // The migrations are PostgreSQL-only (partial indexes, partitioning); H2 gets its schema from Hibernate
+        applicationArgs.put("spring.jpa.hibernate.ddl-auto", "create");
+        applicationArgs.put("spring.flyway.enabled", "false");
+        applicationArgs.put("bankinc.transaction-partitions.enabled", "false");
+        // The hot set is deliberate contention on a few cards, which the per-card rate limit would turn into 429s
+        applicationArgs.put("bankinc.card-rate-limit.enabled", "false");
+        applicationArgs.put("spring.jpa.show-sql", "false");
+        applicationArgs.put("logging.level.root", "WARN");
+        applicationArgs.put("PORT", "0");
+
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Arguments should look like --name=value: " + arg);
+            }
+            if (arg.startsWith(OPTION_PREFIX)) {
+                options.put(arg.substring(OPTION_PREFIX.length(), separator), arg.substring(separator + 1));
+            } else {
+                applicationArgs.put(arg.substring(2, separator), arg.substring(separator + 1));
+            }
+        }
+
+        ConfigurableApplicationContext context = null;
+
+        if (options.get("url").isEmpty()) {
+            // devtools would relaunch this main method with the application arguments only
+            System.setProperty("spring.devtools.restart.enabled", "false");
+            context = new SpringApplicationBuilder(BankIncApplication.class)
+                    .run(applicationArgs.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue())
+                            .toArray(String[]::new));
+            options.put("url", "http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        }
+
+        try {
+            new LoadTest(options).run();
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+        }
+
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        baseUrl = options.get("url");
+
+        System.out.printf("Seeding %s cards on %s%n", options.get("cards"), baseUrl);
+        seedCards();
+
+        Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+        Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+
+        System.out.printf("Warming up for %ss at %s req/s%n", warmup.toSeconds(), options.get("rate"));
+        generateLoad(warmup);
+        awaitPending();
+        balanceReads.reset();
+        purchases.reset();
+        recharges.reset();
+
+        System.out.printf("Measuring for %ss at %s req/s%n", duration.toSeconds(), options.get("rate"));
+        long start = System.nanoTime();
+        generateLoad(duration);
+        awaitPending();
+        double seconds = Math.max(duration.toNanos(), System.nanoTime() - start) / 1_000_000_000.0;
+
+        List<EndpointStats.Result> results = List.of(balanceReads.result(seconds), purchases.result(seconds),
+                recharges.result(seconds));
+
+        report(results);
+
+        Map<String, Object> output = new LinkedHashMap<>();
+        output.put("options", options);
+        output.put("results", results);
+        File resultFile = new File(options.get("result-file"));
+        objectMapper.writeValue(resultFile, output);
+        System.out.printf("Results written to %s%n", resultFile);
+    }
+
+    private void seedCards() throws Exception {
+        int count = intOption("cards");
+        HttpResponse<String> issued = httpClient.send(HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + "/card/" + options.get("product-id") + "/numbers?count=" + count))
+                        .POST(HttpRequest.BodyPublishers.noBody())
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        if (issued.statusCode() != 200) {
+            throw new IllegalStateException("Card issuance failed with " + issued.statusCode() + ": " + issued.body());
+        }
+
+        cards = new ArrayList<>(count);
+        for (String line : issued.body().split("\n")) {
+            if (!line.isBlank()) {
+                cards.add(objectMapper.readTree(line).get("cardId").asText());
+            }
+        }
+
+        for (String cardId : cards) {
+            executeTracked(() -> {
+                postUntilAdmitted("/card/enroll", Map.of("cardId", cardId));
+                postUntilAdmitted("/card/balance", Map.of("cardId", cardId, "balance", INITIAL_BALANCE));
+                return 200;
+            }, null, System.nanoTime());
+        }
+        awaitPending();
+    }
+
+    private void generateLoad(Duration duration) {
+        long intervalNanos = 1_000_000_000L / intOption("rate");
+        int hotCards = Math.min(intOption("hot-cards"), cards.size());
+        double hotTraffic = Double.parseDouble(options.get("hot-traffic"));
+        int[] mix = parseMix(options.get("mix"));
+        int mixTotal = mix[0] + mix[1] + mix[2];
+
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+
+        for (long i = 0; ; i++) {
+            long scheduled = start + i * intervalNanos;
+            if (scheduled >= end) {
+                return;
+            }
+
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            String cardId = hotCards > 0 && random.nextDouble() < hotTraffic
+                    ? cards.get(random.nextInt(hotCards))
+                    : cards.get(random.nextInt(cards.size()));
+            int operation = random.nextInt(mixTotal);
+
+            if (operation < mix[0]) {
+                executeTracked(() -> get("/card/balance/" + cardId), balanceReads, scheduled);
+            } else if (operation < mix[0] + mix[1]) {
+                executeTracked(() -> post("/transaction/purchase", Map.of("cardId", cardId, "price", BigDecimal.ONE)),
+                        purchases, scheduled);
+            } else {
+                executeTracked(() -> post("/card/balance", Map.of("cardId", cardId, "balance", BigDecimal.ONE)),
+                        recharges, scheduled);
+            }
+        }
+    }
+
+    private void executeTracked(Call call, EndpointStats stats, long scheduledNanos) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            inFlight.acquireUninterruptibly();
+            try {
+                int status = call.execute();
+                if (stats != null) {
+                    stats.record(System.nanoTime() - scheduledNanos, status);
+                }
+            } catch (Exception ex) {
+                if (stats != null) {
+                    stats.recordFailure(System.nanoTime() - scheduledNanos);
+                }
+            } finally {
+                inFlight.release();
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    private void awaitPending() throws InterruptedException {
+        while (pending.get() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        return httpClient.send(HttpRequest.newBuilder().uri(URI.create(baseUrl + path)).GET().build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int post(String path, Map<String, Object> body) throws IOException, InterruptedException {
+        return httpClient.send(HttpRequest.newBuilder()
+                        .uri(URI.create(baseUrl + path))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                        .build(),
+                HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    // Seeding must not lose cards to admission control, so it honours 503 + Retry-After like a client would
+    private void postUntilAdmitted(String path, Map<String, Object> body) throws IOException, InterruptedException {
+        while (post(path, body) == 503) {
+            Thread.sleep(Duration.ofSeconds(1));
+        }
+    }
+
+    private void report(List<EndpointStats.Result> results) {
+        System.out.printf("%n%-30s %10s %10s %10s %10s %10s %10s %8s %8s %8s%n", "Endpoint", "Requests", "Req/s",
+                "p50 ms", "p99 ms", "p99.9 ms", "max ms", "4xx", "5xx", "failed");
+
+        for (EndpointStats.Result result : results) {
+            System.out.printf("%-30s %10d %10.1f %10.2f %10.2f %10.2f %10.2f %8d %8d %8d%n", result.endpoint(),
+                    result.requests(), result.throughput(), result.p50Millis(), result.p99Millis(),
+                    result.p999Millis(), result.maxMillis(), result.clientErrors(), result.serverErrors(),
+                    result.failures());
+        }
+        System.out.println();
+    }
+
+    private int intOption(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private static int[] parseMix(String mix) {
+        String[] weights = mix.split(",");
+        if (weights.length != 3) {
+            throw new IllegalArgumentException("loadtest.mix should have three weights: reads,purchases,recharges");
+        }
+        return new int[]{Integer.parseInt(weights[0].trim()), Integer.parseInt(weights[1].trim()),
+                Integer.parseInt(weights[2].trim())};
+    }
+
+    @FunctionalInterface
+    private interface Call {
+        int execute() throws IOException, InterruptedException;
+    }
+}
@@ -2,23 +2,38 @@ package com.jjmontenegrop.bankinc.controllers;
 
 import com.jjmontenegrop.bankinc.entities.dto.CardEnrollmentRequestDTO;
 import com.jjmontenegrop.bankinc.entities.dto.CardRechargeRequestDTO;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
 import com.jjmontenegrop.bankinc.services.CardServiceImpl;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/card")
+@Profile("!reactive")
 public class CardController {
 
     CardServiceImpl cardServiceImpl;
+    CardRateLimiter cardRateLimiter;
 
     @Autowired
-    public CardController(CardServiceImpl cardServiceImpl) {
+    public CardController(CardServiceImpl cardServiceImpl, CardRateLimiter cardRateLimiter) {
         this.cardServiceImpl = cardServiceImpl;
+        this.cardRateLimiter = cardRateLimiter;
     }
 
     @GetMapping("/{productId}/number")
@@ -26,6 +41,48 @@ public class CardController {
         return cardServiceImpl.generateCardNumber(productId);
     }
 
+    @PostMapping(value = "/{productId}/numbers", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> issueCards(@PathVariable String productId, @RequestParam int count,
+                                                            HttpServletRequest request) {
+
+        cardServiceImpl.validateCardIssuance(productId, count);
+        StreamingResponses.extendTimeout(request);
+
+        StreamingResponseBody responseBody = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            AtomicBoolean streamed = new AtomicBoolean();
+
+            try {
+                cardServiceImpl.issueCards(productId, count, cardNumbers -> {
+                    try {
+                        for (String cardNumber : cardNumbers) {
+                            writer.write("{\"cardId\":\"" + cardNumber + "\"}\n");
+                        }
+                        writer.flush();
+                        streamed.set(true);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                if (!streamed.get()) {
+                    throw ex;
+                }
+
+                // The 200 status is already sent, so the marker line is how clients tell a partial issuance apart
+                try {
+                    writer.write("{\"error\":\"" + StreamingResponses.ISSUANCE_ABORTED + "\"}\n");
+                    writer.flush();
+                } catch (IOException markerEx) {
+                    ex.addSuppressed(markerEx);
+                }
+                throw ex;
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(responseBody);
+    }
+
     @PostMapping("/enroll")
     public ResponseEntity<String> enrollCard(@RequestBody CardEnrollmentRequestDTO request) {
 
@@ -59,8 +116,19 @@ public class CardController {
         return new ResponseEntity<>(responseMessage, HttpStatus.OK);
     }
 
+    @PutMapping("/{cardId}/slots")
+    public ResponseEntity<String> setBalanceSlots(@PathVariable String cardId, @RequestParam int count) {
+
+        cardServiceImpl.setBalanceSlots(cardId, count);
+
+        String responseMessage = "Card balance slots updated";
+
+        return new ResponseEntity<>(responseMessage, HttpStatus.OK);
+    }
+
     @GetMapping("/balance/{cardId}")
     public ResponseEntity<String> getCardBalance(@PathVariable String cardId) {
+        cardRateLimiter.acquire(CardRateLimiter.Endpoint.BALANCE, cardId);
         String balance = cardServiceImpl.getCardBalance(cardId);
         return new ResponseEntity<>(balance, HttpStatus.OK);
     }
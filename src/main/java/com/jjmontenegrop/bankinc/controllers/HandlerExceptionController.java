@@ -1,64 +1,157 @@
 package com.jjmontenegrop.bankinc.controllers;
 
 import com.jjmontenegrop.bankinc.exceptions.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 @RestControllerAdvice
 public class HandlerExceptionController {
 
+    // Shared rejections always produce the same response, so it is built once instead of per request
+    private static final Map<BusinessException, ResponseEntity<String>> PRECOMPUTED_RESPONSES = Map.of(
+            InsufficientFundsException.INSUFFICIENT_FUNDS, badRequest(InsufficientFundsException.INSUFFICIENT_FUNDS),
+            InvalidRechargeAmountException.INVALID_AMOUNT, badRequest(InvalidRechargeAmountException.INVALID_AMOUNT),
+            InvalidPurchasePriceException.INVALID_PRICE, badRequest(InvalidPurchasePriceException.INVALID_PRICE),
+            TransactionAlreadyAnnulatedException.ALREADY_ANNULATED,
+            badRequest(TransactionAlreadyAnnulatedException.ALREADY_ANNULATED),
+            InvalidProductIdException.TOO_SHORT, badRequest(InvalidProductIdException.TOO_SHORT),
+            InvalidProductIdException.NOT_NUMERIC, badRequest(InvalidProductIdException.NOT_NUMERIC),
+            InvalidExportFilterException.MISSING_FILTER, badRequest(InvalidExportFilterException.MISSING_FILTER),
+            InvalidBalanceSlotsException.LEDGER_ENABLED, badRequest(InvalidBalanceSlotsException.LEDGER_ENABLED),
+            CardRateLimitExceededException.TOO_MANY_REQUESTS, ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(CardRateLimitExceededException.TOO_MANY_REQUESTS.getMessage()),
+            RechargeTimeoutException.NOT_APPLIED, ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body(RechargeTimeoutException.NOT_APPLIED.getMessage()));
+
+    MeterRegistry meterRegistry;
+
+    private final Map<Class<?>, Counter> handledExceptions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public HandlerExceptionController(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
     @ExceptionHandler(CardNotFoundException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<String> handleCardNotFoundException(CardNotFoundException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+        return handle(ex, HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(InvalidProductIdException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleInvalidProductIdException(InvalidProductIdException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(InvalidCardCountException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidCardCountException(InvalidCardCountException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(CardAlreadyActivatedException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleCardAlreadyActivatedException(CardAlreadyActivatedException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
     @ExceptionHandler(CardAlreadyBlockedException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleCardAlreadyBlockedException(CardAlreadyBlockedException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(CardNotAvailableException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleCardNotAvailableException(CardNotAvailableException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(InvalidRechargeAmountException.class)
     public ResponseEntity<String> handleInvalidRechargeAmountException(InvalidRechargeAmountException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(InvalidPurchasePriceException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidPurchasePriceException(InvalidPurchasePriceException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(InsufficientFundsException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleInsufficientFundsException(InsufficientFundsException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+        return handle(ex, HttpStatus.BAD_REQUEST);
     }
 
     @ExceptionHandler(TransactionNotFoundException.class)
     @ResponseStatus(HttpStatus.NOT_FOUND)
     public ResponseEntity<String> handleCardOrTransactionNotFoundException(TransactionNotFoundException ex) {
-        return new ResponseEntity<>(ex.getMessage(), HttpStatus.NOT_FOUND);
+        return handle(ex, HttpStatus.NOT_FOUND);
     }
 
     @ExceptionHandler(TransactionAlreadyAnnulatedException.class)
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ResponseEntity<String> handleTransactionAlreadyAnnulatedException(TransactionAlreadyAnnulatedException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(InvalidPageCursorException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidPageCursorException(InvalidPageCursorException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(InvalidExportFilterException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidExportFilterException(InvalidExportFilterException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(InvalidBalanceSlotsException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ResponseEntity<String> handleInvalidBalanceSlotsException(InvalidBalanceSlotsException ex) {
+        return handle(ex, HttpStatus.BAD_REQUEST);
+    }
+
+    @ExceptionHandler(CardRateLimitExceededException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ResponseEntity<String> handleCardRateLimitExceededException(CardRateLimitExceededException ex) {
+        return handle(ex, HttpStatus.TOO_MANY_REQUESTS);
+    }
+
+    @ExceptionHandler(RechargeTimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ResponseEntity<String> handleRechargeTimeoutException(RechargeTimeoutException ex) {
+        return handle(ex, HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    private ResponseEntity<String> handle(BusinessException ex, HttpStatus status) {
+        handledExceptions.computeIfAbsent(ex.getClass(), type -> Counter.builder("bankinc.exceptions.handled")
+                .description("Domain exceptions turned into error responses")
+                .tag("exception", type.getSimpleName())
+                .tag("status", String.valueOf(status.value()))
+                .register(meterRegistry))
+                .increment();
+
+        ResponseEntity<String> response = PRECOMPUTED_RESPONSES.get(ex);
+
+        return response != null ? response : new ResponseEntity<>(ex.getMessage(), status);
+    }
+
+    private static ResponseEntity<String> badRequest(BusinessException ex) {
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
     }
 }
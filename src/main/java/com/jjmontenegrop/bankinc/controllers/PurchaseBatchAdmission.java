@@ -0,0 +1,73 @@
+package com.jjmontenegrop.bankinc.controllers;
+
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.exceptions.CardRateLimitExceededException;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
+
+import java.util.*;
+
+// Rate limits a purchase batch per card rather than per item: a settlement batch may carry many purchases for one
+// card, so each distinct card spends a single purchase token. Items of a card over its limit are declined in the
+// results instead of failing the whole batch, and the tokens are given back if the batch is rejected after all.
+final class PurchaseBatchAdmission {
+
+    private final CardRateLimiter cardRateLimiter;
+    private final List<PurchaseRequestResponseDTO> purchases;
+    private final Set<String> charged = new LinkedHashSet<>();
+    private final Set<String> throttled = new HashSet<>();
+
+    PurchaseBatchAdmission(CardRateLimiter cardRateLimiter, List<PurchaseRequestResponseDTO> purchases) {
+        this.cardRateLimiter = cardRateLimiter;
+        this.purchases = purchases;
+
+        for (PurchaseRequestResponseDTO purchase : purchases) {
+            String cardId = purchase != null ? purchase.getCardId() : null;
+            if (cardId != null && !charged.contains(cardId) && !throttled.contains(cardId)) {
+                if (cardRateLimiter.admit(CardRateLimiter.Endpoint.PURCHASE, cardId)) {
+                    charged.add(cardId);
+                } else {
+                    throttled.add(cardId);
+                }
+            }
+        }
+    }
+
+    // The purchases to hand to the service, in request order
+    List<PurchaseRequestResponseDTO> admitted() {
+        if (throttled.isEmpty()) {
+            return purchases;
+        }
+
+        return purchases.stream().filter(purchase -> !isThrottled(purchase)).toList();
+    }
+
+    // The service's results for admitted(), with the throttled items declined in their original positions
+    List<PurchaseBatchResultDTO> results(List<PurchaseBatchResultDTO> admittedResults) {
+        if (throttled.isEmpty()) {
+            return admittedResults;
+        }
+
+        List<PurchaseBatchResultDTO> results = new ArrayList<>(purchases.size());
+        Iterator<PurchaseBatchResultDTO> admittedResult = admittedResults.iterator();
+
+        for (PurchaseRequestResponseDTO purchase : purchases) {
+            results.add(isThrottled(purchase)
+                    ? PurchaseBatchResultDTO.declined(purchase.getCardId(),
+                            CardRateLimitExceededException.TOO_MANY_REQUESTS.getMessage())
+                    : admittedResult.next());
+        }
+
+        return results;
+    }
+
+    void refund() {
+        for (String cardId : charged) {
+            cardRateLimiter.release(CardRateLimiter.Endpoint.PURCHASE, cardId);
+        }
+    }
+
+    private boolean isThrottled(PurchaseRequestResponseDTO purchase) {
+        return purchase != null && throttled.contains(purchase.getCardId());
+    }
+}
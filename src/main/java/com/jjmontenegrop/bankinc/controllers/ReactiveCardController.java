@@ -0,0 +1,78 @@
+package com.jjmontenegrop.bankinc.controllers;
+
+import com.jjmontenegrop.bankinc.entities.dto.CardEnrollmentRequestDTO;
+import com.jjmontenegrop.bankinc.entities.dto.CardRechargeRequestDTO;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
+import com.jjmontenegrop.bankinc.services.ReactiveCardService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RestController
+@RequestMapping("/card")
+@Profile("reactive")
+public class ReactiveCardController {
+
+    ReactiveCardService cardService;
+    CardRateLimiter cardRateLimiter;
+
+    @Autowired
+    public ReactiveCardController(ReactiveCardService cardService, CardRateLimiter cardRateLimiter) {
+        this.cardService = cardService;
+        this.cardRateLimiter = cardRateLimiter;
+    }
+
+    @GetMapping("/{productId}/number")
+    public Mono<String> generateCardNumber(@PathVariable String productId) {
+        return cardService.generateCardNumber(productId);
+    }
+
+    @PostMapping(value = "/{productId}/numbers", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Map<String, String>> issueCards(@PathVariable String productId, @RequestParam int count) {
+
+        cardService.validateCardIssuance(productId, count);
+
+        return Flux.defer(() -> {
+            AtomicBoolean streamed = new AtomicBoolean();
+
+            // Same marker line as the servlet stack once cards have been streamed; before that the error status applies
+            return cardService.issueCards(productId, count)
+                    .map(cardNumber -> Map.of("cardId", cardNumber))
+                    .doOnNext(card -> streamed.set(true))
+                    .onErrorResume(ex -> streamed.get()
+                            ? Flux.concat(Flux.just(Map.of("error", StreamingResponses.ISSUANCE_ABORTED)), Flux.error(ex))
+                            : Flux.error(ex));
+        });
+    }
+
+    @PostMapping("/enroll")
+    public Mono<ResponseEntity<String>> enrollCard(@RequestBody CardEnrollmentRequestDTO request) {
+        return cardService.activateCard(request.getCardId())
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok("Card activated")));
+    }
+
+    @DeleteMapping("/{cardId}")
+    public Mono<ResponseEntity<String>> deleteCard(@PathVariable String cardId) {
+        return cardService.blockCard(cardId)
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok("Card blocked")));
+    }
+
+    @PostMapping("/balance")
+    public Mono<ResponseEntity<String>> rechargeCard(@RequestBody CardRechargeRequestDTO request) {
+        return cardService.rechargeCard(request.getCardId(), request.getBalance())
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok("Card recharged")));
+    }
+
+    @GetMapping("/balance/{cardId}")
+    public Mono<ResponseEntity<String>> getCardBalance(@PathVariable String cardId) {
+        cardRateLimiter.acquire(CardRateLimiter.Endpoint.BALANCE, cardId);
+        return cardService.getCardBalance(cardId).map(ResponseEntity::ok);
+    }
+}
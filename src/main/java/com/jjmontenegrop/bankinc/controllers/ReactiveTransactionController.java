@@ -0,0 +1,87 @@
+package com.jjmontenegrop.bankinc.controllers;
+
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionAnulationRequestDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
+import com.jjmontenegrop.bankinc.services.ReactiveTransactionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@RestController
+@RequestMapping("/transaction")
+@Profile("reactive")
+public class ReactiveTransactionController {
+
+    ReactiveTransactionService transactionService;
+    CardRateLimiter cardRateLimiter;
+
+    @Autowired
+    public ReactiveTransactionController(ReactiveTransactionService transactionService,
+                                         CardRateLimiter cardRateLimiter) {
+        this.transactionService = transactionService;
+        this.cardRateLimiter = cardRateLimiter;
+    }
+
+    @PostMapping("/purchase")
+    public Mono<ResponseEntity<String>> purchase(@RequestBody PurchaseRequestResponseDTO request) {
+        cardRateLimiter.acquire(CardRateLimiter.Endpoint.PURCHASE, request.getCardId());
+        return transactionService.purchase(request.getCardId(), request.getPrice())
+                .map(purchaseId -> ResponseEntity.ok("Purchase id: " + purchaseId));
+    }
+
+    @PostMapping("/purchase/batch")
+    public Mono<ResponseEntity<List<PurchaseBatchResultDTO>>> purchaseBatch(
+            @RequestBody List<PurchaseRequestResponseDTO> request) {
+        PurchaseBatchAdmission admission = new PurchaseBatchAdmission(cardRateLimiter, request);
+
+        return transactionService.purchaseBatch(admission.admitted())
+                .doOnError(ex -> admission.refund())
+                .map(results -> ResponseEntity.ok(admission.results(results)));
+    }
+
+    @GetMapping("/{transactionId}")
+    public Mono<PurchaseRequestResponseDTO> getTransaction(@PathVariable String transactionId) {
+        return transactionService.getTransaction(transactionId);
+    }
+
+    @GetMapping("/card/{cardId}")
+    public Mono<ResponseEntity<TransactionPageDTO>> getCardTransactions(
+            @PathVariable String cardId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Boolean annulled,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int size) {
+        return transactionService.getCardTransactions(cardId, from, to, annulled, cursor, size).map(ResponseEntity::ok);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<TransactionDTO> exportTransactions(
+            @RequestParam(required = false) String cardId,
+            @RequestParam(required = false) String productId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+
+        transactionService.validateTransactionExport(cardId, productId);
+
+        return transactionService.exportTransactions(cardId, productId, from, to);
+    }
+
+    @PostMapping("/anulation")
+    public Mono<ResponseEntity<String>> anulation(@RequestBody TransactionAnulationRequestDTO request) {
+        return transactionService.anulation(request.getCardId(), request.getTransactionId())
+                .then(Mono.fromSupplier(() -> ResponseEntity.ok("Transaction anulated")));
+    }
+}
@@ -0,0 +1,29 @@
+package com.jjmontenegrop.bankinc.controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+
+import java.time.Duration;
+
+// Mass issuance and exports stream for as long as the data takes, so they raise the async timeout for their own
+// request only; every other async request keeps the container default
+final class StreamingResponses {
+
+    static final Duration TIMEOUT = Duration.ofHours(1);
+
+    // Last line of an issuance that failed part way; the cards listed before it were issued, the rest were not
+    static final String ISSUANCE_ABORTED = "Card issuance aborted";
+
+    private StreamingResponses() {
+    }
+
+    // Must run inside the handler method, before the StreamingResponseBody is returned and async processing starts
+    static void extendTimeout(HttpServletRequest request) {
+        AsyncWebRequest asyncWebRequest = WebAsyncUtils.getAsyncManager(request).getAsyncWebRequest();
+
+        if (asyncWebRequest != null) {
+            asyncWebRequest.setTimeout(TIMEOUT.toMillis());
+        }
+    }
+}
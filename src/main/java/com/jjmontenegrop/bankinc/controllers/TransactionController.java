@@ -1,23 +1,45 @@
 package com.jjmontenegrop.bankinc.controllers;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
 import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
 import com.jjmontenegrop.bankinc.entities.dto.TransactionAnulationRequestDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
 import com.jjmontenegrop.bankinc.services.TransactionServiceImpl;
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
 
 @RestController
 @RequestMapping("/transaction")
+@Profile("!reactive")
 public class TransactionController {
 
 TransactionServiceImpl transactionServiceImpl;
+ObjectMapper objectMapper;
+CardRateLimiter cardRateLimiter;
 
 @Autowired
-    public TransactionController(TransactionServiceImpl transactionServiceImpl) {
+    public TransactionController(TransactionServiceImpl transactionServiceImpl, ObjectMapper objectMapper,
+                                 CardRateLimiter cardRateLimiter) {
         this.transactionServiceImpl = transactionServiceImpl;
+        this.objectMapper = objectMapper;
+        this.cardRateLimiter = cardRateLimiter;
     }
 
     @PostMapping("/purchase")
@@ -26,6 +48,8 @@ TransactionServiceImpl transactionServiceImpl;
             String cardNumber = request.getCardId();
             BigDecimal price = request.getPrice();
 
+            cardRateLimiter.acquire(CardRateLimiter.Endpoint.PURCHASE, cardNumber);
+
             Long purchaseId = transactionServiceImpl.purchase(cardNumber, price);
 
             String responseMessage = "Purchase id: " + purchaseId;
@@ -33,6 +57,22 @@ TransactionServiceImpl transactionServiceImpl;
             return ResponseEntity.ok(responseMessage);
     }
 
+    @PostMapping("/purchase/batch")
+    public ResponseEntity<List<PurchaseBatchResultDTO>> purchaseBatch(@RequestBody List<PurchaseRequestResponseDTO> request) {
+
+        PurchaseBatchAdmission admission = new PurchaseBatchAdmission(cardRateLimiter, request);
+
+        List<PurchaseBatchResultDTO> results;
+        try {
+            results = transactionServiceImpl.purchaseBatch(admission.admitted());
+        } catch (RuntimeException ex) {
+            admission.refund();
+            throw ex;
+        }
+
+        return ResponseEntity.ok(admission.results(results));
+    }
+
     @GetMapping("/{transactionId}")
     public ResponseEntity<PurchaseRequestResponseDTO> getTransaction(@PathVariable String transactionId) {
 
@@ -41,6 +81,51 @@ TransactionServiceImpl transactionServiceImpl;
         return ResponseEntity.ok(transaction);
     }
 
+    @GetMapping("/card/{cardId}")
+    public ResponseEntity<TransactionPageDTO> getCardTransactions(
+            @PathVariable String cardId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) Boolean annulled,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "50") int size) {
+
+        TransactionPageDTO page = transactionServiceImpl.getCardTransactions(cardId, from, to, annulled, cursor, size);
+
+        return ResponseEntity.ok(page);
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportTransactions(
+            @RequestParam(required = false) String cardId,
+            @RequestParam(required = false) String productId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            HttpServletRequest request) {
+
+        transactionServiceImpl.validateTransactionExport(cardId, productId);
+        StreamingResponses.extendTimeout(request);
+
+        StreamingResponseBody responseBody = outputStream -> {
+            ObjectWriter rowWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.setRootValueSeparator(null);
+
+                transactionServiceImpl.exportTransactions(cardId, productId, from, to, transaction -> {
+                    try {
+                        rowWriter.writeValue(generator, transaction);
+                        generator.writeRaw('\n');
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(responseBody);
+    }
+
     @PostMapping("/anulation")
     public ResponseEntity<String> anulation(@RequestBody TransactionAnulationRequestDTO request) {
 
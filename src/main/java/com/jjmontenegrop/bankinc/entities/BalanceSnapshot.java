@@ -0,0 +1,34 @@
+package com.jjmontenegrop.bankinc.entities;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Entity
+@Table(name = "balance_snapshot")
+public class BalanceSnapshot {
+
+    @Id
+    @Column(name = "card_id", nullable = false, unique = true)
+    private String cardId;
+
+    @Column(nullable = false)
+    private BigDecimal balance;
+
+    // Every ledger entry of the card up to and including this id is already part of balance
+    @Column(name = "last_entry_id", nullable = false)
+    private Long lastEntryId;
+
+    @Column(name = "taken_at", nullable = false)
+    private LocalDateTime takenAt;
+}
@@ -5,6 +5,7 @@ import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
 import jakarta.persistence.PrePersist;
 import lombok.*;
+import org.springframework.data.domain.Persistable;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
@@ -15,7 +16,7 @@ import java.time.LocalDateTime;
 @AllArgsConstructor
 @ToString
 @Entity
-public class Card {
+public class Card implements Persistable<String> {
 
     @Id
     @Column(name = "card_id", nullable = false, unique = true)
@@ -33,10 +34,18 @@ public class Card {
     @Column
     private BigDecimal balance;
 
+    // Above 1 the balance is split across card_balance_slot rows and this row's balance only holds leftovers
+    @Column(name = "balance_slots")
+    private Integer balanceSlots;
+
     public Card(String cardNumber) {
         this.cardId = cardNumber;
     }
 
+    public Card(String cardId, LocalDateTime expirationDate, Boolean isActive, Boolean isBlocked, BigDecimal balance) {
+        this(cardId, expirationDate, isActive, isBlocked, balance, 1);
+    }
+
     @PrePersist
     public void prePersist() {
         LocalDateTime currentDate = LocalDateTime.now();
@@ -44,9 +53,30 @@ public class Card {
         this.isActive = false;
         this.isBlocked = false;
         this.balance = BigDecimal.valueOf(0);
+        this.balanceSlots = 1;
+    }
+
+    public boolean isSharded() {
+        return this.balanceSlots != null && this.balanceSlots > 1;
     }
 
     public boolean isAvailable() {
-        return !this.getIsActive() || this.getIsBlocked();
+        return !this.getIsActive() || this.getIsBlocked() || this.isExpired();
+    }
+
+    // CardExpirationSweeper deactivates expired cards some time after they expire; until then the date decides
+    public boolean isExpired() {
+        return this.expirationDate != null && !this.expirationDate.isAfter(LocalDateTime.now());
+    }
+
+    @Override
+    public String getId() {
+        return this.cardId;
+    }
+
+    // Card numbers are assigned by the application, so save() must insert new cards instead of merging them
+    @Override
+    public boolean isNew() {
+        return this.expirationDate == null;
     }
 }
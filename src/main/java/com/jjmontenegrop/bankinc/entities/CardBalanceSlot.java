@@ -0,0 +1,40 @@
+package com.jjmontenegrop.bankinc.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@Entity
+@Table(name = "card_balance_slot")
+@IdClass(CardBalanceSlot.Key.class)
+public class CardBalanceSlot {
+
+    @Id
+    @Column(name = "card_id", nullable = false)
+    private String cardId;
+
+    @Id
+    @Column(nullable = false)
+    private Integer slot;
+
+    @Column(nullable = false)
+    private BigDecimal balance;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+
+        private String cardId;
+        private Integer slot;
+    }
+}
@@ -0,0 +1,78 @@
+package com.jjmontenegrop.bankinc.entities;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.springframework.data.domain.Persistable;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString
+@Entity
+public class IdempotencyRecord implements Persistable<String> {
+
+    public enum Status { IN_PROGRESS, COMPLETED }
+
+    @Id
+    @Column(name = "idempotency_key", nullable = false, length = 512)
+    private String idempotencyKey;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Status status;
+
+    // SHA-256 of the request body, so a key reused with a different payload is refused instead of replayed
+    @Column(name = "request_hash", length = 64)
+    private String requestHash;
+
+    // Null while the request is in progress
+    @Column(name = "status_code")
+    private Integer statusCode;
+
+    @Column(name = "content_type")
+    private String contentType;
+
+    @Column(columnDefinition = "text")
+    private String body;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    // The claim taken before the request runs
+    public IdempotencyRecord(String idempotencyKey, String requestHash) {
+        this.idempotencyKey = idempotencyKey;
+        this.requestHash = requestHash;
+        this.status = Status.IN_PROGRESS;
+    }
+
+    public IdempotencyRecord(String idempotencyKey, String requestHash, Integer statusCode, String contentType,
+                             String body) {
+        this.idempotencyKey = idempotencyKey;
+        this.requestHash = requestHash;
+        this.status = Status.COMPLETED;
+        this.statusCode = statusCode;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    public boolean isCompleted() {
+        return this.status == Status.COMPLETED;
+    }
+
+    @PrePersist
+    public void prePersist() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    @Override
+    public String getId() {
+        return this.idempotencyKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return this.createdAt == null;
+    }
+}
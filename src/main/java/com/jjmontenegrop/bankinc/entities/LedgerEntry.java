@@ -0,0 +1,57 @@
+package com.jjmontenegrop.bankinc.entities;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@Entity
+@Table(name = "ledger_entry", indexes = @Index(name = "idx_ledger_entry_card_id_entry_id", columnList = "card_id, entry_id"))
+public class LedgerEntry {
+
+    public enum Type { PURCHASE, RECHARGE, REVERSAL }
+
+    // allocationSize = 1 keeps ids in the order they were handed out across instances, which compaction relies on
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_entry_seq")
+    @SequenceGenerator(name = "ledger_entry_seq", sequenceName = "ledger_entry_seq", allocationSize = 1)
+    @Column(name = "entry_id", nullable = false, unique = true)
+    private Long entryId;
+
+    @Column(name = "card_id", nullable = false)
+    private String cardId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "entry_type", nullable = false, length = 16)
+    private Type entryType;
+
+    // Signed: credits are positive, debits negative
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    @Column(name = "transaction_id")
+    private Long transactionId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public LedgerEntry(String cardId, Type entryType, BigDecimal amount, Long transactionId) {
+        this.cardId = cardId;
+        this.entryType = entryType;
+        this.amount = amount;
+        this.transactionId = transactionId;
+    }
+
+    @PrePersist
+    private void prePersist() {
+        this.createdAt = LocalDateTime.now();
+    }
+}
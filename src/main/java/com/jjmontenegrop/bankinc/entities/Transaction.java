@@ -14,6 +14,7 @@ import java.time.LocalDateTime;
 @ToString
 @NoArgsConstructor
 @Entity
+@Table(indexes = @Index(name = "idx_transaction_card_date_id", columnList = "card_id, transaction_date, transaction_id"))
 public class Transaction {
 
     @Id
@@ -0,0 +1,18 @@
+package com.jjmontenegrop.bankinc.entities.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class CardExpirationDTO {
+
+    private String cardId;
+    private LocalDateTime expirationDate;
+}
@@ -0,0 +1,18 @@
+package com.jjmontenegrop.bankinc.entities.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerTailDTO {
+
+    private BigDecimal amount;
+    private Long entries;
+}
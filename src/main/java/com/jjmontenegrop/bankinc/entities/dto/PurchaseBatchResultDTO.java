@@ -0,0 +1,25 @@
+package com.jjmontenegrop.bankinc.entities.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PurchaseBatchResultDTO {
+
+    private String cardId;
+    private Long transactionId;
+    private String declineReason;
+
+    public static PurchaseBatchResultDTO approved(String cardId, Long transactionId) {
+        return new PurchaseBatchResultDTO(cardId, transactionId, null);
+    }
+
+    public static PurchaseBatchResultDTO declined(String cardId, String declineReason) {
+        return new PurchaseBatchResultDTO(cardId, null, declineReason);
+    }
+}
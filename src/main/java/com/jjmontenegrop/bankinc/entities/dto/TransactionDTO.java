@@ -0,0 +1,22 @@
+package com.jjmontenegrop.bankinc.entities.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionDTO {
+
+    private Long transactionId;
+    private String cardId;
+    private BigDecimal price;
+    private LocalDateTime transactionDate;
+    private Boolean isAnnulled;
+}
@@ -0,0 +1,18 @@
+package com.jjmontenegrop.bankinc.entities.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.util.List;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class TransactionPageDTO {
+
+    private List<TransactionDTO> transactions;
+    private String nextCursor;
+}
@@ -0,0 +1,10 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+// Business rejections are expected outcomes, not bugs: no stack trace is captured and no suppressed list is kept,
+// so throwing one costs about as much as allocating it, and constant-message instances can be shared.
+public abstract class BusinessException extends RuntimeException {
+
+    protected BusinessException(String message) {
+        super(message, null, false, false);
+    }
+}
@@ -1,6 +1,6 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class CardAlreadyActivatedException extends RuntimeException{
+public class CardAlreadyActivatedException extends BusinessException {
 
         public CardAlreadyActivatedException(String message) {
             super(message);
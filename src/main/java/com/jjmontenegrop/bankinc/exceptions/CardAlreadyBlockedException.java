@@ -1,6 +1,6 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class CardAlreadyBlockedException extends RuntimeException{
+public class CardAlreadyBlockedException extends BusinessException {
 
         public CardAlreadyBlockedException(String message) {
             super(message);
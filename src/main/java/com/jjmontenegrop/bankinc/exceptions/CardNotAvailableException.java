@@ -1,6 +1,6 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class CardNotAvailableException extends RuntimeException{
+public class CardNotAvailableException extends BusinessException {
 
         public CardNotAvailableException(String message) {
             super(message);
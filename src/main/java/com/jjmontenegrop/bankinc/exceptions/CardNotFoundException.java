@@ -1,6 +1,6 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class CardNotFoundException extends RuntimeException{
+public class CardNotFoundException extends BusinessException {
 
     public CardNotFoundException(String message) {
         super(message);
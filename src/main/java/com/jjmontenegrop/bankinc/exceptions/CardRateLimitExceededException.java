@@ -0,0 +1,11 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class CardRateLimitExceededException extends BusinessException {
+
+    public static final CardRateLimitExceededException TOO_MANY_REQUESTS =
+            new CardRateLimitExceededException("Too many requests for this card, try again later");
+
+    public CardRateLimitExceededException(String message) {
+        super(message);
+    }
+}
@@ -1,8 +1,10 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class InsufficientFundsException extends RuntimeException{
+public class InsufficientFundsException extends BusinessException {
 
-            public InsufficientFundsException(String message) {
-                super(message);
-            }
+    public static final InsufficientFundsException INSUFFICIENT_FUNDS = new InsufficientFundsException("Insufficient funds");
+
+    public InsufficientFundsException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,11 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class InvalidBalanceSlotsException extends BusinessException {
+
+    public static final InvalidBalanceSlotsException LEDGER_ENABLED =
+            new InvalidBalanceSlotsException("Balance slots are not available while the ledger is enabled");
+
+    public InvalidBalanceSlotsException(String message) {
+        super(message);
+    }
+}
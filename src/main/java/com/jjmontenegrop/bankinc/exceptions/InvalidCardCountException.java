@@ -0,0 +1,8 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class InvalidCardCountException extends BusinessException {
+
+    public InvalidCardCountException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class InvalidExportFilterException extends BusinessException {
+
+    public static final InvalidExportFilterException MISSING_FILTER = new InvalidExportFilterException("Either cardId or productId should be provided");
+
+    public InvalidExportFilterException(String message) {
+        super(message);
+    }
+}
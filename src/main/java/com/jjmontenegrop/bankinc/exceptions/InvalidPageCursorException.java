@@ -0,0 +1,8 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class InvalidPageCursorException extends BusinessException {
+
+    public InvalidPageCursorException(String message) {
+        super(message);
+    }
+}
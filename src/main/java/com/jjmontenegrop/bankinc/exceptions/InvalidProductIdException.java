@@ -1,6 +1,10 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class InvalidProductIdException extends RuntimeException {
+public class InvalidProductIdException extends BusinessException {
+
+    public static final InvalidProductIdException TOO_SHORT = new InvalidProductIdException("Product ID should be at least 6 digits long.");
+
+    public static final InvalidProductIdException NOT_NUMERIC = new InvalidProductIdException("Product ID should only contain digits.");
 
     public InvalidProductIdException(String message) {
         super(message);
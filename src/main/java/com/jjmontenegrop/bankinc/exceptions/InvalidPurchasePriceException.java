@@ -0,0 +1,10 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class InvalidPurchasePriceException extends BusinessException {
+
+    public static final InvalidPurchasePriceException INVALID_PRICE = new InvalidPurchasePriceException("Purchase price should be valid");
+
+    public InvalidPurchasePriceException(String message) {
+        super(message);
+    }
+}
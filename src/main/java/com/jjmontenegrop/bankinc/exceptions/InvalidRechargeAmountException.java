@@ -1,8 +1,10 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class InvalidRechargeAmountException extends RuntimeException {
+public class InvalidRechargeAmountException extends BusinessException {
 
-        public InvalidRechargeAmountException(String message) {
-            super(message);
-        }
+    public static final InvalidRechargeAmountException INVALID_AMOUNT = new InvalidRechargeAmountException("Recharge amount should be valid");
+
+    public InvalidRechargeAmountException(String message) {
+        super(message);
+    }
 }
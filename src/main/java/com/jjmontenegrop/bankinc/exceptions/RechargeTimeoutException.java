@@ -0,0 +1,11 @@
+package com.jjmontenegrop.bankinc.exceptions;
+
+public class RechargeTimeoutException extends BusinessException {
+
+    public static final RechargeTimeoutException NOT_APPLIED =
+            new RechargeTimeoutException("Recharge was not applied in time, try again later");
+
+    public RechargeTimeoutException(String message) {
+        super(message);
+    }
+}
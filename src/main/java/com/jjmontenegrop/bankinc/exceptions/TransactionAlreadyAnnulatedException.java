@@ -1,8 +1,10 @@
 package com.jjmontenegrop.bankinc.exceptions;
 
-public class TransactionAlreadyAnnulatedException extends RuntimeException{
+public class TransactionAlreadyAnnulatedException extends BusinessException {
 
-                public TransactionAlreadyAnnulatedException(String message) {
-                    super(message);
-                }
+    public static final TransactionAlreadyAnnulatedException ALREADY_ANNULATED = new TransactionAlreadyAnnulatedException("Transaction already annulated");
+
+    public TransactionAlreadyAnnulatedException(String message) {
+        super(message);
+    }
 }
@@ -0,0 +1,90 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Gradient concurrency limit: compares a short-term latency average against a slow long-term baseline. While the
+// short term stays within tolerance x baseline the limit grows by roughly sqrt(limit) per sample; past it the limit
+// shrinks in proportion to the slowdown (at most by half per sample), and a failed request cuts it by a tenth.
+final class AdaptiveConcurrencyLimit {
+
+    private static final double SHORT_SMOOTHING = 0.1;
+    private static final double LONG_SMOOTHING = 0.002;
+    private static final double LIMIT_SMOOTHING = 0.2;
+    private static final double FAILURE_BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+
+    // Guarded by this
+    private double shortLatency;
+    private double longLatency;
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    }
+
+    boolean tryAcquire() {
+        int current = inFlight.get();
+        while (current < (int) limit) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = inFlight.get();
+        }
+        return false;
+    }
+
+    // Frees the slot without a latency sample
+    void release() {
+        inFlight.decrementAndGet();
+    }
+
+    void release(long latencyNanos, boolean failed) {
+        int concurrency = inFlight.getAndDecrement();
+
+        synchronized (this) {
+            if (failed) {
+                limit = Math.max(minLimit, limit * FAILURE_BACKOFF);
+                return;
+            }
+
+            if (longLatency == 0) {
+                shortLatency = latencyNanos;
+                longLatency = latencyNanos;
+                return;
+            }
+            shortLatency += (latencyNanos - shortLatency) * SHORT_SMOOTHING;
+            longLatency += (latencyNanos - longLatency) * LONG_SMOOTHING;
+
+            // After a slowdown the baseline is left inflated; bring it down faster so the next one is noticed
+            if (longLatency > shortLatency * 2) {
+                longLatency *= 0.95;
+            }
+
+            double gradient = Math.clamp(tolerance * longLatency / shortLatency, 0.5, 1.0);
+            double newLimit = limit * gradient + Math.sqrt(limit);
+
+            // Do not grow on samples taken while less than half the limit was in use: they say nothing about it
+            if (concurrency < limit / 2) {
+                newLimit = Math.min(newLimit, limit);
+            }
+
+            limit = Math.clamp(limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING, minLimit, maxLimit);
+        }
+    }
+
+    int getLimit() {
+        return (int) limit;
+    }
+
+    int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,131 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+// Sheds load before it queues: reads and writes each get an adaptive concurrency limit, and a request over its
+// budget is answered at once with 503 so a slow database cannot tie up every request thread. Runs ahead of the
+// other filters so shed requests cost nothing else.
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@ConditionalOnProperty(name = "bankinc.admission.enabled", havingValue = "true")
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    private final Budget reads;
+    private final Budget writes;
+
+    @Autowired
+    public AdmissionControlFilter(@Value("${bankinc.admission.read.initial-limit}") int readInitialLimit,
+                                  @Value("${bankinc.admission.read.max-limit}") int readMaxLimit,
+                                  @Value("${bankinc.admission.write.initial-limit}") int writeInitialLimit,
+                                  @Value("${bankinc.admission.write.max-limit}") int writeMaxLimit,
+                                  @Value("${bankinc.admission.min-limit}") int minLimit,
+                                  @Value("${bankinc.admission.latency-tolerance}") double latencyTolerance,
+                                  MeterRegistry meterRegistry) {
+        this.reads = new Budget("read",
+                new AdaptiveConcurrencyLimit(readInitialLimit, minLimit, readMaxLimit, latencyTolerance), meterRegistry);
+        this.writes = new Budget("write",
+                new AdaptiveConcurrencyLimit(writeInitialLimit, minLimit, writeMaxLimit, latencyTolerance), meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + "/actuator");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        Budget budget = isRead(request) ? reads : writes;
+
+        if (!budget.limit.tryAcquire()) {
+            budget.rejected.increment();
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            return;
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            failed = response.getStatus() >= HttpStatus.INTERNAL_SERVER_ERROR.value();
+        } finally {
+            if (request.isAsyncStarted()) {
+                holdUntilComplete(request, budget);
+            } else {
+                budget.limit.release(System.nanoTime() - start, failed);
+            }
+        }
+    }
+
+    // Streaming responses keep their permit while they stream, since they hold a connection, but their duration
+    // depends on the amount of data and says nothing about database latency
+    private static void holdUntilComplete(HttpServletRequest request, Budget budget) {
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                budget.limit.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return HttpMethod.GET.matches(request.getMethod()) || HttpMethod.HEAD.matches(request.getMethod());
+    }
+
+    private static final class Budget {
+
+        final AdaptiveConcurrencyLimit limit;
+        final Counter rejected;
+
+        Budget(String name, AdaptiveConcurrencyLimit limit, MeterRegistry meterRegistry) {
+            this.limit = limit;
+            this.rejected = Counter.builder("bankinc.admission.rejected")
+                    .description("Requests shed with 503 because their budget was full")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+
+            Gauge.builder("bankinc.admission.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                    .description("Current concurrency limit")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+            Gauge.builder("bankinc.admission.in-flight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                    .description("Requests currently admitted")
+                    .tag("budget", name)
+                    .register(meterRegistry);
+        }
+    }
+}
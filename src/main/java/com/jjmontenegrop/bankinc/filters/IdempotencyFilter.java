@@ -0,0 +1,218 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import com.jjmontenegrop.bankinc.entities.IdempotencyRecord;
+import com.jjmontenegrop.bankinc.services.IdempotencyService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+@Component
+public class IdempotencyFilter extends OncePerRequestFilter {
+
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    public static final String IDEMPOTENT_REPLAY_HEADER = "Idempotent-Replayed";
+
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+
+    private static final List<String> IDEMPOTENT_ROUTES = List.of(
+            "POST /card/enroll",
+            "POST /card/balance",
+            "DELETE /card/*",
+            "POST /transaction/purchase",
+            "POST /transaction/purchase/batch",
+            "POST /transaction/anulation");
+
+    // Answers that tell the client to come back later; storing them would replay the refusal for the key's lifetime
+    private static final Set<Integer> RETRY_LATER_STATUSES = Set.of(
+            HttpStatus.REQUEST_TIMEOUT.value(),
+            HttpStatus.TOO_EARLY.value(),
+            HttpStatus.TOO_MANY_REQUESTS.value());
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    IdempotencyService idempotencyService;
+
+    @Autowired
+    public IdempotencyFilter(IdempotencyService idempotencyService) {
+        this.idempotencyService = idempotencyService;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (request.getHeader(IDEMPOTENCY_KEY_HEADER) == null) {
+            return true;
+        }
+
+        String route = request.getMethod() + " " + request.getRequestURI().substring(request.getContextPath().length());
+
+        return IDEMPOTENT_ROUTES.stream().noneMatch(pattern -> pathMatcher.match(pattern, route));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+
+        String clientKey = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+
+        if (clientKey.isBlank() || clientKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            writeError(response, HttpStatus.BAD_REQUEST,
+                    IDEMPOTENCY_KEY_HEADER + " should have between 1 and " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters");
+            return;
+        }
+
+        String idempotencyKey = idempotencyKey(request.getMethod(), request.getRequestURI(), clientKey);
+
+        // The body is read up front so its hash can be compared with the one stored under the key
+        byte[] body = request.getInputStream().readAllBytes();
+        String requestHash = sha256(body);
+
+        Optional<IdempotencyRecord> existing = idempotencyService.claim(idempotencyKey, requestHash);
+
+        if (existing.isPresent()) {
+            IdempotencyRecord record = existing.get();
+
+            // Records stored before request hashes existed have none and are replayed as before
+            if (record.getRequestHash() != null && !record.getRequestHash().equals(requestHash)) {
+                writeError(response, HttpStatus.UNPROCESSABLE_ENTITY,
+                        "The " + IDEMPOTENCY_KEY_HEADER + " was already used with a different request body");
+            } else if (record.isCompleted()) {
+                replay(response, record);
+            } else {
+                writeError(response, HttpStatus.CONFLICT,
+                        "A request with the same " + IDEMPOTENCY_KEY_HEADER + " is in progress");
+            }
+            return;
+        }
+
+        ContentCachingResponseWrapper responseWrapper = new ContentCachingResponseWrapper(response);
+        boolean completedNormally = false;
+
+        try {
+            filterChain.doFilter(new CachedBodyRequest(request, body), responseWrapper);
+            completedNormally = true;
+        } finally {
+            // Server errors and retry-later answers are not stored so the client can retry them with the same key
+            if (completedNormally && isFinal(responseWrapper.getStatus())) {
+                idempotencyService.complete(new IdempotencyRecord(idempotencyKey, requestHash,
+                        responseWrapper.getStatus(), responseWrapper.getContentType(),
+                        new String(responseWrapper.getContentAsByteArray(), StandardCharsets.UTF_8)));
+            } else {
+                idempotencyService.abandon(idempotencyKey);
+            }
+            responseWrapper.copyBodyToResponse();
+        }
+    }
+
+    // Method, URI and client key together can outgrow the key column, so the stored key is their fixed-length hash
+    static String idempotencyKey(String method, String requestUri, String clientKey) {
+        return sha256((method + " " + requestUri + " " + clientKey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static boolean isFinal(int status) {
+        return status < HttpStatus.INTERNAL_SERVER_ERROR.value() && !RETRY_LATER_STATUSES.contains(status);
+    }
+
+    private void replay(HttpServletResponse response, IdempotencyRecord record) throws IOException {
+        response.setStatus(record.getStatusCode());
+        response.setHeader(IDEMPOTENT_REPLAY_HEADER, "true");
+
+        if (record.getContentType() != null) {
+            response.setContentType(record.getContentType());
+        }
+
+        if (record.getBody() != null) {
+            response.getOutputStream().write(record.getBody().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Serves the body already read by the filter to the handler
+    private static final class CachedBodyRequest extends HttpServletRequestWrapper {
+
+        private final byte[] body;
+
+        CachedBodyRequest(HttpServletRequest request, byte[] body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            ByteArrayInputStream input = new ByteArrayInputStream(body);
+
+            return new ServletInputStream() {
+                @Override
+                public boolean isFinished() {
+                    return input.available() == 0;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public int read() {
+                    return input.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    return input.read(buffer, offset, length);
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            Charset charset = getCharacterEncoding() != null
+                    ? Charset.forName(getCharacterEncoding())
+                    : StandardCharsets.UTF_8;
+            return new BufferedReader(new InputStreamReader(getInputStream(), charset));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.BalanceSnapshot;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface BalanceSnapshotRepository extends CrudRepository<BalanceSnapshot, String> {
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM BalanceSnapshot s WHERE s.cardId = :cardId")
+    Optional<BalanceSnapshot> findForUpdate(@Param("cardId") String cardId);
+
+    // The snapshot the card's first compaction would write: card.balance, no entries folded in yet
+    @Modifying
+    @Query(value = "INSERT INTO balance_snapshot (card_id, balance, last_entry_id, taken_at) " +
+            "SELECT card_id, COALESCE(balance, 0), 0, :takenAt FROM card WHERE card_id = :cardId " +
+            "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("cardId") String cardId, @Param("takenAt") LocalDateTime takenAt);
+}
@@ -0,0 +1,37 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.CardBalanceSlot;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface CardBalanceSlotRepository extends CrudRepository<CardBalanceSlot, CardBalanceSlot.Key> {
+
+    @Modifying
+    @Query(value = "UPDATE card_balance_slot SET balance = balance + :amount WHERE card_id = :cardId AND slot = :slot",
+            nativeQuery = true)
+    int credit(@Param("cardId") String cardId, @Param("slot") int slot, @Param("amount") BigDecimal amount);
+
+    @Modifying
+    @Query(value = "UPDATE card_balance_slot SET balance = balance - :amount " +
+            "WHERE card_id = :cardId AND slot = :slot AND balance >= :amount", nativeQuery = true)
+    int debit(@Param("cardId") String cardId, @Param("slot") int slot, @Param("amount") BigDecimal amount);
+
+    // Always in slot order, so two transactions locking the same card's slots cannot deadlock
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s FROM CardBalanceSlot s WHERE s.cardId = :cardId ORDER BY s.slot")
+    List<CardBalanceSlot> findAllForUpdate(@Param("cardId") String cardId);
+
+    // One statement, so a concurrent resize cannot be seen half applied
+    @Query(value = "SELECT c.balance + COALESCE((SELECT SUM(s.balance) FROM card_balance_slot s " +
+            "WHERE s.card_id = c.card_id), 0) FROM card c WHERE c.card_id = :cardId", nativeQuery = true)
+    BigDecimal totalBalance(@Param("cardId") String cardId);
+}
@@ -1,8 +1,86 @@
 package com.jjmontenegrop.bankinc.repositories;
 
 import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.dto.CardExpirationDTO;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+
 @Repository
-public interface CardRepository extends CrudRepository<Card, String> {}
+public interface CardRepository extends CrudRepository<Card, String> {
+
+    // Expiry is checked here rather than in a separate read, so an expired card is declined even before it is swept.
+    // now comes from the JVM clock, which the sweeper and Card.isExpired() use too, not from the database's.
+    @Modifying
+    @Query(value = "UPDATE card SET balance = balance - :price " +
+            "WHERE card_id = :cardId AND balance >= :price AND is_active AND NOT is_blocked " +
+            "AND expiration_date > :now", nativeQuery = true)
+    int debitBalance(@Param("cardId") String cardId, @Param("price") BigDecimal price,
+                     @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = "UPDATE card SET balance = balance + :amount WHERE card_id = :cardId", nativeQuery = true)
+    int creditBalance(@Param("cardId") String cardId, @Param("amount") BigDecimal amount);
+
+    // For recharges validated earlier, outside the transaction: the card may have been blocked or expired since
+    @Modifying
+    @Query(value = "UPDATE card SET balance = balance + :amount " +
+            "WHERE card_id = :cardId AND is_active AND NOT is_blocked AND expiration_date > :now", nativeQuery = true)
+    int creditAvailableBalance(@Param("cardId") String cardId, @Param("amount") BigDecimal amount,
+                               @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query(value = "UPDATE card SET balance = balance + " +
+            "(SELECT t.price FROM transaction t " +
+            "WHERE t.transaction_id = :transactionId AND t.transaction_date >= :earliestDate) " +
+            "WHERE card_id = :cardId", nativeQuery = true)
+    int creditTransactionPrice(@Param("cardId") String cardId, @Param("transactionId") Long transactionId,
+                               @Param("earliestDate") LocalDateTime earliestDate);
+
+    // Status changes touch only their own column, so they never write back a balance read before a concurrent
+    // debit or balance slot resize
+    @Modifying
+    @Query(value = "UPDATE card SET is_active = TRUE WHERE card_id = :cardId AND NOT is_active", nativeQuery = true)
+    int activate(@Param("cardId") String cardId);
+
+    @Modifying
+    @Query(value = "UPDATE card SET is_blocked = TRUE WHERE card_id = :cardId AND NOT is_blocked", nativeQuery = true)
+    int block(@Param("cardId") String cardId);
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Card c WHERE c.cardId IN :cardIds ORDER BY c.cardId")
+    List<Card> findAllForUpdate(@Param("cardIds") Collection<String> cardIds);
+
+    // Keyset over the partial index idx_card_expiration_active (V4), so each chunk starts where the last one ended
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.CardExpirationDTO(c.cardId, c.expirationDate) " +
+            "FROM Card c WHERE c.isActive = true AND c.expirationDate <= :now " +
+            "AND (c.expirationDate, c.cardId) > (:afterDate, :afterId) ORDER BY c.expirationDate, c.cardId")
+    List<CardExpirationDTO> findExpiredActiveCards(@Param("now") LocalDateTime now,
+                                                   @Param("afterDate") LocalDateTime afterDate,
+                                                   @Param("afterId") String afterId,
+                                                   Limit limit);
+
+    @Modifying
+    @Query(value = "UPDATE card SET is_active = FALSE " +
+            "WHERE card_id IN (:cardIds) AND is_active AND expiration_date <= :now", nativeQuery = true)
+    int deactivateExpired(@Param("cardIds") Collection<String> cardIds, @Param("now") LocalDateTime now);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT c.cardId FROM Card c")
+    Stream<String> streamAllCardIds();
+}
@@ -0,0 +1,43 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.IdempotencyRecord;
+import jakarta.transaction.Transactional;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface IdempotencyRecordRepository extends CrudRepository<IdempotencyRecord, String> {
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE idempotency_record SET status = 'COMPLETED', status_code = :statusCode, " +
+            "content_type = :contentType, body = :body WHERE idempotency_key = :idempotencyKey AND status = 'IN_PROGRESS'",
+            nativeQuery = true)
+    int complete(@Param("idempotencyKey") String idempotencyKey, @Param("statusCode") int statusCode,
+                 @Param("contentType") String contentType, @Param("body") String body);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_record WHERE idempotency_key = :idempotencyKey AND status = 'IN_PROGRESS'",
+            nativeQuery = true)
+    int deleteInProgress(@Param("idempotencyKey") String idempotencyKey);
+
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_record WHERE idempotency_key = :idempotencyKey AND created_at < :before",
+            nativeQuery = true)
+    int deleteExpired(@Param("idempotencyKey") String idempotencyKey, @Param("before") LocalDateTime before);
+
+    // One bounded chunk per call and per transaction, so a purge never holds many row locks at once
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM idempotency_record WHERE idempotency_key IN " +
+            "(SELECT idempotency_key FROM idempotency_record WHERE created_at < :before LIMIT :limit)",
+            nativeQuery = true)
+    int deleteCreatedBefore(@Param("before") LocalDateTime before, @Param("limit") int limit);
+}
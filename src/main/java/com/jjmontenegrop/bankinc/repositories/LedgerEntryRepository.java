@@ -0,0 +1,49 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
+import com.jjmontenegrop.bankinc.entities.dto.LedgerTailDTO;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface LedgerEntryRepository extends CrudRepository<LedgerEntry, Long> {
+
+    // One statement, so the snapshot and the entries after it are read from the same database snapshot
+    @Query(value = "SELECT COALESCE(s.balance, c.balance) + COALESCE((SELECT SUM(e.amount) FROM ledger_entry e " +
+            "WHERE e.card_id = c.card_id AND e.entry_id > COALESCE(s.last_entry_id, 0)), 0) " +
+            "FROM card c LEFT JOIN balance_snapshot s ON s.card_id = c.card_id WHERE c.card_id = :cardId",
+            nativeQuery = true)
+    BigDecimal currentBalance(@Param("cardId") String cardId);
+
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.LedgerTailDTO(COALESCE(SUM(e.amount), 0), COUNT(e)) " +
+            "FROM LedgerEntry e WHERE e.cardId = :cardId AND e.entryId > :afterEntryId")
+    LedgerTailDTO findTail(@Param("cardId") String cardId, @Param("afterEntryId") Long afterEntryId);
+
+    Optional<LedgerEntry> findFirstByCreatedAtBeforeOrderByEntryIdDesc(LocalDateTime createdAt);
+
+    @Query("SELECT DISTINCT e.cardId FROM LedgerEntry e " +
+            "WHERE e.entryId > :afterEntryId AND e.entryId <= :upToEntryId AND e.entryId > COALESCE(" +
+            "(SELECT s.lastEntryId FROM BalanceSnapshot s WHERE s.cardId = e.cardId), 0)")
+    List<String> findCardsToCompact(@Param("afterEntryId") Long afterEntryId,
+                                    @Param("upToEntryId") Long upToEntryId, Limit limit);
+
+    @Query("SELECT MAX(e.entryId) FROM LedgerEntry e WHERE e.cardId = :cardId AND e.entryId <= :upToEntryId")
+    Long findLastEntryId(@Param("cardId") String cardId, @Param("upToEntryId") Long upToEntryId);
+
+    @Query("SELECT MAX(e.entryId) FROM LedgerEntry e WHERE e.cardId = :cardId AND e.createdAt < :createdBefore")
+    Long findLastEntryIdCreatedBefore(@Param("cardId") String cardId,
+                                      @Param("createdBefore") LocalDateTime createdBefore);
+
+    @Query("SELECT COALESCE(SUM(e.amount), 0) FROM LedgerEntry e " +
+            "WHERE e.cardId = :cardId AND e.entryId > :afterEntryId AND e.entryId <= :upToEntryId")
+    BigDecimal sumEntries(@Param("cardId") String cardId, @Param("afterEntryId") Long afterEntryId,
+                          @Param("upToEntryId") Long upToEntryId);
+}
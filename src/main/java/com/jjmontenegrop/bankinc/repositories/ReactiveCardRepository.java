@@ -0,0 +1,62 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@Repository
+@Profile("reactive")
+public interface ReactiveCardRepository extends R2dbcRepository<Card, String> {
+
+    @Query("SELECT * FROM card WHERE card_id = :cardId")
+    Mono<Card> findCard(@Param("cardId") String cardId);
+
+    @Query("SELECT * FROM card WHERE card_id IN (:cardIds) ORDER BY card_id FOR UPDATE")
+    Flux<Card> findAllForUpdate(@Param("cardIds") Collection<String> cardIds);
+
+    @Modifying
+    @Query("INSERT INTO card (card_id, expiration_date, is_active, is_blocked, balance) " +
+            "VALUES (:cardId, :expirationDate, FALSE, FALSE, 0)")
+    Mono<Integer> insertCard(@Param("cardId") String cardId, @Param("expirationDate") LocalDateTime expirationDate);
+
+    @Modifying
+    @Query("UPDATE card SET is_active = TRUE WHERE card_id = :cardId")
+    Mono<Integer> activate(@Param("cardId") String cardId);
+
+    @Modifying
+    @Query("UPDATE card SET is_blocked = TRUE WHERE card_id = :cardId")
+    Mono<Integer> block(@Param("cardId") String cardId);
+
+    @Modifying
+    @Query("UPDATE card SET balance = balance + :amount WHERE card_id = :cardId")
+    Mono<Integer> creditBalance(@Param("cardId") String cardId, @Param("amount") BigDecimal amount);
+
+    @Modifying
+    @Query("UPDATE card SET balance = balance + " +
+            "(SELECT t.price FROM transaction t " +
+            "WHERE t.transaction_id = :transactionId AND t.transaction_date >= :earliestDate) WHERE card_id = :cardId")
+    Mono<Integer> creditTransactionPrice(@Param("cardId") String cardId, @Param("transactionId") Long transactionId,
+                                         @Param("earliestDate") LocalDateTime earliestDate);
+
+    // now comes from the JVM clock, like the expiration sweeper's and Card.isExpired()
+    @Modifying
+    @Query("UPDATE card SET balance = balance - :price " +
+            "WHERE card_id = :cardId AND balance >= :price AND is_active AND NOT is_blocked " +
+            "AND expiration_date > :now")
+    Mono<Integer> debitBalance(@Param("cardId") String cardId, @Param("price") BigDecimal price,
+                               @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE card SET balance = :balance WHERE card_id = :cardId")
+    Mono<Integer> updateBalance(@Param("cardId") String cardId, @Param("balance") BigDecimal balance);
+}
@@ -0,0 +1,69 @@
+package com.jjmontenegrop.bankinc.repositories;
+
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+
+@Repository
+@Profile("reactive")
+public interface ReactiveTransactionRepository extends R2dbcRepository<Transaction, Long> {
+
+    // The lower bound from TransactionIdWatermarks lets PostgreSQL skip the partitions of earlier months
+    @Query("SELECT * FROM transaction WHERE transaction_id = :transactionId AND transaction_date >= :earliestDate")
+    Mono<Transaction> findTransaction(@Param("transactionId") Long transactionId,
+                                      @Param("earliestDate") LocalDateTime earliestDate);
+
+    // Same sequence the JPA mapping uses, so ids stay unique whichever stack wrote the row
+    @Query("SELECT nextval('transaction_seq')")
+    Mono<Long> nextTransactionId();
+
+    @Modifying
+    @Query("INSERT INTO transaction (transaction_id, card_id, price, transaction_date, is_annulled) " +
+            "VALUES (:transactionId, :cardId, :price, :transactionDate, FALSE)")
+    Mono<Integer> insertTransaction(@Param("transactionId") Long transactionId, @Param("cardId") String cardId,
+                                    @Param("price") BigDecimal price,
+                                    @Param("transactionDate") LocalDateTime transactionDate);
+
+    @Modifying
+    @Query("UPDATE transaction SET is_annulled = TRUE " +
+            "WHERE transaction_id = :transactionId AND transaction_date >= :earliestDate " +
+            "AND card_id = :cardId AND NOT is_annulled")
+    Mono<Integer> markAnnulled(@Param("transactionId") Long transactionId,
+                               @Param("earliestDate") LocalDateTime earliestDate, @Param("cardId") String cardId);
+
+    @Query("SELECT transaction_id, card_id, price, transaction_date, is_annulled FROM transaction " +
+            "WHERE card_id = :cardId AND (transaction_date, transaction_id) > (:afterDate, :afterId) " +
+            "AND transaction_date >= :afterDate AND transaction_date < :to AND is_annulled IN (:annulled) " +
+            "ORDER BY transaction_date, transaction_id LIMIT :limit")
+    Flux<TransactionDTO> findCardHistoryPage(@Param("cardId") String cardId,
+                                             @Param("afterDate") LocalDateTime afterDate,
+                                             @Param("afterId") Long afterId,
+                                             @Param("to") LocalDateTime to,
+                                             @Param("annulled") Collection<Boolean> annulled,
+                                             @Param("limit") int limit);
+
+    @Query("SELECT transaction_id, card_id, price, transaction_date, is_annulled FROM transaction " +
+            "WHERE card_id = :cardId AND transaction_date >= :from AND transaction_date < :to " +
+            "ORDER BY transaction_date, transaction_id")
+    Flux<TransactionDTO> streamByCardId(@Param("cardId") String cardId,
+                                        @Param("from") LocalDateTime from,
+                                        @Param("to") LocalDateTime to);
+
+    @Query("SELECT transaction_id, card_id, price, transaction_date, is_annulled FROM transaction " +
+            "WHERE card_id LIKE CONCAT(:productId, '%') AND transaction_date >= :from AND transaction_date < :to " +
+            "ORDER BY transaction_date, transaction_id")
+    Flux<TransactionDTO> streamByProductId(@Param("productId") String productId,
+                                           @Param("from") LocalDateTime from,
+                                           @Param("to") LocalDateTime to);
+}
@@ -1,10 +1,86 @@
 package com.jjmontenegrop.bankinc.repositories;
 
 import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+
 @Repository
 public interface TransactionRepository extends CrudRepository<Transaction, String> {
 
+    // Lookups by id take the lower bound from TransactionIdWatermarks: without a range on transaction_date,
+    // PostgreSQL probes the primary key of every monthly partition
+    @Query("SELECT t FROM Transaction t WHERE t.transactionId = :transactionId AND t.transactionDate >= :earliestDate")
+    Optional<Transaction> findTransaction(@Param("transactionId") Long transactionId,
+                                          @Param("earliestDate") LocalDateTime earliestDate);
+
+    // The row lock makes a concurrent anulation of the same transaction wait, then match nothing
+    @Modifying
+    @Query(value = "UPDATE transaction SET is_annulled = TRUE " +
+            "WHERE transaction_id = :transactionId AND transaction_date >= :earliestDate " +
+            "AND card_id = :cardId AND NOT is_annulled", nativeQuery = true)
+    int markAnnulled(@Param("transactionId") Long transactionId, @Param("earliestDate") LocalDateTime earliestDate,
+                     @Param("cardId") String cardId);
+
+    @Query("SELECT t.price FROM Transaction t WHERE t.transactionId = :transactionId " +
+            "AND t.transactionDate >= :earliestDate")
+    BigDecimal findPrice(@Param("transactionId") Long transactionId, @Param("earliestDate") LocalDateTime earliestDate);
+
+    // The plain range on transaction_date repeats the row comparison: PostgreSQL prunes partitions only on the former
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.TransactionDTO(" +
+            "t.transactionId, t.cardId, t.price, t.transactionDate, t.isAnnulled) FROM Transaction t " +
+            "WHERE t.cardId = :cardId AND (t.transactionDate, t.transactionId) > (:afterDate, :afterId) " +
+            "AND t.transactionDate >= :afterDate AND t.transactionDate < :to AND t.isAnnulled IN :annulled " +
+            "ORDER BY t.transactionDate, t.transactionId")
+    List<TransactionDTO> findCardHistoryPage(@Param("cardId") String cardId,
+                                             @Param("afterDate") LocalDateTime afterDate,
+                                             @Param("afterId") Long afterId,
+                                             @Param("to") LocalDateTime to,
+                                             @Param("annulled") Collection<Boolean> annulled,
+                                             Limit limit);
+
+    // Literal predicate, so the planner can prove it matches the partial index idx_transaction_card_date_id_live
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.TransactionDTO(" +
+            "t.transactionId, t.cardId, t.price, t.transactionDate, t.isAnnulled) FROM Transaction t " +
+            "WHERE t.cardId = :cardId AND (t.transactionDate, t.transactionId) > (:afterDate, :afterId) " +
+            "AND t.transactionDate >= :afterDate AND t.transactionDate < :to AND t.isAnnulled = false " +
+            "ORDER BY t.transactionDate, t.transactionId")
+    List<TransactionDTO> findLiveCardHistoryPage(@Param("cardId") String cardId,
+                                                 @Param("afterDate") LocalDateTime afterDate,
+                                                 @Param("afterId") Long afterId,
+                                                 @Param("to") LocalDateTime to,
+                                                 Limit limit);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.TransactionDTO(" +
+            "t.transactionId, t.cardId, t.price, t.transactionDate, t.isAnnulled) FROM Transaction t " +
+            "WHERE t.cardId = :cardId AND t.transactionDate >= :from AND t.transactionDate < :to " +
+            "ORDER BY t.transactionDate, t.transactionId")
+    Stream<TransactionDTO> streamByCardId(@Param("cardId") String cardId,
+                                          @Param("from") LocalDateTime from,
+                                          @Param("to") LocalDateTime to);
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT new com.jjmontenegrop.bankinc.entities.dto.TransactionDTO(" +
+            "t.transactionId, t.cardId, t.price, t.transactionDate, t.isAnnulled) FROM Transaction t " +
+            "WHERE t.cardId LIKE CONCAT(:productId, '%') AND t.transactionDate >= :from AND t.transactionDate < :to " +
+            "ORDER BY t.transactionDate, t.transactionId")
+    Stream<TransactionDTO> streamByProductId(@Param("productId") String productId,
+                                             @Param("from") LocalDateTime from,
+                                             @Param("to") LocalDateTime to);
 }
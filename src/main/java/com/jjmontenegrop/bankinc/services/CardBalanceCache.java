@@ -0,0 +1,137 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Function;
+
+@Component
+public class CardBalanceCache implements MeterBinder {
+
+    private static final int STRIPES = 1024;
+
+    private final Cache<String, Entry> cache;
+
+    // Per stripe: writes currently committing, and writes completed so far
+    private final AtomicIntegerArray pendingWrites = new AtomicIntegerArray(STRIPES);
+    private final AtomicLongArray completedWrites = new AtomicLongArray(STRIPES);
+
+    @Autowired
+    public CardBalanceCache(@Value("${bankinc.cache.card-balance.spec}") String spec) {
+        this.cache = Caffeine.from(spec).recordStats().build();
+    }
+
+    public Entry get(String cardId, Function<String, Entry> loader) {
+        int stripe = stripe(cardId);
+
+        if (pendingWrites.get(stripe) > 0) {
+            return loader.apply(cardId);
+        }
+
+        Entry entry = cache.getIfPresent(cardId);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        long writesBeforeLoad = completedWrites.get(stripe);
+        entry = loader.apply(cardId);
+
+        if (entry != null) {
+            cache.put(cardId, entry);
+
+            if (completedWrites.get(stripe) != writesBeforeLoad || pendingWrites.get(stripe) > 0) {
+                cache.invalidate(cardId);
+            }
+        }
+
+        return entry;
+    }
+
+    // Same protocol as get() for the reactive stack; writers there call evict() once their transaction has committed
+    public Mono<Entry> getAsync(String cardId, Function<String, Mono<Entry>> loader) {
+        return Mono.defer(() -> {
+            int stripe = stripe(cardId);
+
+            if (pendingWrites.get(stripe) > 0) {
+                return loader.apply(cardId);
+            }
+
+            Entry entry = cache.getIfPresent(cardId);
+
+            if (entry != null) {
+                return Mono.just(entry);
+            }
+
+            long writesBeforeLoad = completedWrites.get(stripe);
+
+            return loader.apply(cardId).doOnNext(loaded -> {
+                cache.put(cardId, loaded);
+
+                if (completedWrites.get(stripe) != writesBeforeLoad || pendingWrites.get(stripe) > 0) {
+                    cache.invalidate(cardId);
+                }
+            });
+        });
+    }
+
+    public void evict(String cardId) {
+        int stripe = stripe(cardId);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            completedWrites.incrementAndGet(stripe);
+            cache.invalidate(cardId);
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean committing;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                committing = true;
+                pendingWrites.incrementAndGet(stripe);
+                cache.invalidate(cardId);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                completedWrites.incrementAndGet(stripe);
+                cache.invalidate(cardId);
+                if (committing) {
+                    pendingWrites.decrementAndGet(stripe);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "cardBalance");
+    }
+
+    private static int stripe(String cardId) {
+        return (cardId.hashCode() & 0x7fffffff) % STRIPES;
+    }
+
+    // Expiry is checked on every read, since an entry can outlive the moment its card expires
+    public record Entry(BigDecimal balance, boolean available, LocalDateTime expirationDate) {
+
+        public boolean expired() {
+            return expirationDate != null && !expirationDate.isAfter(LocalDateTime.now());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.BalanceSnapshot;
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
+import com.jjmontenegrop.bankinc.entities.dto.LedgerTailDTO;
+import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
+import com.jjmontenegrop.bankinc.repositories.BalanceSnapshotRepository;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import com.jjmontenegrop.bankinc.repositories.LedgerEntryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+// Balance = latest snapshot (or card.balance before the first one) + the ledger entries after it.
+// Credits are plain inserts. Debits lock the card's snapshot row to check funds, never the card row, and fold the
+// settled part of a tail longer than compaction-threshold entries into the snapshot they already hold.
+@Component
+public class CardBalanceLedger {
+
+    LedgerEntryRepository ledgerEntryRepository;
+    BalanceSnapshotRepository balanceSnapshotRepository;
+    CardRepository cardRepository;
+
+    private final boolean enabled;
+    private final Duration settleLag;
+    private final int compactionThreshold;
+
+    @Autowired
+    public CardBalanceLedger(LedgerEntryRepository ledgerEntryRepository,
+                             BalanceSnapshotRepository balanceSnapshotRepository, CardRepository cardRepository,
+                             @Value("${bankinc.ledger.enabled}") boolean enabled,
+                             @Value("${bankinc.ledger.settle-lag}") Duration settleLag,
+                             @Value("${bankinc.ledger.compaction-threshold}") int compactionThreshold) {
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.balanceSnapshotRepository = balanceSnapshotRepository;
+        this.cardRepository = cardRepository;
+        this.enabled = enabled;
+        this.settleLag = settleLag;
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public BigDecimal balance(String cardId) {
+        return ledgerEntryRepository.currentBalance(cardId);
+    }
+
+    // Must run inside the caller's transaction: the snapshot row lock keeps concurrent debits of the card from both
+    // passing the funds check, and is held until the caller has appended its entry and committed
+    public int lockForDebit(String cardId, BigDecimal amount) {
+        Optional<Card> card = cardRepository.findById(cardId);
+
+        if (card.isEmpty() || card.get().isAvailable()) {
+            return 0;
+        }
+
+        return lockBalance(cardId).compareTo(amount) >= 0 ? 1 : 0;
+    }
+
+    // Locks the card's snapshot row, creating it on the card's first debit, and returns the balance it guards.
+    // Callers locking several cards go in card id order, so they cannot deadlock.
+    public BigDecimal lockBalance(String cardId) {
+        Optional<BalanceSnapshot> locked = balanceSnapshotRepository.findForUpdate(cardId);
+
+        if (locked.isEmpty()) {
+            balanceSnapshotRepository.insertIfAbsent(cardId, LocalDateTime.now());
+            locked = balanceSnapshotRepository.findForUpdate(cardId);
+        }
+
+        BalanceSnapshot snapshot = locked.orElseThrow(
+                () -> new CardNotFoundException("Card with number: " + cardId + " not found"));
+        LedgerTailDTO tail = ledgerEntryRepository.findTail(cardId, snapshot.getLastEntryId());
+        BigDecimal balance = snapshot.getBalance().add(tail.getAmount());
+
+        if (tail.getEntries() > compactionThreshold) {
+            foldSettledEntries(snapshot);
+        }
+
+        return balance;
+    }
+    public void append(String cardId, LedgerEntry.Type type, BigDecimal amount, Long transactionId) {
+        ledgerEntryRepository.save(new LedgerEntry(cardId, type, amount, transactionId));
+    }
+
+    // Folds the card's entries up to lastEntryId into its snapshot; the caller guarantees they are all committed
+    public void compact(String cardId, Long lastEntryId) {
+        Optional<BalanceSnapshot> snapshot = balanceSnapshotRepository.findForUpdate(cardId);
+
+        BigDecimal base;
+        Long afterEntryId;
+
+        if (snapshot.isPresent()) {
+            base = snapshot.get().getBalance();
+            afterEntryId = snapshot.get().getLastEntryId();
+        } else {
+            Optional<Card> card = cardRepository.findById(cardId);
+            if (card.isEmpty()) {
+                return;
+            }
+            base = card.get().getBalance();
+            afterEntryId = 0L;
+        }
+
+        if (lastEntryId <= afterEntryId) {
+            return;
+        }
+
+        BigDecimal balance = base.add(ledgerEntryRepository.sumEntries(cardId, afterEntryId, lastEntryId));
+
+        balanceSnapshotRepository.save(new BalanceSnapshot(cardId, balance, lastEntryId, LocalDateTime.now()));
+    }
+
+    // The tail can outgrow what LedgerCompactor keeps up with on a busy card. Only entries older than the settle lag
+    // are folded: by then every lower entry id has committed, as LedgerCompactor also assumes.
+    private void foldSettledEntries(BalanceSnapshot snapshot) {
+        LocalDateTime now = LocalDateTime.now();
+        Long settledUpTo = ledgerEntryRepository.findLastEntryIdCreatedBefore(snapshot.getCardId(),
+                now.minus(settleLag));
+
+        if (settledUpTo == null || settledUpTo <= snapshot.getLastEntryId()) {
+            return;
+        }
+
+        BigDecimal settled = ledgerEntryRepository.sumEntries(snapshot.getCardId(), snapshot.getLastEntryId(),
+                settledUpTo);
+
+        balanceSnapshotRepository.save(new BalanceSnapshot(snapshot.getCardId(), snapshot.getBalance().add(settled),
+                settledUpTo, now));
+    }
+}
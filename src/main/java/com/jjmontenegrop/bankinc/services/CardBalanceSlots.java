@@ -0,0 +1,143 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.CardBalanceSlot;
+import com.jjmontenegrop.bankinc.repositories.CardBalanceSlotRepository;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Splits a hot card's balance across slot rows so concurrent credits and debits lock different rows.
+// Balance = card.balance + sum(slots). card.balance only holds credits that raced a resize and found their slot
+// gone; the next borrow or resize folds them back in. Whoever needs more than one row locks the card row first
+// and then the slots in slot order, and nobody holding a single slot waits for another, so there are no deadlocks.
+@Component
+public class CardBalanceSlots {
+
+    CardBalanceSlotRepository cardBalanceSlotRepository;
+    CardRepository cardRepository;
+    EntityManager entityManager;
+
+    private final int maxSlots;
+
+    @Autowired
+    public CardBalanceSlots(CardBalanceSlotRepository cardBalanceSlotRepository, CardRepository cardRepository,
+                            EntityManager entityManager, @Value("${bankinc.balance-slots.max}") int maxSlots) {
+        this.cardBalanceSlotRepository = cardBalanceSlotRepository;
+        this.cardRepository = cardRepository;
+        this.entityManager = entityManager;
+        this.maxSlots = maxSlots;
+    }
+
+    public int getMaxSlots() {
+        return maxSlots;
+    }
+
+    public BigDecimal balance(String cardId) {
+        return cardBalanceSlotRepository.totalBalance(cardId);
+    }
+
+    // Returns false for cards that are not sharded, which the caller credits the usual way
+    public boolean credit(Card card, BigDecimal amount) {
+        if (!card.isSharded()) {
+            return false;
+        }
+
+        int slot = ThreadLocalRandom.current().nextInt(card.getBalanceSlots());
+
+        if (cardBalanceSlotRepository.credit(card.getCardId(), slot, amount) == 0) {
+            cardRepository.creditBalance(card.getCardId(), amount);
+        }
+
+        return true;
+    }
+
+    // Tries one random slot, then borrows across all of them. Must run inside the caller's transaction.
+    public boolean debit(Card card, BigDecimal amount) {
+        if (!card.isSharded()) {
+            return false;
+        }
+
+        int slot = ThreadLocalRandom.current().nextInt(card.getBalanceSlots());
+
+        if (cardBalanceSlotRepository.debit(card.getCardId(), slot, amount) == 1) {
+            return true;
+        }
+
+        entityManager.refresh(card, LockModeType.PESSIMISTIC_WRITE);
+
+        return debitLocked(card, amount);
+    }
+
+    // The caller already holds the card row lock
+    public boolean debitLocked(Card card, BigDecimal amount) {
+        List<CardBalanceSlot> slots = cardBalanceSlotRepository.findAllForUpdate(card.getCardId());
+
+        BigDecimal total = card.getBalance();
+        for (CardBalanceSlot slot : slots) {
+            total = total.add(slot.getBalance());
+        }
+
+        if (total.compareTo(amount) < 0) {
+            return false;
+        }
+
+        BigDecimal fromCard = card.getBalance().min(amount);
+        card.setBalance(card.getBalance().subtract(fromCard));
+        BigDecimal remaining = amount.subtract(fromCard);
+
+        for (CardBalanceSlot slot : slots) {
+            if (remaining.signum() == 0) {
+                break;
+            }
+            BigDecimal fromSlot = slot.getBalance().min(remaining);
+            slot.setBalance(slot.getBalance().subtract(fromSlot));
+            remaining = remaining.subtract(fromSlot);
+        }
+
+        return true;
+    }
+
+    // The caller already holds the card row lock. Spreads the whole balance evenly, the rounding rest goes to slot 0.
+    public void resize(Card card, int slotCount) {
+        List<CardBalanceSlot> slots = cardBalanceSlotRepository.findAllForUpdate(card.getCardId());
+
+        BigDecimal total = card.getBalance();
+        for (CardBalanceSlot slot : slots) {
+            total = total.add(slot.getBalance());
+        }
+
+        if (slotCount == 1) {
+            cardBalanceSlotRepository.deleteAll(slots);
+            card.setBalance(total);
+            card.setBalanceSlots(1);
+            return;
+        }
+
+        BigDecimal share = total.divide(BigDecimal.valueOf(slotCount), 2, RoundingMode.DOWN);
+        BigDecimal first = total.subtract(share.multiply(BigDecimal.valueOf(slotCount - 1)));
+
+        for (int i = 0; i < Math.max(slotCount, slots.size()); i++) {
+            BigDecimal balance = i == 0 ? first : share;
+
+            if (i >= slotCount) {
+                cardBalanceSlotRepository.delete(slots.get(i));
+            } else if (i < slots.size()) {
+                slots.get(i).setBalance(balance);
+            } else {
+                entityManager.persist(new CardBalanceSlot(card.getCardId(), i, balance));
+            }
+        }
+
+        card.setBalance(BigDecimal.ZERO);
+        card.setBalanceSlots(slotCount);
+    }
+}
@@ -0,0 +1,86 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.dto.CardExpirationDTO;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Deactivates cards past their expiration date so they leave the active set. Purchases and balance checks already
+// refuse expired cards by date; this keeps is_active truthful for everything that counts or filters on it.
+// Each chunk is its own short transaction, and the keyset cursor means no chunk rescans rows an earlier one passed.
+@Component
+@ConditionalOnProperty(name = "bankinc.card-expiration.enabled", havingValue = "true")
+public class CardExpirationSweeper {
+
+    static final LocalDateTime SWEEP_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    CardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    TransactionTemplate transactionTemplate;
+    Counter expiredCards;
+
+    private final int chunkSize;
+
+    @Autowired
+    public CardExpirationSweeper(CardRepository cardRepository, CardBalanceCache cardBalanceCache,
+                                 PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+                                 @Value("${bankinc.card-expiration.chunk-size}") int chunkSize) {
+        this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.expiredCards = Counter.builder("bankinc.cards.expired")
+                .description("Cards deactivated by the expiration sweeper")
+                .register(meterRegistry);
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(fixedDelayString = "${bankinc.card-expiration.sweep-interval}")
+    public void sweep() {
+        sweep(LocalDateTime.now());
+    }
+
+    void sweep(LocalDateTime now) {
+        LocalDateTime afterDate = SWEEP_START;
+        String afterId = "";
+
+        while (true) {
+            List<CardExpirationDTO> chunk = sweepChunk(now, afterDate, afterId);
+
+            if (chunk.size() < chunkSize) {
+                return;
+            }
+
+            CardExpirationDTO last = chunk.get(chunk.size() - 1);
+            afterDate = last.getExpirationDate();
+            afterId = last.getCardId();
+        }
+    }
+
+    private List<CardExpirationDTO> sweepChunk(LocalDateTime now, LocalDateTime afterDate, String afterId) {
+        return transactionTemplate.execute(status -> {
+            List<CardExpirationDTO> cards = cardRepository.findExpiredActiveCards(now, afterDate, afterId,
+                    Limit.of(chunkSize));
+
+            if (!cards.isEmpty()) {
+                List<String> cardIds = cards.stream().map(CardExpirationDTO::getCardId).toList();
+
+                // The update re-checks the condition, so cards another instance swept meanwhile are not counted twice
+                expiredCards.increment(cardRepository.deactivateExpired(cardIds, now));
+                cardIds.forEach(cardBalanceCache::evict);
+            }
+
+            return cards;
+        });
+    }
+}
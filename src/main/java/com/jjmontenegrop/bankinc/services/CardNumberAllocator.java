@@ -0,0 +1,268 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+@Component
+public class CardNumberAllocator {
+
+    static final int RANDOM_DIGITS = 9;
+
+    private static final long RANDOM_BOUND = 1_000_000_000L;
+
+    // Past this many draws the number is returned anyway and the card_id unique constraint has the last word
+    static final int MAX_GENERATE_ATTEMPTS = 16;
+
+    // Products beyond this many get their numbers generated inline, so a stream of new product ids cannot keep
+    // parking pool-size numbers each in memory and in the filter
+    static final int MAX_POOLED_PRODUCTS = 64;
+
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    private final CardRepository cardRepository;
+    private final int poolSize;
+    private final SecureRandom secureRandom = new SecureRandom();
+    // Scalable Bloom filter: when the newest filter reaches its design size a twice as large one with half the
+    // false positive rate is added, so the combined rate stays under twice FALSE_POSITIVE_RATE at any card count
+    private final List<BloomFilter> issuedCardNumbers = new ArrayList<>();
+    // A lock instead of synchronized so virtual threads generating numbers inline do not pin their carrier
+    private final ReentrantLock issuedCardNumbersLock = new ReentrantLock();
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private final ExecutorService refiller = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "card-number-refiller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public CardNumberAllocator(CardRepository cardRepository,
+                               @Value("${bankinc.card-number.pool-size}") int poolSize,
+                               @Value("${bankinc.card-number.expected-cards}") long expectedCards) {
+        this.cardRepository = cardRepository;
+        this.poolSize = poolSize;
+        this.issuedCardNumbers.add(new BloomFilter(expectedCards, FALSE_POSITIVE_RATE));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void loadIssuedCardNumbers() {
+        try (Stream<String> cardIds = cardRepository.streamAllCardIds()) {
+            cardIds.forEach(this::markIssued);
+        }
+    }
+
+    public String next(String productId) {
+        Pool pool = pools.get(productId);
+
+        if (pool == null) {
+            if (pools.size() >= MAX_POOLED_PRODUCTS) {
+                return generateUnique(productId);
+            }
+            pool = pools.computeIfAbsent(productId, Pool::new);
+        }
+
+        String cardNumber = pool.cardNumbers.poll();
+
+        if (cardNumber == null) {
+            cardNumber = generateUnique(productId);
+        } else {
+            pool.size.decrementAndGet();
+        }
+
+        if (pool.size.get() < poolSize / 2) {
+            scheduleRefill(pool);
+        }
+
+        return cardNumber;
+    }
+
+    public void markIssued(String cardNumber) {
+        issuedCardNumbersLock.lock();
+        try {
+            put(cardNumber);
+        } finally {
+            issuedCardNumbersLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refiller.shutdownNow();
+    }
+
+    static int luhnCheckDigit(CharSequence payload) {
+        int sum = 0;
+        boolean doubleDigit = true;
+
+        for (int i = payload.length() - 1; i >= 0; i--) {
+            int digit = payload.charAt(i) - '0';
+            if (doubleDigit) {
+                digit *= 2;
+                if (digit > 9) {
+                    digit -= 9;
+                }
+            }
+            sum += digit;
+            doubleDigit = !doubleDigit;
+        }
+
+        return (10 - sum % 10) % 10;
+    }
+
+    private String generateUnique(String productId) {
+        issuedCardNumbersLock.lock();
+        try {
+            String cardNumber = generate(productId);
+            for (int attempt = 1; attempt < MAX_GENERATE_ATTEMPTS && mightBeIssued(cardNumber); attempt++) {
+                cardNumber = generate(productId);
+            }
+            put(cardNumber);
+            return cardNumber;
+        } finally {
+            issuedCardNumbersLock.unlock();
+        }
+    }
+
+    // Callers hold issuedCardNumbersLock
+    private void put(String cardNumber) {
+        BloomFilter newest = issuedCardNumbers.get(issuedCardNumbers.size() - 1);
+
+        if (newest.isFull()) {
+            newest = new BloomFilter(newest.expectedInsertions * 2, newest.falsePositiveRate / 2);
+            issuedCardNumbers.add(newest);
+        }
+
+        newest.put(cardNumber);
+    }
+
+    private boolean mightBeIssued(String cardNumber) {
+        for (BloomFilter filter : issuedCardNumbers) {
+            if (filter.mightContain(cardNumber)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String generate(String productId) {
+        StringBuilder cardNumber = new StringBuilder(productId.length() + RANDOM_DIGITS + 1).append(productId);
+        String randomDigits = Long.toString(secureRandom.nextLong(RANDOM_BOUND));
+
+        cardNumber.append("0".repeat(RANDOM_DIGITS - randomDigits.length())).append(randomDigits);
+        cardNumber.append(luhnCheckDigit(cardNumber));
+
+        return cardNumber.toString();
+    }
+
+    private void scheduleRefill(Pool pool) {
+        if (!pool.refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        refiller.execute(() -> {
+            try {
+                while (pool.size.get() < poolSize) {
+                    pool.cardNumbers.offer(generateUnique(pool.productId));
+                    pool.size.incrementAndGet();
+                }
+            } finally {
+                pool.refilling.set(false);
+            }
+        });
+    }
+
+    private static final class Pool {
+
+        private final String productId;
+        private final Queue<String> cardNumbers = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        private Pool(String productId) {
+            this.productId = productId;
+        }
+    }
+
+    private static final class BloomFilter {
+
+        private final long[] bits;
+        private final long bitCount;
+        private final int hashCount;
+        private final long expectedInsertions;
+        private final double falsePositiveRate;
+        private long insertions;
+
+        private BloomFilter(long expectedInsertions, double falsePositiveRate) {
+            this.expectedInsertions = expectedInsertions;
+            this.falsePositiveRate = falsePositiveRate;
+            long optimalBits = (long) (-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (optimalBits + 63) / 64)];
+            this.bitCount = (long) bits.length * 64;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        }
+
+        private boolean isFull() {
+            return insertions >= expectedInsertions;
+        }
+
+        private void put(String value) {
+            insertions++;
+            long hash1 = hash(value);
+            long hash2 = mix(hash1);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(String value) {
+            long hash1 = hash(value);
+            long hash2 = mix(hash1);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static long hash(String value) {
+            long hash = 0xcbf29ce484222325L;
+            for (int i = 0; i < value.length(); i++) {
+                hash ^= value.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+            return mix(hash);
+        }
+
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xff51afd7ed558ccdL;
+            hash ^= hash >>> 33;
+            hash *= 0xc4ceb9fe1a85ec53L;
+            hash ^= hash >>> 33;
+            return hash | 1;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.exceptions.CardRateLimitExceededException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Per-card token buckets against card-testing bursts, checked before the service so a rejected request never opens
+// a transaction. Buckets live in a fixed table of longs, so memory stays bounded however many cards are hammered.
+// Each slot packs a 20-bit fingerprint of (endpoint, card) with the bucket state, and is updated with one CAS.
+// A card hashes to two candidate slots; when neither holds it, the one whose bucket refilled longest ago is taken
+// over. Taking over a bucket that has not refilled yet gives that card a fresh bucket, so under heavy churn the
+// limit errs towards letting requests through, never towards rejecting a quiet card.
+@Component
+public class CardRateLimiter {
+
+    public enum Endpoint {
+        PURCHASE, BALANCE
+    }
+
+    private static final int FINGERPRINT_BITS = 20;
+    private static final int TIME_BITS = Long.SIZE - FINGERPRINT_BITS;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    // Bucket times are in microseconds since startup: 44 bits last about 200 days before wrapping to 0, which only
+    // drains every bucket in use once
+    private final long origin = System.nanoTime();
+
+    private final boolean enabled;
+    private final AtomicLongArray slots;
+    private final int mask;
+    private final Map<Endpoint, Limit> defaults = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Map<String, Limit>> productLimits = new EnumMap<>(Endpoint.class);
+    private final int[] prefixLengths;
+
+    // Generic cell rate algorithm, the single-timestamp form of a token bucket: a request is admitted while the
+    // bucket's theoretical arrival time is less than burst intervals ahead of now, and pushes it one interval on
+    private record Limit(long intervalMicros, long capacityMicros) {
+
+        static Limit parse(String limit) {
+            String[] parts = limit.trim().split("/");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Card rate limits should look like <per-second>/<burst>: " + limit);
+            }
+            double perSecond = Double.parseDouble(parts[0].trim());
+            int burst = Integer.parseInt(parts[1].trim());
+            if (perSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("Card rate limits need a positive rate and a burst of at least 1: "
+                        + limit);
+            }
+            long interval = Math.max(1, Math.round(1_000_000 / perSecond));
+            return new Limit(interval, interval * burst);
+        }
+    }
+
+    @Autowired
+    public CardRateLimiter(@Value("${bankinc.card-rate-limit.enabled}") boolean enabled,
+                           @Value("${bankinc.card-rate-limit.table-size}") int tableSize,
+                           @Value("${bankinc.card-rate-limit.purchase}") String purchaseLimit,
+                           @Value("${bankinc.card-rate-limit.balance}") String balanceLimit,
+                           @Value("${bankinc.card-rate-limit.product-overrides}") List<String> productOverrides) {
+        this.enabled = enabled;
+
+        int size = Integer.highestOneBit(Math.max(2, tableSize - 1)) << 1;
+        this.slots = new AtomicLongArray(enabled ? size : 0);
+        this.mask = size - 1;
+
+        defaults.put(Endpoint.PURCHASE, Limit.parse(purchaseLimit));
+        defaults.put(Endpoint.BALANCE, Limit.parse(balanceLimit));
+
+        // Each override looks like <endpoint>.<card prefix>=<per-second>/<burst>, e.g. purchase.123456=50/200
+        Set<Integer> lengths = new TreeSet<>(Comparator.reverseOrder());
+        for (String override : productOverrides) {
+            if (override.isBlank()) {
+                continue;
+            }
+            String[] keyAndLimit = override.split("=", 2);
+            String[] endpointAndPrefix = keyAndLimit[0].trim().split("\\.", 2);
+            if (keyAndLimit.length != 2 || endpointAndPrefix.length != 2) {
+                throw new IllegalArgumentException(
+                        "Card rate limit overrides should look like <endpoint>.<prefix>=<per-second>/<burst>: " + override);
+            }
+            Endpoint endpoint = Endpoint.valueOf(endpointAndPrefix[0].toUpperCase(Locale.ROOT));
+            productLimits.computeIfAbsent(endpoint, key -> new HashMap<>())
+                    .put(endpointAndPrefix[1], Limit.parse(keyAndLimit[1]));
+            lengths.add(endpointAndPrefix[1].length());
+        }
+        this.prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public void acquire(Endpoint endpoint, String cardId) {
+        if (!admit(endpoint, cardId)) {
+            throw CardRateLimitExceededException.TOO_MANY_REQUESTS;
+        }
+    }
+
+    public boolean admit(Endpoint endpoint, String cardId) {
+        return !enabled || cardId == null || tryAcquire(endpoint, cardId);
+    }
+
+    // Gives back a token taken by admit, for a request that was rejected after its card was charged. A bucket taken
+    // over by another card in the meantime is left alone
+    public void release(Endpoint endpoint, String cardId) {
+        if (!enabled || cardId == null) {
+            return;
+        }
+
+        long intervalMicros = limitFor(endpoint, cardId).intervalMicros();
+        long hash = hash(endpoint, cardId);
+        long fingerprint = Math.max(1, hash >>> TIME_BITS);
+
+        for (int index : new int[]{(int) hash & mask, (int) (hash >>> 24) & mask}) {
+            long current;
+            while ((current = slots.get(index)) >>> TIME_BITS == fingerprint) {
+                long arrival = Math.max(0, (current & TIME_MASK) - intervalMicros);
+                if (slots.compareAndSet(index, current, fingerprint << TIME_BITS | arrival)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    boolean tryAcquire(Endpoint endpoint, String cardId) {
+        return tryAcquire(endpoint, cardId, ((System.nanoTime() - origin) / 1000) & TIME_MASK);
+    }
+
+    boolean tryAcquire(Endpoint endpoint, String cardId, long nowMicros) {
+        Limit limit = limitFor(endpoint, cardId);
+
+        long hash = hash(endpoint, cardId);
+        long fingerprint = Math.max(1, hash >>> TIME_BITS);
+        int first = (int) hash & mask;
+        int second = (int) (hash >>> 24) & mask;
+
+        while (true) {
+            long firstSlot = slots.get(first);
+            long secondSlot = slots.get(second);
+
+            int index;
+            long current;
+            long arrival;
+            if (firstSlot >>> TIME_BITS == fingerprint) {
+                index = first;
+                current = firstSlot;
+                arrival = firstSlot & TIME_MASK;
+            } else if (secondSlot >>> TIME_BITS == fingerprint) {
+                index = second;
+                current = secondSlot;
+                arrival = secondSlot & TIME_MASK;
+            } else {
+                boolean firstIsOlder = (firstSlot & TIME_MASK) <= (secondSlot & TIME_MASK);
+                index = firstIsOlder ? first : second;
+                current = firstIsOlder ? firstSlot : secondSlot;
+                arrival = 0;
+            }
+
+            // After a wrap every stored time is in the future. Such a bucket is stored back as drained rather than
+            // full, so the card refills from empty instead of getting a fresh burst
+            if (arrival > nowMicros + limit.capacityMicros()) {
+                if (slots.compareAndSet(index, current, fingerprint << TIME_BITS | (nowMicros + limit.capacityMicros()))) {
+                    return false;
+                }
+                continue;
+            }
+
+            long next = Math.max(arrival, nowMicros) + limit.intervalMicros();
+            if (next - nowMicros > limit.capacityMicros()) {
+                return false;
+            }
+
+            if (slots.compareAndSet(index, current, fingerprint << TIME_BITS | (next & TIME_MASK))) {
+                return true;
+            }
+        }
+    }
+
+    private Limit limitFor(Endpoint endpoint, String cardId) {
+        Map<String, Limit> overrides = productLimits.get(endpoint);
+        if (overrides != null) {
+            for (int length : prefixLengths) {
+                if (cardId.length() >= length) {
+                    Limit limit = overrides.get(cardId.substring(0, length));
+                    if (limit != null) {
+                        return limit;
+                    }
+                }
+            }
+        }
+        return defaults.get(endpoint);
+    }
+
+    // 64-bit FNV-1a over the characters, finished with the murmur3 mixer so every bit depends on the whole key
+    private static long hash(Endpoint endpoint, String cardId) {
+        long hash = 0xcbf29ce484222325L ^ endpoint.ordinal();
+        for (int i = 0; i < cardId.length(); i++) {
+            hash = (hash ^ cardId.charAt(i)) * 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -3,16 +3,24 @@ package com.jjmontenegrop.bankinc.services;
 import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface CardService {
 
     String generateCardNumber(String productId);
 
+    void validateCardIssuance(String productId, int count);
+
+    void issueCards(String productId, int count, Consumer<List<String>> committedCardNumbers);
+
     void activateCard(String cardNumber) throws CardNotFoundException;
 
     void blockCard(String cardId) throws CardNotFoundException;
 
     void rechargeCard(String cardId, BigDecimal balance) throws CardNotFoundException;
 
+    void setBalanceSlots(String cardId, int slotCount) throws CardNotFoundException;
+
     String getCardBalance(String cardId) throws CardNotFoundException;
 }
@@ -1,42 +1,125 @@
 package com.jjmontenegrop.bankinc.services;
 
 import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
 import com.jjmontenegrop.bankinc.exceptions.*;
 import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import io.micrometer.core.annotation.Timed;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
-import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 @Service
+@Timed("bankinc.service")
 public class CardServiceImpl implements CardService {
 
+    static final int MAX_CARD_NUMBER_ATTEMPTS = 3;
+
+    // Ten JDBC batches of spring.jpa.properties.hibernate.jdbc.batch_size per committed chunk
+    static final int CARD_ISSUANCE_CHUNK_SIZE = 500;
+
+    static final int MAX_CARD_ISSUANCE_COUNT = 1_000_000;
+
     CardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    CardNumberAllocator cardNumberAllocator;
+    TransactionTemplate transactionTemplate;
+    CardBalanceLedger cardBalanceLedger;
+    CardBalanceSlots cardBalanceSlots;
+    RechargeCoalescer rechargeCoalescer;
+    ReplicaReadPolicy replicaReadPolicy;
 
     @Autowired
-    public CardServiceImpl(CardRepository cardRepository) {
+    public CardServiceImpl(CardRepository cardRepository, CardBalanceCache cardBalanceCache,
+                           CardNumberAllocator cardNumberAllocator, PlatformTransactionManager transactionManager,
+                           CardBalanceLedger cardBalanceLedger, CardBalanceSlots cardBalanceSlots,
+                           RechargeCoalescer rechargeCoalescer, ReplicaReadPolicy replicaReadPolicy) {
         this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.cardNumberAllocator = cardNumberAllocator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cardBalanceLedger = cardBalanceLedger;
+        this.cardBalanceSlots = cardBalanceSlots;
+        this.rechargeCoalescer = rechargeCoalescer;
+        this.replicaReadPolicy = replicaReadPolicy;
     }
 
     public String generateCardNumber(String productId) {
-        if (productId.length() < 6) {
-            throw new InvalidProductIdException("Product ID should be at least 6 digits long.");
+        validateProductId(productId);
+
+        for (int attempt = 1; ; attempt++) {
+            String cardNumber = cardNumberAllocator.next(productId);
+
+            try {
+                cardRepository.save(new Card(cardNumber));
+                return cardNumber;
+            } catch (DataIntegrityViolationException ex) {
+                if (attempt == MAX_CARD_NUMBER_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    public void validateCardIssuance(String productId, int count) {
+        validateProductId(productId);
+
+        if (count <= 0 || count > MAX_CARD_ISSUANCE_COUNT) {
+            throw new InvalidCardCountException("Card count should be between 1 and " + MAX_CARD_ISSUANCE_COUNT);
         }
+    }
 
-        StringBuilder cardNumber = new StringBuilder(productId);
-        SecureRandom secureRandom = new SecureRandom();
+    // Each chunk's persistence context closes with its transaction, so saved cards do not pile up between chunks
+    public void issueCards(String productId, int count, Consumer<List<String>> committedCardNumbers) {
+        validateCardIssuance(productId, count);
 
-        for (int i = 0; i < 10; i++) {
-            cardNumber.append(secureRandom.nextInt(10));
+        for (int issued = 0; issued < count; issued += CARD_ISSUANCE_CHUNK_SIZE) {
+            int chunkSize = Math.min(CARD_ISSUANCE_CHUNK_SIZE, count - issued);
+
+            committedCardNumbers.accept(insertCardChunk(productId, chunkSize));
         }
+    }
+
+    private List<String> insertCardChunk(String productId, int chunkSize) {
+        for (int attempt = 1; ; attempt++) {
+            List<String> cardNumbers = new ArrayList<>(chunkSize);
+            List<Card> cards = new ArrayList<>(chunkSize);
+
+            for (int i = 0; i < chunkSize; i++) {
+                String cardNumber = cardNumberAllocator.next(productId);
+                cardNumbers.add(cardNumber);
+                cards.add(new Card(cardNumber));
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> cardRepository.saveAll(cards));
+                return cardNumbers;
+            } catch (DataIntegrityViolationException ex) {
+                if (attempt == MAX_CARD_NUMBER_ATTEMPTS) {
+                    throw ex;
+                }
+            }
+        }
+    }
 
-        Card card = new Card(cardNumber.toString());
-        cardRepository.save(card);
+    static void validateProductId(String productId) {
+        if (productId.length() < 6) {
+            throw InvalidProductIdException.TOO_SHORT;
+        }
 
-        return cardNumber.toString();
+        // ASCII only: Character.isDigit accepts other scripts' digits, which the Luhn check digit cannot handle
+        if (!productId.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            throw InvalidProductIdException.NOT_NUMERIC;
+        }
     }
 
     @Transactional
@@ -54,8 +137,15 @@ public class CardServiceImpl implements CardService {
             throw new CardAlreadyActivatedException("Card with number: " + cardNumber + " is already activated");
         }
 
-        card.setIsActive(true);
-        cardRepository.save(card);
+        if (card.isExpired()) {
+            throw new CardNotAvailableException("Card with number: " + cardNumber + " is expired");
+        }
+
+        // Another request may have activated the card since it was read
+        if (cardRepository.activate(cardNumber) == 0) {
+            throw new CardAlreadyActivatedException("Card with number: " + cardNumber + " is already activated");
+        }
+        cardChanged(cardNumber);
     }
 
     @Transactional
@@ -72,13 +162,29 @@ public class CardServiceImpl implements CardService {
             throw new CardAlreadyBlockedException("Card with number: " + cardId + " is already blocked");
         }
 
-        cardToInactivate.setIsBlocked(true);
-        cardRepository.save(cardToInactivate);
+        if (cardRepository.block(cardId) == 0) {
+            throw new CardAlreadyBlockedException("Card with number: " + cardId + " is already blocked");
+        }
+        cardChanged(cardId);
 
     }
 
-    @Transactional
     public void rechargeCard(String cardId, BigDecimal balance) {
+        // Coalesced recharges wait for their batch outside any transaction, so they hold no connection meanwhile
+        if (rechargeCoalescer.isEnabled() && !cardBalanceLedger.isEnabled()) {
+            Card card = findRechargeableCard(cardId, balance);
+
+            if (!card.isSharded()) {
+                rechargeCoalescer.recharge(cardId, balance);
+                replicaReadPolicy.recordWrite(cardId);
+                return;
+            }
+        }
+
+        transactionTemplate.executeWithoutResult(status -> recharge(cardId, balance));
+    }
+
+    private Card findRechargeableCard(String cardId, BigDecimal balance) {
         Optional<Card> card = cardRepository.findById(cardId);
 
         if (card.isEmpty()) {
@@ -86,7 +192,7 @@ public class CardServiceImpl implements CardService {
         }
 
         if (balance.compareTo(BigDecimal.ZERO) <= 0) {
-            throw new InvalidRechargeAmountException("Recharge amount should be valid");
+            throw InvalidRechargeAmountException.INVALID_AMOUNT;
         }
 
         Card cardToRecharge = card.get();
@@ -95,27 +201,85 @@ public class CardServiceImpl implements CardService {
             throw new CardNotAvailableException("Card with number: " + cardId + " not available for recharge");
         }
 
-        BigDecimal actualBalance = cardToRecharge.getBalance();
-        BigDecimal newBalance = actualBalance.add(balance);
+        return cardToRecharge;
+    }
+
+    private void recharge(String cardId, BigDecimal balance) {
+        Card cardToRecharge = findRechargeableCard(cardId, balance);
+
+        if (cardBalanceLedger.isEnabled()) {
+            cardBalanceLedger.append(cardId, LedgerEntry.Type.RECHARGE, balance, null);
+            cardChanged(cardId);
+            return;
+        }
+
+        if (cardBalanceSlots.credit(cardToRecharge, balance)) {
+            cardChanged(cardId);
+            return;
+        }
+
+        // The card was read without a lock, so a resize may have sharded it since; card.balance counts either way
+        cardRepository.creditBalance(cardId, balance);
+        cardChanged(cardId);
+
+    }
+
+    @Transactional
+    public void setBalanceSlots(String cardId, int slotCount) {
+        if (cardBalanceLedger.isEnabled()) {
+            throw InvalidBalanceSlotsException.LEDGER_ENABLED;
+        }
+
+        if (slotCount < 1 || slotCount > cardBalanceSlots.getMaxSlots()) {
+            throw new InvalidBalanceSlotsException("Balance slots should be between 1 and " + cardBalanceSlots.getMaxSlots());
+        }
 
-        cardToRecharge.setBalance(newBalance);
-        cardRepository.save(cardToRecharge);
+        List<Card> cards = cardRepository.findAllForUpdate(List.of(cardId));
 
+        if (cards.isEmpty()) {
+            throw new CardNotFoundException("Card with number: " + cardId + " not found");
+        }
+
+        cardBalanceSlots.resize(cards.get(0), slotCount);
+        cardChanged(cardId);
     }
 
     public String getCardBalance(String cardId) {
-        Optional<Card> card = cardRepository.findById(cardId);
+        CardBalanceCache.Entry balance = cardBalanceCache.get(cardId,
+                id -> replicaReadPolicy.read(id, () -> loadCardBalance(id)));
 
-        if (card.isEmpty()) {
+        if (balance == null) {
             throw new CardNotFoundException("Card with number: " + cardId + " not found");
         }
 
-        Card cardToCheck = card.get();
+        if (balance.expired()) {
+            throw new CardNotAvailableException("Card with number: " + cardId + " is expired");
+        }
 
-        if (cardToCheck.isAvailable()) {
+        if (!balance.available()) {
             throw new CardNotAvailableException("Card with number: " + cardId + " is inactivated or blocked");
         }
 
-        return cardToCheck.getBalance().toString();
+        return balance.balance().toString();
+    }
+
+    private CardBalanceCache.Entry loadCardBalance(String cardId) {
+        return cardRepository.findById(cardId)
+                .map(card -> new CardBalanceCache.Entry(balanceOf(card), !card.isAvailable(), card.getExpirationDate()))
+                .orElse(null);
+    }
+
+    // The cached balance is stale now, and so may be the replica's copy of the card for a while
+    private void cardChanged(String cardId) {
+        cardBalanceCache.evict(cardId);
+        replicaReadPolicy.recordWrite(cardId);
+    }
+
+    private BigDecimal balanceOf(Card card) {
+        if (cardBalanceLedger.isEnabled()) {
+            return cardBalanceLedger.balance(card.getCardId());
+        }
+
+        return card.isSharded() ? cardBalanceSlots.balance(card.getCardId()) : card.getBalance();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,112 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.jjmontenegrop.bankinc.entities.IdempotencyRecord;
+import com.jjmontenegrop.bankinc.repositories.IdempotencyRecordRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Slf4j
+@Service
+public class IdempotencyService {
+
+    static final int PURGE_CHUNK_SIZE = 1000;
+
+    static final int MAX_CLAIM_ATTEMPTS = 3;
+
+    IdempotencyRecordRepository idempotencyRecordRepository;
+
+    private final Cache<String, IdempotencyRecord> completedRequests;
+    private final Duration retention;
+
+    @Autowired
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              @Value("${bankinc.idempotency.cache-spec}") String cacheSpec,
+                              @Value("${bankinc.idempotency.retention}") Duration retention) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.completedRequests = Caffeine.from(cacheSpec).build();
+        this.retention = retention;
+    }
+
+    // Claims the key with an IN_PROGRESS row before the request runs, so the claim holds across nodes. Returns the
+    // record already under the key when there is one: in progress elsewhere, or completed and to be replayed.
+    public Optional<IdempotencyRecord> claim(String idempotencyKey, String requestHash) {
+        IdempotencyRecord cached = completedRequests.getIfPresent(idempotencyKey);
+
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                idempotencyRecordRepository.save(new IdempotencyRecord(idempotencyKey, requestHash));
+                return Optional.empty();
+            } catch (DataIntegrityViolationException ex) {
+                Optional<IdempotencyRecord> existing = idempotencyRecordRepository.findById(idempotencyKey);
+                LocalDateTime expiredBefore = LocalDateTime.now().minus(retention);
+
+                // No row means its holder abandoned it since, or the insert failed for another reason. A row past
+                // the retention is only waiting for the purge, so its key is free again.
+                if (existing.isEmpty() || existing.get().getCreatedAt().isBefore(expiredBefore)) {
+                    if (attempt == MAX_CLAIM_ATTEMPTS) {
+                        throw ex;
+                    }
+                    existing.ifPresent(record -> idempotencyRecordRepository.deleteExpired(idempotencyKey, expiredBefore));
+                    continue;
+                }
+
+                if (existing.get().isCompleted()) {
+                    completedRequests.put(idempotencyKey, existing.get());
+                }
+
+                return existing;
+            }
+        }
+    }
+
+    public void complete(IdempotencyRecord record) {
+        // The claim is ours, so the update can only miss if it was purged or the database failed; either way this
+        // node still replays its own response
+        try {
+            if (idempotencyRecordRepository.complete(record.getIdempotencyKey(), record.getStatusCode(),
+                    record.getContentType(), record.getBody()) == 0) {
+                log.warn("The claim for idempotency key {} was gone when its response was stored",
+                        record.getIdempotencyKey());
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Could not store the response for idempotency key {}", record.getIdempotencyKey(), ex);
+        }
+
+        record.setCreatedAt(LocalDateTime.now());
+        completedRequests.put(record.getIdempotencyKey(), record);
+    }
+
+    // Frees the key for a retry. If this fails, the claim stays in progress until the retention passes.
+    public void abandon(String idempotencyKey) {
+        try {
+            idempotencyRecordRepository.deleteInProgress(idempotencyKey);
+        } catch (DataAccessException ex) {
+            log.warn("Could not release the claim for idempotency key {}", idempotencyKey, ex);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${bankinc.idempotency.purge-interval}")
+    public void purgeExpired() {
+        LocalDateTime before = LocalDateTime.now().minus(retention);
+
+        int deleted;
+        do {
+            deleted = idempotencyRecordRepository.deleteCreatedBefore(before, PURGE_CHUNK_SIZE);
+        } while (deleted == PURGE_CHUNK_SIZE);
+    }
+}
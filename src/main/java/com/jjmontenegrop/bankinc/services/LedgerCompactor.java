@@ -0,0 +1,76 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
+import com.jjmontenegrop.bankinc.repositories.LedgerEntryRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Entry ids are taken from a sequence before the inserting transaction commits, so a lower id can become
+// visible after a higher one. Only ids up to the newest entry older than the settle lag are compacted: every
+// lower id was handed out earlier still, and has committed as long as no ledger transaction outlives the lag.
+@Component
+@ConditionalOnProperty(name = "bankinc.ledger.enabled", havingValue = "true")
+public class LedgerCompactor {
+
+    LedgerEntryRepository ledgerEntryRepository;
+    CardBalanceLedger cardBalanceLedger;
+    TransactionTemplate transactionTemplate;
+
+    private final Duration settleLag;
+    private final int batchSize;
+
+    // Entries up to here have been folded into snapshots; only the scheduler thread touches it
+    private long compactedUpTo;
+
+    @Autowired
+    public LedgerCompactor(LedgerEntryRepository ledgerEntryRepository, CardBalanceLedger cardBalanceLedger,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${bankinc.ledger.settle-lag}") Duration settleLag,
+                           @Value("${bankinc.ledger.compaction-batch-size}") int batchSize) {
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.cardBalanceLedger = cardBalanceLedger;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.settleLag = settleLag;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${bankinc.ledger.compaction-interval}")
+    public void compact() {
+        Long settledUpTo = ledgerEntryRepository
+                .findFirstByCreatedAtBeforeOrderByEntryIdDesc(LocalDateTime.now().minus(settleLag))
+                .map(LedgerEntry::getEntryId)
+                .orElse(null);
+
+        if (settledUpTo == null || settledUpTo <= compactedUpTo) {
+            return;
+        }
+
+        List<String> cardIds = ledgerEntryRepository.findCardsToCompact(compactedUpTo, settledUpTo,
+                Limit.of(batchSize));
+
+        for (String cardId : cardIds) {
+            try {
+                transactionTemplate.executeWithoutResult(status ->
+                        cardBalanceLedger.compact(cardId, ledgerEntryRepository.findLastEntryId(cardId, settledUpTo)));
+            } catch (DataIntegrityViolationException ex) {
+                // Another instance wrote this card's first snapshot concurrently; the card is picked up again
+                return;
+            }
+        }
+
+        if (cardIds.size() < batchSize) {
+            compactedUpTo = settledUpTo;
+        }
+    }
+}
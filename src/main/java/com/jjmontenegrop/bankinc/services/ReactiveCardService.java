@@ -0,0 +1,23 @@
+package com.jjmontenegrop.bankinc.services;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+
+public interface ReactiveCardService {
+
+    Mono<String> generateCardNumber(String productId);
+
+    void validateCardIssuance(String productId, int count);
+
+    Flux<String> issueCards(String productId, int count);
+
+    Mono<Void> activateCard(String cardNumber);
+
+    Mono<Void> blockCard(String cardId);
+
+    Mono<Void> rechargeCard(String cardId, BigDecimal balance);
+
+    Mono<String> getCardBalance(String cardId);
+}
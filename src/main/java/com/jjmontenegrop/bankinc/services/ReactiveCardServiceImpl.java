@@ -0,0 +1,168 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.exceptions.*;
+import com.jjmontenegrop.bankinc.repositories.ReactiveCardRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.jjmontenegrop.bankinc.services.CardServiceImpl.*;
+
+@Service
+@Profile("reactive")
+public class ReactiveCardServiceImpl implements ReactiveCardService {
+
+    ReactiveCardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    CardNumberAllocator cardNumberAllocator;
+    TransactionalOperator transactionalOperator;
+
+    @Autowired
+    public ReactiveCardServiceImpl(ReactiveCardRepository cardRepository, CardBalanceCache cardBalanceCache,
+                                   CardNumberAllocator cardNumberAllocator,
+                                   TransactionalOperator transactionalOperator) {
+        this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.cardNumberAllocator = cardNumberAllocator;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    public Mono<String> generateCardNumber(String productId) {
+        return Mono.defer(() -> {
+                    validateProductId(productId);
+
+                    String cardNumber = cardNumberAllocator.next(productId);
+
+                    return cardRepository.insertCard(cardNumber, LocalDateTime.now().plusYears(3))
+                            .thenReturn(cardNumber);
+                })
+                .retryWhen(retryDuplicateCardNumbers());
+    }
+
+    public void validateCardIssuance(String productId, int count) {
+        validateProductId(productId);
+
+        if (count <= 0 || count > MAX_CARD_ISSUANCE_COUNT) {
+            throw new InvalidCardCountException("Card count should be between 1 and " + MAX_CARD_ISSUANCE_COUNT);
+        }
+    }
+
+    public Flux<String> issueCards(String productId, int count) {
+        return Flux.defer(() -> {
+            validateCardIssuance(productId, count);
+
+            return Flux.range(0, (count + CARD_ISSUANCE_CHUNK_SIZE - 1) / CARD_ISSUANCE_CHUNK_SIZE)
+                    .concatMap(chunk -> insertCardChunk(productId,
+                            Math.min(CARD_ISSUANCE_CHUNK_SIZE, count - chunk * CARD_ISSUANCE_CHUNK_SIZE)))
+                    .concatMapIterable(cardNumbers -> cardNumbers);
+        });
+    }
+
+    private Mono<List<String>> insertCardChunk(String productId, int chunkSize) {
+        return Mono.defer(() -> {
+                    List<String> cardNumbers = new ArrayList<>(chunkSize);
+                    LocalDateTime expirationDate = LocalDateTime.now().plusYears(3);
+
+                    for (int i = 0; i < chunkSize; i++) {
+                        cardNumbers.add(cardNumberAllocator.next(productId));
+                    }
+
+                    return Flux.fromIterable(cardNumbers)
+                            .concatMap(cardNumber -> cardRepository.insertCard(cardNumber, expirationDate))
+                            .then(Mono.just(cardNumbers))
+                            .as(transactionalOperator::transactional);
+                })
+                .retryWhen(retryDuplicateCardNumbers());
+    }
+
+    private static Retry retryDuplicateCardNumbers() {
+        return Retry.max(MAX_CARD_NUMBER_ATTEMPTS - 1)
+                .filter(DataIntegrityViolationException.class::isInstance)
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    public Mono<Void> activateCard(String cardNumber) {
+        return findCard(cardNumber)
+                .flatMap(card -> {
+                    if (card.getIsActive()) {
+                        return Mono.error(new CardAlreadyActivatedException(
+                                "Card with number: " + cardNumber + " is already activated"));
+                    }
+                    if (card.isExpired()) {
+                        return Mono.error(new CardNotAvailableException(
+                                "Card with number: " + cardNumber + " is expired"));
+                    }
+                    return cardRepository.activate(cardNumber);
+                })
+                .as(transactionalOperator::transactional)
+                .then(Mono.fromRunnable(() -> cardBalanceCache.evict(cardNumber)));
+    }
+
+    public Mono<Void> blockCard(String cardId) {
+        return findCard(cardId)
+                .flatMap(card -> {
+                    if (card.getIsBlocked()) {
+                        return Mono.error(new CardAlreadyBlockedException(
+                                "Card with number: " + cardId + " is already blocked"));
+                    }
+                    return cardRepository.block(cardId);
+                })
+                .as(transactionalOperator::transactional)
+                .then(Mono.fromRunnable(() -> cardBalanceCache.evict(cardId)));
+    }
+
+    public Mono<Void> rechargeCard(String cardId, BigDecimal balance) {
+        return findCard(cardId)
+                .flatMap(card -> {
+                    if (balance.compareTo(BigDecimal.ZERO) <= 0) {
+                        return Mono.error(InvalidRechargeAmountException.INVALID_AMOUNT);
+                    }
+
+                    if (card.isAvailable()) {
+                        return Mono.error(new CardNotAvailableException(
+                                "Card with number: " + cardId + " not available for recharge"));
+                    }
+
+                    return cardRepository.creditBalance(cardId, balance);
+                })
+                .as(transactionalOperator::transactional)
+                .then(Mono.fromRunnable(() -> cardBalanceCache.evict(cardId)));
+    }
+
+    public Mono<String> getCardBalance(String cardId) {
+        return cardBalanceCache.getAsync(cardId, this::loadCardBalance)
+                .switchIfEmpty(Mono.error(() -> new CardNotFoundException("Card with number: " + cardId + " not found")))
+                .flatMap(balance -> {
+                    if (balance.expired()) {
+                        return Mono.error(new CardNotAvailableException(
+                                "Card with number: " + cardId + " is expired"));
+                    }
+                    if (!balance.available()) {
+                        return Mono.error(new CardNotAvailableException(
+                                "Card with number: " + cardId + " is inactivated or blocked"));
+                    }
+                    return Mono.just(balance.balance().toString());
+                });
+    }
+
+    private Mono<CardBalanceCache.Entry> loadCardBalance(String cardId) {
+        return cardRepository.findCard(cardId)
+                .map(card -> new CardBalanceCache.Entry(card.getBalance(), !card.isAvailable(), card.getExpirationDate()));
+    }
+
+    private Mono<Card> findCard(String cardId) {
+        return cardRepository.findCard(cardId)
+                .switchIfEmpty(Mono.error(() -> new CardNotFoundException("Card with number: " + cardId + " not found")));
+    }
+}
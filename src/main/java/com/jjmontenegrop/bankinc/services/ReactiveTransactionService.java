@@ -0,0 +1,30 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface ReactiveTransactionService {
+
+    Mono<Long> purchase(String cardId, BigDecimal price);
+
+    Mono<List<PurchaseBatchResultDTO>> purchaseBatch(List<PurchaseRequestResponseDTO> purchases);
+
+    Mono<PurchaseRequestResponseDTO> getTransaction(String transactionId);
+
+    Mono<Void> anulation(String cardNumber, String transactionId);
+
+    Mono<TransactionPageDTO> getCardTransactions(String cardId, LocalDateTime from, LocalDateTime to, Boolean annulled,
+                                                 String cursor, int size);
+
+    void validateTransactionExport(String cardId, String productId);
+
+    Flux<TransactionDTO> exportTransactions(String cardId, String productId, LocalDateTime from, LocalDateTime to);
+}
@@ -0,0 +1,303 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
+import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
+import com.jjmontenegrop.bankinc.exceptions.InsufficientFundsException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidExportFilterException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPurchasePriceException;
+import com.jjmontenegrop.bankinc.exceptions.TransactionAlreadyAnnulatedException;
+import com.jjmontenegrop.bankinc.exceptions.TransactionNotFoundException;
+import com.jjmontenegrop.bankinc.repositories.ReactiveCardRepository;
+import com.jjmontenegrop.bankinc.repositories.ReactiveTransactionRepository;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.jjmontenegrop.bankinc.services.TransactionServiceImpl.*;
+
+@Service
+@Profile("reactive")
+public class ReactiveTransactionServiceImpl implements ReactiveTransactionService {
+
+    ReactiveTransactionRepository transactionRepository;
+    ReactiveCardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    TransactionalOperator transactionalOperator;
+    TransactionArchive transactionArchive;
+    TransactionIdWatermarks transactionIdWatermarks;
+    DistributionSummary purchaseAmounts;
+
+    @Autowired
+    public ReactiveTransactionServiceImpl(ReactiveTransactionRepository transactionRepository,
+                                          ReactiveCardRepository cardRepository, CardBalanceCache cardBalanceCache,
+                                          TransactionalOperator transactionalOperator,
+                                          TransactionArchive transactionArchive,
+                                          TransactionIdWatermarks transactionIdWatermarks, MeterRegistry meterRegistry) {
+        this.transactionRepository = transactionRepository;
+        this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.transactionalOperator = transactionalOperator;
+        this.transactionArchive = transactionArchive;
+        this.transactionIdWatermarks = transactionIdWatermarks;
+        this.purchaseAmounts = DistributionSummary.builder("bankinc.purchase.amount")
+                .description("Amount of approved purchases")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(10_000_000.0)
+                .register(meterRegistry);
+    }
+
+    public Mono<Long> purchase(String cardId, BigDecimal price) {
+        // The conditional debit subtracts whatever it is given, so a negative price would credit the card
+        if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
+            return Mono.error(InvalidPurchasePriceException.INVALID_PRICE);
+        }
+
+        return cardRepository.debitBalance(cardId, price, LocalDateTime.now())
+                .flatMap(debitedCards -> {
+                    if (debitedCards == 0) {
+                        return cardRepository.findCard(cardId)
+                                .flatMap(card -> card.isAvailable()
+                                        ? Mono.<Long>error(new CardNotAvailableException(
+                                                "Card with number: " + cardId + " not available for purchase"))
+                                        : Mono.<Long>error(InsufficientFundsException.INSUFFICIENT_FUNDS))
+                                .defaultIfEmpty(0L);
+                    }
+
+                    return insertTransaction(cardId, price);
+                })
+                .as(transactionalOperator::transactional)
+                .doOnNext(transactionId -> {
+                    if (transactionId != 0L) {
+                        cardBalanceCache.evict(cardId);
+                        purchaseAmounts.record(price.doubleValue());
+                    }
+                });
+    }
+
+    // Each chunk commits on its own, as on the servlet stack: card row locks are held for one chunk, and a failing
+    // chunk cannot roll back purchases approved by earlier ones
+    public Mono<List<PurchaseBatchResultDTO>> purchaseBatch(List<PurchaseRequestResponseDTO> purchases) {
+        return Flux.range(0, (purchases.size() + PURCHASE_BATCH_CHUNK_SIZE - 1) / PURCHASE_BATCH_CHUNK_SIZE)
+                .map(chunk -> chunk * PURCHASE_BATCH_CHUNK_SIZE)
+                .concatMap(from -> purchaseChunk(
+                                purchases.subList(from, Math.min(from + PURCHASE_BATCH_CHUNK_SIZE, purchases.size())))
+                        .collectList()
+                        .as(transactionalOperator::transactional)
+                        .doOnNext(results -> results.stream()
+                                .filter(result -> result.getTransactionId() != null)
+                                .map(PurchaseBatchResultDTO::getCardId)
+                                .distinct()
+                                .forEach(cardBalanceCache::evict))
+                        // Nothing committed yet, so the whole batch can fail and be retried. Otherwise report the
+                        // committed chunks and decline everything from the failed chunk on.
+                        .onErrorResume(ex -> from == 0
+                                ? Mono.error(ex)
+                                : Mono.just(purchases.subList(from, purchases.size()).stream()
+                                        .map(purchase -> PurchaseBatchResultDTO.declined(purchase.getCardId(),
+                                                PURCHASE_BATCH_ABORTED))
+                                        .toList())))
+                .takeUntil(results -> !results.isEmpty()
+                        && PURCHASE_BATCH_ABORTED.equals(results.get(0).getDeclineReason()))
+                .concatMapIterable(results -> results)
+                .collectList();
+    }
+
+    private Flux<PurchaseBatchResultDTO> purchaseChunk(List<PurchaseRequestResponseDTO> chunk) {
+        Set<String> cardIds = chunk.stream()
+                .map(PurchaseRequestResponseDTO::getCardId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        Mono<Map<String, Card>> lockedCards = cardIds.isEmpty()
+                ? Mono.just(Map.of())
+                : cardRepository.findAllForUpdate(cardIds).collectMap(Card::getCardId);
+
+        return lockedCards.flatMapMany(cards -> {
+            Set<Card> debitedCards = new LinkedHashSet<>();
+
+            return Flux.fromIterable(chunk)
+                    .concatMap(purchase -> purchaseFromLockedCard(cards.get(purchase.getCardId()), purchase,
+                            debitedCards))
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(debitedCards))
+                            .concatMap(card -> cardRepository.updateBalance(card.getCardId(), card.getBalance()))
+                            .thenMany(Flux.empty()));
+        });
+    }
+
+    private Mono<PurchaseBatchResultDTO> purchaseFromLockedCard(Card card, PurchaseRequestResponseDTO purchase,
+                                                                Set<Card> debitedCards) {
+
+        String cardId = purchase.getCardId();
+        BigDecimal price = purchase.getPrice();
+
+        if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
+            return Mono.just(PurchaseBatchResultDTO.declined(cardId, InvalidPurchasePriceException.INVALID_PRICE.getMessage()));
+        }
+
+        if (card == null) {
+            return Mono.just(PurchaseBatchResultDTO.declined(cardId, "Card with number: " + cardId + " not found"));
+        }
+
+        if (card.isAvailable()) {
+            return Mono.just(PurchaseBatchResultDTO.declined(cardId,
+                    "Card with number: " + cardId + " not available for purchase"));
+        }
+
+        BigDecimal newBalance = card.getBalance().subtract(price);
+
+        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+            return Mono.just(PurchaseBatchResultDTO.declined(cardId, "Insufficient funds"));
+        }
+
+        card.setBalance(newBalance);
+        debitedCards.add(card);
+
+        return insertTransaction(cardId, price)
+                .doOnNext(transactionId -> purchaseAmounts.record(price.doubleValue()))
+                .map(transactionId -> PurchaseBatchResultDTO.approved(cardId, transactionId));
+    }
+
+    private Mono<Long> insertTransaction(String cardId, BigDecimal price) {
+        return transactionRepository.nextTransactionId()
+                .flatMap(transactionId -> transactionRepository
+                        .insertTransaction(transactionId, cardId, price, LocalDateTime.now())
+                        .thenReturn(transactionId));
+    }
+
+    public Mono<PurchaseRequestResponseDTO> getTransaction(String transactionId) {
+        return parseTransactionId(transactionId)
+                .flatMap(id -> transactionRepository.findTransaction(id, transactionIdWatermarks.earliestDate(id))
+                        // Segment reads can fault pages in from disk, so they stay off the event loop
+                        .switchIfEmpty(Mono.fromCallable(() -> transactionArchive.find(id).orElse(null))
+                                .subscribeOn(Schedulers.boundedElastic())))
+                .map(transaction -> {
+                    PurchaseRequestResponseDTO response = new PurchaseRequestResponseDTO();
+
+                    response.setCardId(transaction.getCardId());
+                    response.setPrice(transaction.getPrice());
+
+                    return response;
+                });
+    }
+
+    public Mono<Void> anulation(String cardNumber, String transactionId) {
+
+        return parseTransactionId(transactionId)
+                .flatMap(id -> {
+                    LocalDateTime earliestDate = transactionIdWatermarks.earliestDate(id);
+
+                    return transactionRepository.markAnnulled(id, earliestDate, cardNumber)
+                            .flatMap(annulled -> annulled == 0
+                                    ? anulationRejection(cardNumber, transactionId, id)
+                                    : cardRepository.creditTransactionPrice(cardNumber, id, earliestDate));
+                })
+                .switchIfEmpty(Mono.defer(() -> anulationRejection(cardNumber, transactionId, null)))
+                .flatMap(credited -> credited == 0
+                        ? Mono.error(new CardNotFoundException("Card with number: " + cardNumber + " not found"))
+                        : Mono.empty())
+                .as(transactionalOperator::transactional)
+                .then(Mono.fromRunnable(() -> cardBalanceCache.evict(cardNumber)));
+    }
+
+    // Only reached when nothing was annulled, to tell the caller why
+    private Mono<Integer> anulationRejection(String cardNumber, String transactionId, Long id) {
+        Mono<Transaction> transaction = id != null
+                ? transactionRepository.findTransaction(id, transactionIdWatermarks.earliestDate(id))
+                : Mono.empty();
+
+        return cardRepository.findCard(cardNumber)
+                .switchIfEmpty(Mono.error(() -> new CardNotFoundException(
+                        "Card with number: " + cardNumber + " not found")))
+                .then(transaction)
+                .filter(transactionAnnulation -> transactionAnnulation.getCardId().equals(cardNumber))
+                .switchIfEmpty(Mono.error(() -> new TransactionNotFoundException(
+                        "Transaction with id: " + transactionId + " not found")))
+                .then(Mono.error(TransactionAlreadyAnnulatedException.ALREADY_ANNULATED));
+    }
+
+    public Mono<TransactionPageDTO> getCardTransactions(String cardId, LocalDateTime from, LocalDateTime to,
+                                                        Boolean annulled, String cursor, int size) {
+        return Mono.defer(() -> {
+            int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+            LocalDateTime afterDate = from != null ? from : HISTORY_START;
+            Long afterId = Long.MIN_VALUE;
+
+            if (cursor != null) {
+                TransactionDTO last = parseCursor(cursor);
+
+                if (!last.getTransactionDate().isBefore(afterDate)) {
+                    afterDate = last.getTransactionDate();
+                    afterId = last.getTransactionId();
+                }
+            }
+
+            List<Boolean> annulledStates = annulled != null ? List.of(annulled) : List.of(false, true);
+
+            return transactionRepository.findCardHistoryPage(cardId, afterDate, afterId,
+                            to != null ? to : HISTORY_END, annulledStates, pageSize + 1)
+                    .collectList()
+                    .map(transactions -> {
+                        if (transactions.size() <= pageSize) {
+                            return new TransactionPageDTO(transactions, null);
+                        }
+
+                        List<TransactionDTO> page = transactions.subList(0, pageSize);
+                        TransactionDTO last = page.get(pageSize - 1);
+
+                        return new TransactionPageDTO(page, last.getTransactionDate() + "_" + last.getTransactionId());
+                    });
+        });
+    }
+
+    public void validateTransactionExport(String cardId, String productId) {
+        if ((cardId == null) == (productId == null)) {
+            throw InvalidExportFilterException.MISSING_FILTER;
+        }
+
+        // The product id becomes a LIKE prefix, so only digits may reach it: '%' or '_' would match every card
+        if (productId != null) {
+            CardServiceImpl.validateProductId(productId);
+        }
+    }
+
+    // R2DBC applies backpressure to the result cursor, so the export needs neither a transaction nor a fetch size
+    public Flux<TransactionDTO> exportTransactions(String cardId, String productId, LocalDateTime from,
+                                                   LocalDateTime to) {
+        return Flux.defer(() -> {
+            validateTransactionExport(cardId, productId);
+
+            LocalDateTime exportFrom = from != null ? from : HISTORY_START;
+            LocalDateTime exportTo = to != null ? to : HISTORY_END;
+
+            return cardId != null
+                    ? transactionRepository.streamByCardId(cardId, exportFrom, exportTo)
+                    : transactionRepository.streamByProductId(productId, exportFrom, exportTo);
+        });
+    }
+
+    private static Mono<Long> parseTransactionId(String transactionId) {
+        try {
+            return Mono.just(Long.parseLong(transactionId));
+        } catch (NumberFormatException ex) {
+            return Mono.empty();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
+import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
+import com.jjmontenegrop.bankinc.exceptions.RechargeTimeoutException;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Write-behind stage for recharges: whatever arrives within one window (or until the batch is full) is summed per
+// card and applied as one UPDATE per card in a single transaction. Callers block until that transaction commits,
+// or fail once the timeout has passed.
+@Component
+public class RechargeCoalescer {
+
+    CardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final long timeoutNanos;
+    private final BlockingQueue<PendingRecharge> pending = new LinkedBlockingQueue<>();
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "recharge-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public RechargeCoalescer(CardRepository cardRepository, CardBalanceCache cardBalanceCache,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${bankinc.recharge-coalescing.enabled}") boolean enabled,
+                             @Value("${bankinc.recharge-coalescing.window}") Duration window,
+                             @Value("${bankinc.recharge-coalescing.max-batch-size}") int maxBatchSize,
+                             @Value("${bankinc.recharge-coalescing.timeout}") Duration timeout) {
+        this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // A batch past the timeout rolls back, so a caller still waiting on it gets an outcome soon after
+        this.transactionTemplate.setTimeout((int) Math.max(1, timeout.toSeconds()));
+        this.enabled = enabled;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        this.timeoutNanos = timeout.toNanos();
+
+        if (enabled) {
+            flusher.execute(this::flushUntilShutdown);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Must not be called inside a transaction: the caller would hold a connection the flusher may need
+    public void recharge(String cardId, BigDecimal amount) {
+        PendingRecharge recharge = new PendingRecharge(cardId, amount, new CompletableFuture<>());
+        pending.add(recharge);
+
+        try {
+            try {
+                recharge.committed().get(timeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException ex) {
+                // Still queued: withdrawn, so it is certain never to be applied
+                if (pending.remove(recharge)) {
+                    throw RechargeTimeoutException.NOT_APPLIED;
+                }
+                // Already in a batch, whose transaction times out by now as well
+                recharge.committed().get(timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw new IllegalStateException("Recharge of card " + cardId + " still pending after its batch timed out");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the recharge of card " + cardId, ex);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdownNow();
+    }
+
+    private void flushUntilShutdown() {
+        List<PendingRecharge> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            while (true) {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + windowNanos;
+
+                while (batch.size() < maxBatchSize) {
+                    PendingRecharge next = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                apply(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ex) {
+            pending.drainTo(batch);
+            IllegalStateException stopped = new IllegalStateException("Recharge coalescer stopped");
+            batch.forEach(recharge -> recharge.committed().completeExceptionally(stopped));
+        }
+    }
+
+    void apply(List<PendingRecharge> batch) {
+        // Card id order, the same order purchase batches lock cards in
+        Map<String, BigDecimal> amounts = new TreeMap<>();
+        for (PendingRecharge recharge : batch) {
+            amounts.merge(recharge.cardId(), recharge.amount(), BigDecimal::add);
+        }
+
+        Set<String> missingCards = new HashSet<>();
+        Set<String> unavailableCards = new HashSet<>();
+        LocalDateTime now = LocalDateTime.now();
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> amounts.forEach((cardId, amount) -> {
+                if (cardRepository.creditAvailableBalance(cardId, amount, now) == 0) {
+                    (cardRepository.existsById(cardId) ? unavailableCards : missingCards).add(cardId);
+                }
+            }));
+        } catch (RuntimeException ex) {
+            batch.forEach(recharge -> recharge.committed().completeExceptionally(ex));
+            return;
+        }
+
+        amounts.keySet().forEach(cardBalanceCache::evict);
+
+        for (PendingRecharge recharge : batch) {
+            if (missingCards.contains(recharge.cardId())) {
+                recharge.committed().completeExceptionally(
+                        new CardNotFoundException("Card with number: " + recharge.cardId() + " not found"));
+            } else if (unavailableCards.contains(recharge.cardId())) {
+                recharge.committed().completeExceptionally(new CardNotAvailableException(
+                        "Card with number: " + recharge.cardId() + " not available for recharge"));
+            } else {
+                recharge.committed().complete(null);
+            }
+        }
+    }
+
+    record PendingRecharge(String cardId, BigDecimal amount, CompletableFuture<Void> committed) {
+    }
+}
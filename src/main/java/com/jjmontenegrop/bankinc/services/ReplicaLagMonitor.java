@@ -0,0 +1,54 @@
+package com.jjmontenegrop.bankinc.services;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+
+// Measures how far the replica's replay is behind the primary. A replica that has replayed everything it received
+// reports no lag even when the last replayed commit is old, which is normal on an idle primary. A database that is
+// not a standby at all (e.g. a second local instance standing in for the replica) also reports none.
+@Component
+@ConditionalOnProperty(name = "bankinc.replica.enabled", havingValue = "true")
+public class ReplicaLagMonitor {
+
+    // Treated as lagging past any max-lag, so reads fall back to the primary while the replica is unreachable
+    static final Duration UNREACHABLE = ChronoUnit.FOREVER.getDuration();
+
+    ReplicaReadPolicy replicaReadPolicy;
+    JdbcTemplate replicaJdbcTemplate;
+
+    @Autowired
+    public ReplicaLagMonitor(ReplicaReadPolicy replicaReadPolicy, @Qualifier("replicaDataSource") DataSource replica,
+                             MeterRegistry meterRegistry) {
+        this.replicaReadPolicy = replicaReadPolicy;
+        this.replicaJdbcTemplate = new JdbcTemplate(replica);
+
+        Gauge.builder("bankinc.replica.lag", replicaReadPolicy,
+                        policy -> policy.getReplicaLag() == UNREACHABLE ? Double.NaN : policy.getReplicaLag().toMillis())
+                .description("Replay lag of the read replica; NaN while it is unreachable")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${bankinc.replica.lag-check-interval}")
+    public void measure() {
+        try {
+            Double lagSeconds = replicaJdbcTemplate.queryForObject("SELECT CASE " +
+                    "WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+                    "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) END", Double.class);
+            replicaReadPolicy.setReplicaLag(Duration.ofMillis(Math.round(lagSeconds * 1000)));
+        } catch (DataAccessException ex) {
+            replicaReadPolicy.setReplicaLag(UNREACHABLE);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+// Decides which reads may go to the read replica (see ReadReplicaConfig). Only a read that opens its own read-only
+// transaction can: one joining a read-write transaction must see that transaction's writes. The replica is also
+// skipped for cards written through this instance within the read-your-writes window, and for every read while
+// the replica lags further behind than max-lag.
+@Component
+public class ReplicaReadPolicy {
+
+    private static final ThreadLocal<Boolean> REPLICA_READ = new ThreadLocal<>();
+
+    TransactionTemplate readOnlyTransaction;
+
+    private final boolean enabled;
+    private final Duration maxLag;
+    private final Cache<String, Boolean> recentWrites;
+
+    private volatile Duration replicaLag = Duration.ZERO;
+
+    @Autowired
+    public ReplicaReadPolicy(PlatformTransactionManager transactionManager,
+                             @Value("${bankinc.replica.enabled}") boolean enabled,
+                             @Value("${bankinc.replica.read-your-writes-window}") Duration readYourWritesWindow,
+                             @Value("${bankinc.replica.max-lag}") Duration maxLag) {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.enabled = enabled;
+        this.maxLag = maxLag;
+        this.recentWrites = Caffeine.newBuilder()
+                .expireAfterWrite(readYourWritesWindow)
+                .maximumSize(100_000)
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void recordWrite(String cardId) {
+        if (enabled) {
+            recentWrites.put(cardId, Boolean.TRUE);
+        }
+    }
+
+    // cardId may be null for reads that are not about one card. Without a replica there is nothing to route, so the
+    // read runs as it would without the policy instead of paying for an extra transaction
+    public <T> T read(String cardId, Supplier<T> read) {
+        if (!enabled) {
+            return read.get();
+        }
+
+        return readInTransaction(cardId, read);
+    }
+
+    // For reads that need a read-only transaction of their own either way, such as streams holding a cursor open
+    public <T> T readInTransaction(String cardId, Supplier<T> read) {
+        boolean replica = enabled
+                && !TransactionSynchronizationManager.isActualTransactionActive()
+                && replicaLag.compareTo(maxLag) <= 0
+                && (cardId == null || recentWrites.getIfPresent(cardId) == null);
+
+        REPLICA_READ.set(replica);
+        try {
+            return readOnlyTransaction.execute(status -> read.get());
+        } finally {
+            REPLICA_READ.remove();
+        }
+    }
+
+    public static boolean isReplicaRead() {
+        return Boolean.TRUE.equals(REPLICA_READ.get()) && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    public Duration getReplicaLag() {
+        return replicaLag;
+    }
+
+    void setReplicaLag(Duration replicaLag) {
+        this.replicaLag = replicaLag;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Read side of the cold tier: the memory-mapped segments in the archive directory, looked up by transaction id
+// once a transaction is no longer in the database (see TransactionArchiver).
+@Component
+public class TransactionArchive {
+
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final Map<Path, TransactionSegment> segments = new ConcurrentHashMap<>();
+
+    @Autowired
+    public TransactionArchive(@Value("${bankinc.archive.enabled}") boolean enabled,
+                              @Value("${bankinc.archive.directory}") Path directory) {
+        this.enabled = enabled;
+        this.directory = directory;
+        refresh();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    public Optional<Transaction> find(Long transactionId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        for (TransactionSegment segment : segments.values()) {
+            if (segment.mayContain(transactionId)) {
+                Optional<Transaction> transaction = segment.find(transactionId);
+                if (transaction.isPresent()) {
+                    return transaction;
+                }
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    // Picks up segments written by the archiver of another instance sharing the directory
+    @Scheduled(fixedDelayString = "${bankinc.archive.refresh-interval}")
+    public void refresh() {
+        if (!enabled || !Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                if (!segments.containsKey(file)) {
+                    add(file);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    void add(Path file) {
+        try {
+            segments.put(file, TransactionSegment.open(file));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Moves the monthly partitions TransactionPartitionMaintainer detached into segment files of the archive, one
+// table at a time, and drops each table only once its segments are on disk. A run interrupted before the drop
+// commits rewrites the same segments on the next run.
+@Component
+@ConditionalOnProperty(name = "bankinc.archive.enabled", havingValue = "true")
+public class TransactionArchiver {
+
+    TransactionArchive transactionArchive;
+    JdbcTemplate jdbcTemplate;
+    TransactionTemplate transactionTemplate;
+
+    private final int blockSize;
+    private final long maxSegmentBytes;
+
+    @Autowired
+    public TransactionArchiver(TransactionArchive transactionArchive, DataSource dataSource,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${bankinc.archive.block-size}") int blockSize,
+                               @Value("${bankinc.archive.max-segment-bytes}") long maxSegmentBytes) {
+        this.transactionArchive = transactionArchive;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        // PostgreSQL only streams with a cursor inside a transaction; otherwise it loads the whole table
+        this.jdbcTemplate.setFetchSize(1000);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blockSize = blockSize;
+        // A segment can pass the limit by its last block and its index, which must still fit in one mapping
+        this.maxSegmentBytes = Math.min(maxSegmentBytes, TransactionSegment.MAX_SEGMENT_BYTES / 2);
+    }
+
+    @Scheduled(cron = "${bankinc.archive.cron}")
+    public void archive() {
+        List<String> tables = jdbcTemplate.queryForList("SELECT c.relname FROM pg_class c " +
+                "WHERE c.relkind = 'r' AND c.relnamespace = current_schema()::regnamespace " +
+                "AND c.relname ~ '^transaction_[0-9]{4}_[0-9]{2}$' " +
+                "AND NOT EXISTS (SELECT 1 FROM pg_inherits i WHERE i.inhrelid = c.oid) ORDER BY c.relname", String.class);
+
+        for (String table : tables) {
+            archive(table);
+        }
+    }
+
+    // One transaction per table: the advisory lock keeps other instances off it, and the drop commits with it
+    void archive(String table) {
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(hashtext(?))", Boolean.class, table)
+                    || !jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, table)) {
+                return;
+            }
+
+            for (Path segment : writeSegments(table)) {
+                transactionArchive.add(segment);
+            }
+
+            jdbcTemplate.execute("DROP TABLE " + table);
+        });
+    }
+
+    private List<Path> writeSegments(String table) {
+        Path directory = transactionArchive.getDirectory();
+        List<Path> written = new ArrayList<>();
+
+        try {
+            Files.createDirectories(directory);
+
+            SegmentRoller roller = new SegmentRoller(directory, table);
+            try {
+                jdbcTemplate.query("SELECT transaction_id, card_id, price, transaction_date, is_annulled FROM " +
+                        table + " ORDER BY transaction_id", row -> {
+                    Transaction transaction = new Transaction();
+                    transaction.setTransactionId(row.getLong(1));
+                    transaction.setCardId(row.getString(2));
+                    transaction.setPrice(row.getBigDecimal(3));
+                    transaction.setTransactionDate(row.getObject(4, LocalDateTime.class));
+                    transaction.setIsAnnulled(row.getBoolean(5));
+                    try {
+                        roller.append(transaction);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+            } finally {
+                roller.close();
+            }
+
+            // Temporary names until every row is on disk, so the reader never maps a partial segment
+            for (Path temporary : roller.segments) {
+                Path segment = directory.resolve(temporary.getFileName().toString()
+                        .replace(".tmp", TransactionArchive.SEGMENT_SUFFIX));
+                Files.move(temporary, segment, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                written.add(segment);
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        return written;
+    }
+
+    private final class SegmentRoller {
+
+        final Path directory;
+        final String table;
+        final List<Path> segments = new ArrayList<>();
+        TransactionSegment.Writer writer;
+
+        SegmentRoller(Path directory, String table) {
+            this.directory = directory;
+            this.table = table;
+        }
+
+        void append(Transaction transaction) throws IOException {
+            if (writer == null || writer.size() >= maxSegmentBytes) {
+                close();
+                Path temporary = directory.resolve(table + "-" + segments.size() + ".tmp");
+                writer = new TransactionSegment.Writer(temporary, blockSize);
+                segments.add(temporary);
+            }
+            writer.append(transaction);
+        }
+
+        void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+}
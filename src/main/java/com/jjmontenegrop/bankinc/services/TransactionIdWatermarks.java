@@ -0,0 +1,32 @@
+package com.jjmontenegrop.bankinc.services;
+
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import static com.jjmontenegrop.bankinc.services.TransactionServiceImpl.HISTORY_START;
+
+// Lower bounds on transaction_date by transaction id, so lookups by id can skip the monthly partitions before the
+// bound. Ids come from transaction_seq, which only grows: a watermark (id, month) recorded once the month has begun
+// means every transaction with a larger id was written in that month or later. TransactionPartitionMaintainer
+// records them (transaction_id_watermark, migration V7) and loads them here; without any, nothing is pruned.
+@Component
+public class TransactionIdWatermarks {
+
+    private volatile NavigableMap<Long, LocalDateTime> monthStarts = Collections.emptyNavigableMap();
+
+    // The earliest transaction_date the transaction with this id can have
+    public LocalDateTime earliestDate(Long transactionId) {
+        Map.Entry<Long, LocalDateTime> watermark = transactionId != null ? monthStarts.lowerEntry(transactionId) : null;
+
+        return watermark != null ? watermark.getValue() : HISTORY_START;
+    }
+
+    void replace(Map<Long, LocalDateTime> watermarks) {
+        monthStarts = Collections.unmodifiableNavigableMap(new TreeMap<>(watermarks));
+    }
+}
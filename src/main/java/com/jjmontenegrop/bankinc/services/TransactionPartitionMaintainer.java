@@ -0,0 +1,160 @@
+package com.jjmontenegrop.bankinc.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Keeps the monthly partitions of transaction (see V3__partition_transaction_by_month.sql) ahead of the clock
+// and detaches the ones past retention. Detached partitions stay in the database as plain tables to be archived
+// or dropped; transaction_legacy is never detached here. It also records the id watermark of each month (see
+// TransactionIdWatermarks) and loads them for lookups by id.
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "bankinc.transaction-partitions.enabled", havingValue = "true")
+public class TransactionPartitionMaintainer {
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("transaction_(\\d{4})_(\\d{2})");
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyy_MM");
+
+    // Covers clock skew between instances, and purchases that took their date a moment before their id
+    static final Duration WATERMARK_MARGIN = Duration.ofHours(1);
+
+    JdbcTemplate jdbcTemplate;
+    TransactionIdWatermarks transactionIdWatermarks;
+    Counter failures;
+
+    private final int monthsAhead;
+    private final int retentionMonths;
+
+    @Autowired
+    public TransactionPartitionMaintainer(JdbcTemplate jdbcTemplate, TransactionIdWatermarks transactionIdWatermarks,
+                                          MeterRegistry meterRegistry,
+                                          @Value("${bankinc.transaction-partitions.months-ahead}") int monthsAhead,
+                                          @Value("${bankinc.transaction-partitions.retention-months}") int retentionMonths) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionIdWatermarks = transactionIdWatermarks;
+        this.failures = Counter.builder("bankinc.transaction-partitions.maintenance.failures")
+                .description("Partition maintenance statements that failed and are left for the next run")
+                .register(meterRegistry);
+        this.monthsAhead = monthsAhead;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${bankinc.transaction-partitions.cron}")
+    public void maintain() {
+        LocalDateTime now = LocalDateTime.now();
+
+        maintain(YearMonth.from(now));
+        recordWatermarks(now);
+    }
+
+    void maintain(YearMonth currentMonth) {
+        Map<YearMonth, Boolean> partitions;
+
+        // This also runs at startup, where a failing catalog read must not stop the application
+        try {
+            partitions = monthlyPartitions();
+        } catch (DataAccessException ex) {
+            failed("Could not list the transaction partitions", ex);
+            return;
+        }
+
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = currentMonth.plusMonths(i);
+            if (!partitions.containsKey(month)) {
+                execute("CREATE TABLE IF NOT EXISTS " + partitionName(month)
+                        + " PARTITION OF transaction FOR VALUES FROM ('" + month.atDay(1)
+                        + "') TO ('" + month.plusMonths(1).atDay(1) + "')");
+            }
+        }
+
+        YearMonth oldestKept = currentMonth.minusMonths(retentionMonths);
+
+        partitions.forEach((month, detachPending) -> {
+            if (month.isBefore(oldestKept)) {
+                // CONCURRENTLY only waits for queries already running; an interrupted detach is finished with FINALIZE
+                execute("ALTER TABLE transaction DETACH PARTITION " + partitionName(month)
+                        + (detachPending ? " FINALIZE" : " CONCURRENTLY"));
+            }
+        });
+    }
+
+    void recordWatermarks(LocalDateTime now) {
+        LocalDateTime monthStart = YearMonth.from(now).atDay(1).atStartOfDay();
+
+        try {
+            // Every id handed out after this read is dated this month or later; the first instance to get here wins
+            if (now.isAfter(monthStart.plus(WATERMARK_MARGIN))) {
+                jdbcTemplate.update("INSERT INTO transaction_id_watermark (month_start, last_id_before) " +
+                        "SELECT ?, last_value FROM transaction_seq ON CONFLICT (month_start) DO NOTHING", monthStart);
+            }
+
+            Map<Long, LocalDateTime> watermarks = new HashMap<>();
+
+            // Months without purchases share a watermark; the later month is the tighter bound
+            jdbcTemplate.query("SELECT last_id_before, month_start FROM transaction_id_watermark",
+                    row -> {
+                        watermarks.merge(row.getLong(1), row.getTimestamp(2).toLocalDateTime(),
+                                (first, second) -> first.isAfter(second) ? first : second);
+                    });
+
+            transactionIdWatermarks.replace(watermarks);
+        } catch (DataAccessException ex) {
+            // The watermarks already loaded stay valid, they only prune less than they could
+            failed("Could not record the transaction id watermarks", ex);
+        }
+    }
+
+    private void execute(String ddl) {
+        try {
+            jdbcTemplate.execute(ddl);
+        } catch (DataAccessException ex) {
+            // Usually another instance got there first; whatever is still missing is retried on the next run
+            failed("Partition maintenance statement failed: " + ddl, ex);
+        }
+    }
+
+    private void failed(String message, DataAccessException ex) {
+        failures.increment();
+        log.warn(message, ex);
+    }
+
+    // Monthly partitions currently attached, with whether a concurrent detach of each is still pending
+    private Map<YearMonth, Boolean> monthlyPartitions() {
+        Map<YearMonth, Boolean> partitions = new HashMap<>();
+
+        jdbcTemplate.query("SELECT c.relname, i.inhdetachpending FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = 'transaction'::regclass", row -> {
+            Matcher matcher = PARTITION_NAME.matcher(row.getString(1));
+            if (matcher.matches()) {
+                partitions.put(YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2))),
+                        row.getBoolean(2));
+            }
+        });
+
+        return partitions;
+    }
+
+    static String partitionName(YearMonth month) {
+        return "transaction_" + month.format(PARTITION_SUFFIX);
+    }
+}
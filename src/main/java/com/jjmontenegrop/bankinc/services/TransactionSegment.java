@@ -0,0 +1,301 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Transaction;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Immutable file of transactions sorted by id: deflated blocks of rows, then a sparse index holding the first id
+// of each block, then a fixed-size footer. A lookup binary-searches the index and inflates a single block.
+// Inside a block ids and dates are delta-encoded varints and prices are unscaled bytes plus a scale.
+final class TransactionSegment {
+
+    private static final int MAGIC = 0x424b5453;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int FOOTER_SIZE = 8 + 4 + 8 + 8 + 8 + 4;
+
+    // A single mapping is addressed with int offsets
+    static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    final Path path;
+    final long minId;
+    final long maxId;
+    final long rowCount;
+
+    private final MappedByteBuffer buffer;
+    private final long[] blockFirstIds;
+    private final int[] blockOffsets;
+    private final int[] blockLengths;
+    private final int[] blockRawLengths;
+
+    private TransactionSegment(Path path, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.buffer = buffer;
+
+        int footer = buffer.capacity() - FOOTER_SIZE;
+        if (footer < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(footer + FOOTER_SIZE - 4) != MAGIC) {
+            throw new IOException("Not a transaction segment: " + path);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported transaction segment version " + buffer.getInt(4) + ": " + path);
+        }
+
+        int indexOffset = (int) buffer.getLong(footer);
+        int blockCount = buffer.getInt(footer + 8);
+        this.rowCount = buffer.getLong(footer + 12);
+        this.minId = buffer.getLong(footer + 20);
+        this.maxId = buffer.getLong(footer + 28);
+
+        this.blockFirstIds = new long[blockCount];
+        this.blockOffsets = new int[blockCount];
+        this.blockLengths = new int[blockCount];
+        this.blockRawLengths = new int[blockCount];
+
+        ByteBuffer index = buffer.slice(indexOffset, footer - indexOffset);
+        for (int i = 0; i < blockCount; i++) {
+            blockFirstIds[i] = index.getLong();
+            blockOffsets[i] = index.getInt();
+            blockLengths[i] = index.getInt();
+            blockRawLengths[i] = index.getInt();
+        }
+    }
+
+    static TransactionSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > MAX_SEGMENT_BYTES) {
+                throw new IOException("Transaction segment too large to map: " + path);
+            }
+            // The mapping stays valid after the channel is closed
+            return new TransactionSegment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    boolean mayContain(long transactionId) {
+        return transactionId >= minId && transactionId <= maxId;
+    }
+
+    Optional<Transaction> find(long transactionId) {
+        if (!mayContain(transactionId)) {
+            return Optional.empty();
+        }
+
+        int block = Arrays.binarySearch(blockFirstIds, transactionId);
+        if (block < 0) {
+            block = -block - 2;
+        }
+
+        ByteBuffer rows = ByteBuffer.wrap(inflate(block));
+        long id = blockFirstIds[block];
+        long dateMicros = 0;
+
+        while (rows.hasRemaining()) {
+            id += readVarLong(rows);
+            dateMicros += readVarLong(rows);
+            byte[] cardId = new byte[(int) readVarLong(rows)];
+            rows.get(cardId);
+            int scale = rows.get();
+            byte[] unscaledPrice = new byte[rows.get()];
+            rows.get(unscaledPrice);
+            boolean annulled = rows.get() != 0;
+
+            if (id == transactionId) {
+                Transaction transaction = new Transaction();
+                transaction.setTransactionId(id);
+                transaction.setCardId(new String(cardId, StandardCharsets.US_ASCII));
+                transaction.setPrice(new BigDecimal(new BigInteger(unscaledPrice), scale));
+                transaction.setTransactionDate(LocalDateTime.ofEpochSecond(Math.floorDiv(dateMicros, 1_000_000L),
+                        (int) Math.floorMod(dateMicros, 1_000_000L) * 1000, ZoneOffset.UTC));
+                transaction.setIsAnnulled(annulled);
+                return Optional.of(transaction);
+            }
+            if (id > transactionId) {
+                break;
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    private byte[] inflate(int block) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(blockOffsets[block], blockLengths[block]));
+            byte[] rows = new byte[blockRawLengths[block]];
+            int inflated = 0;
+            while (inflated < rows.length && !inflater.finished()) {
+                inflated += inflater.inflate(rows, inflated, rows.length - inflated);
+            }
+            return rows;
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt block " + block + " in " + path, ex);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Rows must be appended in ascending id order; close() writes the index and footer and forces the file to disk
+    static final class Writer implements Closeable {
+
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final int blockSize;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+        private long offset = HEADER_SIZE;
+        private int blockCount;
+        private int blockRows;
+        private long rowCount;
+        private long minId;
+        private long lastId = Long.MIN_VALUE;
+        private long lastDateMicros;
+
+        Writer(Path path, int blockSize) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            this.blockSize = blockSize;
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+
+        long rowCount() {
+            return rowCount;
+        }
+
+        // Compressed bytes written so far, not counting the block being filled
+        long size() {
+            return offset;
+        }
+
+        void append(Transaction transaction) throws IOException {
+            long id = transaction.getTransactionId();
+            if (rowCount > 0 && id <= lastId) {
+                throw new IllegalArgumentException("Transaction ids must be ascending: " + id + " after " + lastId);
+            }
+
+            if (blockRows == 0) {
+                DataOutputStream entry = new DataOutputStream(index);
+                entry.writeLong(id);
+                entry.writeInt((int) offset);
+                lastDateMicros = 0;
+            }
+            if (rowCount == 0) {
+                minId = id;
+            }
+
+            long dateMicros = ChronoUnit.MICROS.between(LocalDateTime.ofEpochSecond(0, 0, ZoneOffset.UTC),
+                    transaction.getTransactionDate());
+            byte[] cardId = transaction.getCardId().getBytes(StandardCharsets.US_ASCII);
+            byte[] unscaledPrice = transaction.getPrice().unscaledValue().toByteArray();
+
+            writeVarLong(block, blockRows == 0 ? 0 : id - lastId);
+            writeVarLong(block, dateMicros - lastDateMicros);
+            writeVarLong(block, cardId.length);
+            block.write(cardId);
+            block.write(transaction.getPrice().scale());
+            block.write(unscaledPrice.length);
+            block.write(unscaledPrice);
+            block.write(Boolean.TRUE.equals(transaction.getIsAnnulled()) ? 1 : 0);
+
+            lastId = id;
+            lastDateMicros = dateMicros;
+            rowCount++;
+
+            if (++blockRows == blockSize) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            byte[] rows = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(rows);
+            deflater.finish();
+
+            byte[] chunk = new byte[8192];
+            int length = 0;
+            while (!deflater.finished()) {
+                int written = deflater.deflate(chunk);
+                out.write(chunk, 0, written);
+                length += written;
+            }
+
+            DataOutputStream entry = new DataOutputStream(index);
+            entry.writeInt(length);
+            entry.writeInt(rows.length);
+
+            offset += length;
+            blockCount++;
+            blockRows = 0;
+            block.reset();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (blockRows > 0) {
+                    flushBlock();
+                }
+                long indexOffset = offset;
+                index.writeTo(out);
+                out.writeLong(indexOffset);
+                out.writeInt(blockCount);
+                out.writeLong(rowCount);
+                out.writeLong(minId);
+                out.writeLong(lastId);
+                out.writeInt(MAGIC);
+                out.flush();
+                channel.force(true);
+            } finally {
+                deflater.end();
+                out.close();
+            }
+        }
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        // Zigzag, so that small negative deltas (dates out of id order) stay short
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.write((int) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.write((int) zigzag);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
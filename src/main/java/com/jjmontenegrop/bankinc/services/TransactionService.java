@@ -1,14 +1,30 @@
 package com.jjmontenegrop.bankinc.services;
 
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
 import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
 
 public interface TransactionService {
 
     Long purchase(String cardId, BigDecimal price);
 
+    List<PurchaseBatchResultDTO> purchaseBatch(List<PurchaseRequestResponseDTO> purchases);
+
     PurchaseRequestResponseDTO getTransaction(String transactionId);
 
     void anulation(String cardNumber, String transactionId);
+
+    TransactionPageDTO getCardTransactions(String cardId, LocalDateTime from, LocalDateTime to, Boolean annulled,
+                                           String cursor, int size);
+
+    void validateTransactionExport(String cardId, String productId);
+
+    void exportTransactions(String cardId, String productId, LocalDateTime from, LocalDateTime to,
+                            Consumer<TransactionDTO> exportedTransaction);
 }
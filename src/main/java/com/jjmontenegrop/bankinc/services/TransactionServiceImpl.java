@@ -1,67 +1,268 @@
 package com.jjmontenegrop.bankinc.services;
 
 import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
 import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
 import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
 import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
 import com.jjmontenegrop.bankinc.exceptions.InsufficientFundsException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidExportFilterException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPurchasePriceException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPageCursorException;
 import com.jjmontenegrop.bankinc.exceptions.TransactionAlreadyAnnulatedException;
 import com.jjmontenegrop.bankinc.exceptions.TransactionNotFoundException;
 import com.jjmontenegrop.bankinc.repositories.CardRepository;
 import com.jjmontenegrop.bankinc.repositories.TransactionRepository;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
 import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
-import java.util.Optional;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
+@Timed("bankinc.service")
 public class TransactionServiceImpl implements TransactionService {
 
+    // Must match spring.jpa.properties.hibernate.jdbc.batch_size so each chunk is flushed as one JDBC batch
+    static final int PURCHASE_BATCH_CHUNK_SIZE = 50;
+
+    static final String PURCHASE_BATCH_ABORTED = "Purchase batch aborted before this purchase";
+
+    static final int MAX_HISTORY_PAGE_SIZE = 500;
+
+    static final LocalDateTime HISTORY_START = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    static final LocalDateTime HISTORY_END = LocalDateTime.of(9999, 12, 31, 0, 0);
+
     TransactionRepository transactionRepository;
     CardRepository cardRepository;
+    CardBalanceCache cardBalanceCache;
+    EntityManager entityManager;
+    CardBalanceLedger cardBalanceLedger;
+    CardBalanceSlots cardBalanceSlots;
+    TransactionArchive transactionArchive;
+    ReplicaReadPolicy replicaReadPolicy;
+    TransactionIdWatermarks transactionIdWatermarks;
+    TransactionTemplate transactionTemplate;
+    DistributionSummary purchaseAmounts;
 
     @Autowired
-    public TransactionServiceImpl(TransactionRepository transactionRepository, CardRepository cardRepository) {
+    public TransactionServiceImpl(TransactionRepository transactionRepository, CardRepository cardRepository,
+                                  CardBalanceCache cardBalanceCache, EntityManager entityManager,
+                                  CardBalanceLedger cardBalanceLedger, CardBalanceSlots cardBalanceSlots,
+                                  TransactionArchive transactionArchive, ReplicaReadPolicy replicaReadPolicy,
+                                  TransactionIdWatermarks transactionIdWatermarks,
+                                  PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
         this.transactionRepository = transactionRepository;
         this.cardRepository = cardRepository;
+        this.cardBalanceCache = cardBalanceCache;
+        this.entityManager = entityManager;
+        this.cardBalanceLedger = cardBalanceLedger;
+        this.cardBalanceSlots = cardBalanceSlots;
+        this.transactionArchive = transactionArchive;
+        this.replicaReadPolicy = replicaReadPolicy;
+        this.transactionIdWatermarks = transactionIdWatermarks;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.purchaseAmounts = DistributionSummary.builder("bankinc.purchase.amount")
+                .description("Amount of approved purchases")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(10_000_000.0)
+                .register(meterRegistry);
     }
 
     @Transactional
     public Long purchase(String cardId, BigDecimal price) {
 
-        Optional<Card> card = cardRepository.findById(cardId);
+        // The conditional debit subtracts whatever it is given, so a negative price would credit the card
+        if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
+            throw InvalidPurchasePriceException.INVALID_PRICE;
+        }
+
+        int debitedCards = cardBalanceLedger.isEnabled()
+                ? cardBalanceLedger.lockForDebit(cardId, price)
+                : cardRepository.debitBalance(cardId, price, LocalDateTime.now());
 
-        if (card.isEmpty()) {
-            return 0L;
+        if (debitedCards == 0) {
+            Optional<Card> card = cardRepository.findById(cardId);
+
+            if (card.isEmpty()) {
+                return 0L;
+            }
+
+            if (card.get().isAvailable()) {
+                throw new CardNotAvailableException("Card with number: " + cardId + " not available for purchase");
+            }
+
+            if (!cardBalanceSlots.debit(card.get(), price)) {
+                throw InsufficientFundsException.INSUFFICIENT_FUNDS;
+            }
         }
 
-        Transaction transaction = new Transaction();
+        cardChanged(cardId);
 
-        Card purchaseCard = card.get();
+        Transaction transaction = new Transaction();
 
         transaction.setCardId(cardId);
         transaction.setPrice(price);
 
-        BigDecimal actualBalance = purchaseCard.getBalance();
-        BigDecimal newBalance = actualBalance.subtract(price);
+        transactionRepository.save(transaction);
+        purchaseAmounts.record(price.doubleValue());
+
+        if (cardBalanceLedger.isEnabled()) {
+            cardBalanceLedger.append(cardId, LedgerEntry.Type.PURCHASE, price.negate(), transaction.getTransactionId());
+        }
+
+        return transaction.getTransactionId();
+    }
+
+
+    // Each chunk commits on its own, so card row locks are held for one chunk and a failing chunk cannot roll back
+    // purchases approved by earlier ones
+    public List<PurchaseBatchResultDTO> purchaseBatch(List<PurchaseRequestResponseDTO> purchases) {
 
-        if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
-            throw new InsufficientFundsException("Insufficient funds");
+        List<PurchaseBatchResultDTO> results = new ArrayList<>(purchases.size());
+
+        for (int from = 0; from < purchases.size(); from += PURCHASE_BATCH_CHUNK_SIZE) {
+            List<PurchaseRequestResponseDTO> chunk =
+                    purchases.subList(from, Math.min(from + PURCHASE_BATCH_CHUNK_SIZE, purchases.size()));
+
+            try {
+                results.addAll(transactionTemplate.execute(status -> purchaseChunk(chunk)));
+            } catch (RuntimeException ex) {
+                // Nothing committed yet, so the whole batch can fail and be retried as before
+                if (from == 0) {
+                    throw ex;
+                }
+
+                // Earlier chunks are committed: report them, and decline everything from the failed chunk on
+                for (PurchaseRequestResponseDTO purchase : purchases.subList(from, purchases.size())) {
+                    results.add(PurchaseBatchResultDTO.declined(purchase.getCardId(), PURCHASE_BATCH_ABORTED));
+                }
+                break;
+            }
         }
-        purchaseCard.setBalance(newBalance);
 
-        cardRepository.save(purchaseCard);
-        transactionRepository.save(transaction);
+        return results;
+    }
 
-        return transaction.getTransactionId();
+    private List<PurchaseBatchResultDTO> purchaseChunk(List<PurchaseRequestResponseDTO> chunk) {
+
+        List<PurchaseBatchResultDTO> results = new ArrayList<>(chunk.size());
+
+        Set<String> cardIds = chunk.stream()
+                .map(PurchaseRequestResponseDTO::getCardId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        Map<String, Card> cards;
+
+        // With the ledger, the snapshot rows are locked instead of the card rows, and card.balance is a detached
+        // working copy: the debits are appended as entries
+        if (cardBalanceLedger.isEnabled()) {
+            cards = new TreeMap<>();
+            cardRepository.findAllById(cardIds).forEach(card -> cards.put(card.getCardId(), card));
+
+            for (Card card : cards.values()) {
+                entityManager.detach(card);
+                card.setBalance(cardBalanceLedger.lockBalance(card.getCardId()));
+            }
+        } else {
+            cards = cardRepository.findAllForUpdate(cardIds).stream()
+                    .collect(Collectors.toMap(Card::getCardId, Function.identity()));
+        }
+
+        for (PurchaseRequestResponseDTO purchase : chunk) {
+            results.add(purchaseFromLockedCard(cards.get(purchase.getCardId()), purchase));
+        }
+
+        return results;
     }
 
+    private PurchaseBatchResultDTO purchaseFromLockedCard(Card card, PurchaseRequestResponseDTO purchase) {
+
+        String cardId = purchase.getCardId();
+        BigDecimal price = purchase.getPrice();
+
+        if (price == null || price.compareTo(BigDecimal.ZERO) <= 0) {
+            return PurchaseBatchResultDTO.declined(cardId, InvalidPurchasePriceException.INVALID_PRICE.getMessage());
+        }
+
+        if (card == null) {
+            return PurchaseBatchResultDTO.declined(cardId, "Card with number: " + cardId + " not found");
+        }
+
+        if (card.isAvailable()) {
+            return PurchaseBatchResultDTO.declined(cardId, "Card with number: " + cardId + " not available for purchase");
+        }
+
+        if (card.isSharded()) {
+            if (!cardBalanceSlots.debitLocked(card, price)) {
+                return PurchaseBatchResultDTO.declined(cardId, "Insufficient funds");
+            }
+        } else {
+            BigDecimal newBalance = card.getBalance().subtract(price);
+
+            if (newBalance.compareTo(BigDecimal.ZERO) < 0) {
+                return PurchaseBatchResultDTO.declined(cardId, "Insufficient funds");
+            }
+
+            card.setBalance(newBalance);
+        }
+        cardChanged(cardId);
+
+        Transaction transaction = new Transaction();
+        transaction.setCardId(cardId);
+        transaction.setPrice(price);
+        transactionRepository.save(transaction);
+        purchaseAmounts.record(price.doubleValue());
+
+        if (cardBalanceLedger.isEnabled()) {
+            cardBalanceLedger.append(cardId, LedgerEntry.Type.PURCHASE, price.negate(), transaction.getTransactionId());
+        }
+
+        return PurchaseBatchResultDTO.approved(cardId, transaction.getTransactionId());
+    }
 
     public PurchaseRequestResponseDTO getTransaction(String transactionId) {
 
-        Optional<Transaction> transaction = transactionRepository.findById(transactionId);
+        Long id = parseTransactionId(transactionId);
+
+        if (id == null) {
+            return null;
+        }
+        LocalDateTime earliestDate = transactionIdWatermarks.earliestDate(id);
+
+        Optional<Transaction> transaction = replicaReadPolicy.read(null,
+                () -> transactionRepository.findTransaction(id, earliestDate));
+
+        if (transaction.isEmpty() && replicaReadPolicy.isEnabled()) {
+            // A purchase approved moments ago may not have reached the replica yet
+            transaction = transactionRepository.findTransaction(id, earliestDate);
+        }
+
+        if (transaction.isEmpty()) {
+            // Transactions from partitions past retention only remain in the archive
+            transaction = transactionArchive.find(id);
+        }
 
         if (transaction.isEmpty()) {
             return null;
@@ -76,34 +277,141 @@ public class TransactionServiceImpl implements TransactionService {
         return response;
     }
 
+    // Two statements: the conditional update claims the transaction, so no second anulation can refund it again
+    @Transactional
     public void anulation(String cardNumber, String transactionId) {
 
-        Optional<Card> card = cardRepository.findById(cardNumber);
-        Optional<Transaction> transaction = transactionRepository.findById(transactionId);
+        Long id = parseTransactionId(transactionId);
+        LocalDateTime earliestDate = transactionIdWatermarks.earliestDate(id);
 
-        if (card.isEmpty()) {
+        if (id == null || transactionRepository.markAnnulled(id, earliestDate, cardNumber) == 0) {
+            throw anulationRejection(cardNumber, transactionId, id);
+        }
+
+        if (cardBalanceLedger.isEnabled()) {
+            cardBalanceLedger.append(cardNumber, LedgerEntry.Type.REVERSAL,
+                    transactionRepository.findPrice(id, earliestDate), id);
+        } else if (cardRepository.creditTransactionPrice(cardNumber, id, earliestDate) == 0) {
             throw new CardNotFoundException("Card with number: " + cardNumber + " not found");
         }
 
-        if (transaction.isEmpty()) {
-            throw new TransactionNotFoundException("Transaction with id: " + transactionId + " not found");
+        cardChanged(cardNumber);
+    }
+
+    // The cached balance is stale now, and so may be the replica's copy of the card for a while
+    private void cardChanged(String cardId) {
+        cardBalanceCache.evict(cardId);
+        replicaReadPolicy.recordWrite(cardId);
+    }
+
+    // Only reached when nothing was annulled, to tell the caller why
+    private RuntimeException anulationRejection(String cardNumber, String transactionId, Long id) {
+        if (!cardRepository.existsById(cardNumber)) {
+            return new CardNotFoundException("Card with number: " + cardNumber + " not found");
+        }
+
+        Optional<Transaction> transaction = id != null
+                ? transactionRepository.findTransaction(id, transactionIdWatermarks.earliestDate(id))
+                : Optional.empty();
+
+        if (transaction.isEmpty() || !transaction.get().getCardId().equals(cardNumber)) {
+            return new TransactionNotFoundException("Transaction with id: " + transactionId + " not found");
+        }
+
+        return TransactionAlreadyAnnulatedException.ALREADY_ANNULATED;
+    }
+
+    private static Long parseTransactionId(String transactionId) {
+        try {
+            return Long.valueOf(transactionId);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    public TransactionPageDTO getCardTransactions(String cardId, LocalDateTime from, LocalDateTime to, Boolean annulled,
+                                                  String cursor, int size) {
+
+        int pageSize = Math.max(1, Math.min(size, MAX_HISTORY_PAGE_SIZE));
+        LocalDateTime afterDate = from != null ? from : HISTORY_START;
+        Long afterId = Long.MIN_VALUE;
+
+        if (cursor != null) {
+            TransactionDTO last = parseCursor(cursor);
+
+            if (!last.getTransactionDate().isBefore(afterDate)) {
+                afterDate = last.getTransactionDate();
+                afterId = last.getTransactionId();
+            }
+        }
+
+        LocalDateTime before = to != null ? to : HISTORY_END;
+        LocalDateTime seekDate = afterDate;
+        Long seekId = afterId;
+
+        List<TransactionDTO> transactions = replicaReadPolicy.read(cardId,
+                () -> findCardHistoryPage(cardId, seekDate, seekId, before, annulled, Limit.of(pageSize + 1)));
+
+        if (transactions.size() <= pageSize) {
+            return new TransactionPageDTO(transactions, null);
+        }
+
+        List<TransactionDTO> page = transactions.subList(0, pageSize);
+        TransactionDTO last = page.get(pageSize - 1);
+
+        return new TransactionPageDTO(page, last.getTransactionDate() + "_" + last.getTransactionId());
+    }
+
+    private List<TransactionDTO> findCardHistoryPage(String cardId, LocalDateTime afterDate, Long afterId,
+                                                     LocalDateTime before, Boolean annulled, Limit limit) {
+        if (Boolean.FALSE.equals(annulled)) {
+            return transactionRepository.findLiveCardHistoryPage(cardId, afterDate, afterId, before, limit);
         }
 
-        Card cardAnnulation = card.get();
-        Transaction transactionAnnulation = transaction.get();
+        List<Boolean> annulledStates = annulled != null ? List.of(annulled) : List.of(false, true);
+        return transactionRepository.findCardHistoryPage(cardId, afterDate, afterId, before, annulledStates, limit);
+    }
 
-        if (transactionAnnulation.getIsAnnulled()) {
-            throw new TransactionAlreadyAnnulatedException("Transaction already annulated");
+    public void validateTransactionExport(String cardId, String productId) {
+        if ((cardId == null) == (productId == null)) {
+            throw InvalidExportFilterException.MISSING_FILTER;
         }
 
-        BigDecimal actualBalance = cardAnnulation.getBalance();
-        BigDecimal newBalance = actualBalance.add(transactionAnnulation.getPrice());
+        // The product id becomes a LIKE prefix, so only digits may reach it: '%' or '_' would match every card
+        if (productId != null) {
+            CardServiceImpl.validateProductId(productId);
+        }
+    }
 
-        cardAnnulation.setBalance(newBalance);
+    public void exportTransactions(String cardId, String productId, LocalDateTime from, LocalDateTime to,
+                                   Consumer<TransactionDTO> exportedTransaction) {
 
-        cardRepository.save(cardAnnulation);
+        validateTransactionExport(cardId, productId);
 
-        transactionAnnulation.setAnulated();
-        transactionRepository.save(transactionAnnulation);
+        LocalDateTime exportFrom = from != null ? from : HISTORY_START;
+        LocalDateTime exportTo = to != null ? to : HISTORY_END;
+
+        // The read-only transaction lets Hibernate skip dirty checking and the JDBC driver keep a server-side cursor
+        replicaReadPolicy.readInTransaction(cardId, () -> {
+            try (Stream<TransactionDTO> transactions = cardId != null
+                    ? transactionRepository.streamByCardId(cardId, exportFrom, exportTo)
+                    : transactionRepository.streamByProductId(productId, exportFrom, exportTo)) {
+                transactions.forEach(exportedTransaction);
+            }
+            return null;
+        });
+    }
+
+    static TransactionDTO parseCursor(String cursor) {
+        int separator = cursor.lastIndexOf('_');
+
+        try {
+            TransactionDTO last = new TransactionDTO();
+            last.setTransactionDate(LocalDateTime.parse(cursor.substring(0, separator)));
+            last.setTransactionId(Long.parseLong(cursor.substring(separator + 1)));
+            return last;
+        } catch (IndexOutOfBoundsException | DateTimeParseException | NumberFormatException ex) {
+            throw new InvalidPageCursorException("Invalid page cursor: " + cursor);
+        }
     }
 }
@@ -0,0 +1,65 @@
+-- Schema as Hibernate's ddl-auto=update left it. IF NOT EXISTS lets this run on databases that were created that way.
+
+CREATE SEQUENCE IF NOT EXISTS transaction_seq START WITH 1000 INCREMENT BY 1;
+
+CREATE SEQUENCE IF NOT EXISTS ledger_entry_seq START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE IF NOT EXISTS card (
+    card_id         VARCHAR(255)  NOT NULL,
+    expiration_date TIMESTAMP(6)  NOT NULL,
+    is_active       BOOLEAN       NOT NULL,
+    is_blocked      BOOLEAN       NOT NULL,
+    balance         NUMERIC(38,2),
+    balance_slots   INTEGER,
+    PRIMARY KEY (card_id)
+);
+
+-- Added after the table first shipped
+ALTER TABLE card ADD COLUMN IF NOT EXISTS balance_slots INTEGER;
+
+CREATE TABLE IF NOT EXISTS transaction (
+    transaction_id   BIGINT        NOT NULL,
+    card_id          VARCHAR(255)  NOT NULL,
+    price            NUMERIC(38,2) NOT NULL,
+    transaction_date TIMESTAMP(6)  NOT NULL,
+    is_annulled      BOOLEAN       NOT NULL,
+    PRIMARY KEY (transaction_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_transaction_card_date_id ON transaction (card_id, transaction_date, transaction_id);
+
+CREATE TABLE IF NOT EXISTS idempotency_record (
+    idempotency_key VARCHAR(512)  NOT NULL,
+    status_code     INTEGER       NOT NULL,
+    content_type    VARCHAR(255),
+    body            TEXT,
+    created_at      TIMESTAMP(6)  NOT NULL,
+    PRIMARY KEY (idempotency_key)
+);
+
+CREATE TABLE IF NOT EXISTS ledger_entry (
+    entry_id       BIGINT        NOT NULL,
+    card_id        VARCHAR(255)  NOT NULL,
+    entry_type     VARCHAR(16)   NOT NULL CHECK (entry_type IN ('PURCHASE', 'RECHARGE', 'REVERSAL')),
+    amount         NUMERIC(38,2) NOT NULL,
+    transaction_id BIGINT,
+    created_at     TIMESTAMP(6)  NOT NULL,
+    PRIMARY KEY (entry_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_ledger_entry_card_id_entry_id ON ledger_entry (card_id, entry_id);
+
+CREATE TABLE IF NOT EXISTS balance_snapshot (
+    card_id       VARCHAR(255)  NOT NULL,
+    balance       NUMERIC(38,2) NOT NULL,
+    last_entry_id BIGINT        NOT NULL,
+    taken_at      TIMESTAMP(6)  NOT NULL,
+    PRIMARY KEY (card_id)
+);
+
+CREATE TABLE IF NOT EXISTS card_balance_slot (
+    card_id VARCHAR(255)  NOT NULL,
+    slot    INTEGER       NOT NULL,
+    balance NUMERIC(38,2) NOT NULL,
+    PRIMARY KEY (card_id, slot)
+);
@@ -0,0 +1,5 @@
+-- idx_transaction_card_date_id (V1) already serves card_id and (card_id, transaction_date) lookups.
+-- History reads filtered to live purchases use this one instead, which leaves annulled rows out.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_transaction_card_date_id_live
+    ON transaction (card_id, transaction_date, transaction_id)
+    WHERE NOT is_annulled;
@@ -0,0 +1,45 @@
+-- Range-partitions transaction by month of transaction_date. The existing table becomes one partition,
+-- transaction_legacy, holding everything before the current month; rows of the current month move into
+-- their monthly partition. TransactionPartitionMaintainer creates the months after the ones made here.
+-- Attaching the old table scans it and builds the new primary key index, so on a large table run this
+-- in a maintenance window.
+DO $$
+DECLARE
+    current_month  TIMESTAMP := date_trunc('month', LOCALTIMESTAMP);
+    partition_from TIMESTAMP;
+BEGIN
+    ALTER TABLE transaction RENAME TO transaction_legacy;
+    -- A partitioned table's primary key must include the partition key; the attach builds the new one
+    ALTER TABLE transaction_legacy DROP CONSTRAINT transaction_pkey;
+    ALTER INDEX idx_transaction_card_date_id RENAME TO idx_transaction_legacy_card_date_id;
+    ALTER INDEX IF EXISTS idx_transaction_card_date_id_live RENAME TO idx_transaction_legacy_card_date_id_live;
+
+    CREATE TABLE transaction (
+        transaction_id   BIGINT        NOT NULL,
+        card_id          VARCHAR(255)  NOT NULL,
+        price            NUMERIC(38,2) NOT NULL,
+        transaction_date TIMESTAMP(6)  NOT NULL,
+        is_annulled      BOOLEAN       NOT NULL,
+        PRIMARY KEY (transaction_id, transaction_date)
+    ) PARTITION BY RANGE (transaction_date);
+
+    -- Created on every partition, present and future; the legacy indexes above are attached, not rebuilt
+    CREATE INDEX idx_transaction_card_date_id ON transaction (card_id, transaction_date, transaction_id);
+    CREATE INDEX idx_transaction_card_date_id_live ON transaction (card_id, transaction_date, transaction_id)
+        WHERE NOT is_annulled;
+
+    FOR i IN 0..2 LOOP
+        partition_from := current_month + make_interval(months => i);
+        EXECUTE format('CREATE TABLE %I PARTITION OF transaction FOR VALUES FROM (%L) TO (%L)',
+                'transaction_' || to_char(partition_from, 'YYYY_MM'), partition_from,
+                partition_from + INTERVAL '1 month');
+    END LOOP;
+
+    INSERT INTO transaction (transaction_id, card_id, price, transaction_date, is_annulled)
+        SELECT transaction_id, card_id, price, transaction_date, is_annulled
+        FROM transaction_legacy WHERE transaction_date >= current_month;
+    DELETE FROM transaction_legacy WHERE transaction_date >= current_month;
+
+    EXECUTE format('ALTER TABLE transaction ATTACH PARTITION transaction_legacy FOR VALUES FROM (MINVALUE) TO (%L)',
+            current_month);
+END $$;
@@ -0,0 +1,5 @@
+-- CardExpirationSweeper walks the active cards in (expiration_date, card_id) order and deactivates the expired ones.
+-- Deactivated cards drop out of the partial index, so it stays about the size of the active card base.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_card_expiration_active
+    ON card (expiration_date, card_id)
+    WHERE is_active;
@@ -0,0 +1,3 @@
+-- IdempotencyService.purgeExpired deletes records past their retention, oldest first.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_idempotency_record_created_at
+    ON idempotency_record (created_at);
@@ -0,0 +1,7 @@
+-- IdempotencyFilter claims a key with an IN_PROGRESS row before the request runs, and keeps the request body's hash
+-- to refuse a key reused with a different payload. Rows stored before this migration are completed responses.
+ALTER TABLE idempotency_record
+    ADD COLUMN IF NOT EXISTS status VARCHAR(16) NOT NULL DEFAULT 'COMPLETED'
+        CHECK (status IN ('IN_PROGRESS', 'COMPLETED'));
+ALTER TABLE idempotency_record ADD COLUMN IF NOT EXISTS request_hash VARCHAR(64);
+ALTER TABLE idempotency_record ALTER COLUMN status_code DROP NOT NULL;
@@ -0,0 +1,7 @@
+-- One row per month: every transaction with an id above last_id_before has a transaction_date in month_start's
+-- month or later. TransactionPartitionMaintainer records a row once the month has begun, and lookups by id bound
+-- transaction_date with it so PostgreSQL skips the partitions of earlier months.
+CREATE TABLE IF NOT EXISTS transaction_id_watermark (
+    month_start    TIMESTAMP(6) NOT NULL PRIMARY KEY,
+    last_id_before BIGINT       NOT NULL
+);
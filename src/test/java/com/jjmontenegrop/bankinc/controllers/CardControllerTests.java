@@ -3,7 +3,10 @@ package com.jjmontenegrop.bankinc.controllers;
 import com.jjmontenegrop.bankinc.entities.dto.CardEnrollmentRequestDTO;
 import com.jjmontenegrop.bankinc.entities.dto.CardRechargeRequestDTO;
 import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
+import com.jjmontenegrop.bankinc.exceptions.CardRateLimitExceededException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidCardCountException;
 import com.jjmontenegrop.bankinc.exceptions.InvalidRechargeAmountException;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
 import com.jjmontenegrop.bankinc.services.CardServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -16,10 +19,17 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -36,6 +46,9 @@ class CardControllerTests {
     @Mock
     private CardServiceImpl cardService;
 
+    @Mock
+    private CardRateLimiter cardRateLimiter;
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
@@ -65,6 +78,72 @@ class CardControllerTests {
         assertEquals(expectedCardNumber, actualCardNumber);
     }
 
+    @Test
+    @DisplayName("Should stream issued card numbers as NDJSON")
+    @SuppressWarnings("unchecked")
+    void shouldStreamIssuedCardNumbersAsNdjson() throws Exception {
+        String productId = "123456";
+
+        doAnswer(invocation -> {
+            Consumer<List<String>> committedCardNumbers = invocation.getArgument(2);
+            committedCardNumbers.accept(List.of("1234560000000009"));
+            committedCardNumbers.accept(List.of("1234560000000017"));
+            return null;
+        }).when(cardService).issueCards(eq(productId), eq(2), any(Consumer.class));
+
+        ResponseEntity<StreamingResponseBody> responseEntity = cardController.issueCards(productId, 2, new MockHttpServletRequest());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        responseEntity.getBody().writeTo(outputStream);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals("{\"cardId\":\"1234560000000009\"}\n{\"cardId\":\"1234560000000017\"}\n",
+                outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should end a partial card issuance with an error line")
+    @SuppressWarnings("unchecked")
+    void shouldEndPartialCardIssuanceWithErrorLine() throws Exception {
+        String productId = "123456";
+
+        doAnswer(invocation -> {
+            Consumer<List<String>> committedCardNumbers = invocation.getArgument(2);
+            committedCardNumbers.accept(List.of("1234560000000009"));
+            throw new QueryTimeoutException("Chunk insert timed out");
+        }).when(cardService).issueCards(eq(productId), eq(1000), any(Consumer.class));
+
+        ResponseEntity<StreamingResponseBody> responseEntity = cardController.issueCards(productId, 1000, new MockHttpServletRequest());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        assertThrows(QueryTimeoutException.class, () -> responseEntity.getBody().writeTo(outputStream));
+        assertEquals("{\"cardId\":\"1234560000000009\"}\n{\"error\":\"Card issuance aborted\"}\n",
+                outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should not write an error line when no card was issued")
+    @SuppressWarnings("unchecked")
+    void shouldNotWriteErrorLineWhenNoCardWasIssued() throws Exception {
+        String productId = "123456";
+
+        doThrow(new QueryTimeoutException("Chunk insert timed out"))
+                .when(cardService).issueCards(eq(productId), eq(1000), any(Consumer.class));
+
+        ResponseEntity<StreamingResponseBody> responseEntity = cardController.issueCards(productId, 1000, new MockHttpServletRequest());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        assertThrows(QueryTimeoutException.class, () -> responseEntity.getBody().writeTo(outputStream));
+        assertEquals("", outputStream.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @DisplayName("Should reject card issuance before streaming when count is invalid")
+    void shouldRejectCardIssuanceBeforeStreamingWhenCountIsInvalid() {
+        doThrow(new InvalidCardCountException("Invalid card count")).when(cardService).validateCardIssuance("123456", 0);
+
+        assertThrows(InvalidCardCountException.class, () -> cardController.issueCards("123456", 0, new MockHttpServletRequest()));
+    }
+
     @Test
     @DisplayName("Should return OK status when card is enrolled successfully")
     void shouldReturnOkStatusWhenCardIsEnrolledSuccessfully() {
@@ -175,4 +254,16 @@ class CardControllerTests {
 
         assertThrows(CardNotFoundException.class, () -> cardController.getCardBalance(cardId));
     }
+
+    @Test
+    @DisplayName("Should reject a rate-limited balance check before calling the service")
+    void shouldRejectRateLimitedBalanceCheck() {
+        String cardId = "1234567890123456";
+
+        doThrow(CardRateLimitExceededException.TOO_MANY_REQUESTS)
+                .when(cardRateLimiter).acquire(CardRateLimiter.Endpoint.BALANCE, cardId);
+
+        assertThrows(CardRateLimitExceededException.class, () -> cardController.getCardBalance(cardId));
+        verify(cardService, never()).getCardBalance(anyString());
+    }
 }
@@ -1,21 +1,62 @@
 package com.jjmontenegrop.bankinc.controllers;
 
 import com.jjmontenegrop.bankinc.exceptions.*;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
+import org.mockito.Spy;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 @SpringBootTest
  class HandlerExceptionControllerTests {
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private HandlerExceptionController handlerExceptionController;
 
+    @Test
+    @DisplayName("Should reuse the precomputed response for shared rejections")
+    void shouldReusePrecomputedResponseForSharedRejections() {
+        ResponseEntity<String> first = handlerExceptionController
+                .handleInsufficientFundsException(InsufficientFundsException.INSUFFICIENT_FUNDS);
+        ResponseEntity<String> second = handlerExceptionController
+                .handleInsufficientFundsException(InsufficientFundsException.INSUFFICIENT_FUNDS);
+
+        assertSame(first, second);
+        assertEquals(HttpStatus.BAD_REQUEST, first.getStatusCode());
+        assertEquals("Insufficient funds", first.getBody());
+    }
+
+    @Test
+    @DisplayName("Business exceptions should not capture a stack trace")
+    void businessExceptionsShouldNotCaptureStackTrace() {
+        CardNotFoundException exception = new CardNotFoundException("Card not found");
+
+        assertEquals(0, exception.getStackTrace().length);
+        assertEquals(0, InsufficientFundsException.INSUFFICIENT_FUNDS.getStackTrace().length);
+    }
+
+    @Test
+    @DisplayName("Should count handled exceptions by type and status")
+    void shouldCountHandledExceptionsByTypeAndStatus() {
+        handlerExceptionController.handleInsufficientFundsException(new InsufficientFundsException("Insufficient funds"));
+        handlerExceptionController.handleInsufficientFundsException(new InsufficientFundsException("Insufficient funds"));
+        handlerExceptionController.handleCardNotFoundException(new CardNotFoundException("Card not found"));
+
+        assertEquals(2, handlerExceptionController.meterRegistry.get("bankinc.exceptions.handled")
+                .tags("exception", "InsufficientFundsException", "status", "400").counter().count());
+        assertEquals(1, handlerExceptionController.meterRegistry.get("bankinc.exceptions.handled")
+                .tags("exception", "CardNotFoundException", "status", "404").counter().count());
+    }
+
     @Test
     @DisplayName("Should return NOT_FOUND status when CardNotFoundException is thrown")
     void shouldReturnNotFoundStatusWhenCardNotFoundExceptionIsThrown() {
@@ -38,6 +79,17 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
         assertEquals("Invalid product id", responseEntity.getBody());
     }
 
+    @Test
+    @DisplayName("Should return BAD_REQUEST status when InvalidCardCountException is thrown")
+    void shouldReturnBadRequestStatusWhenInvalidCardCountExceptionIsThrown() {
+        InvalidCardCountException exception = new InvalidCardCountException("Invalid card count");
+
+        ResponseEntity<String> responseEntity = handlerExceptionController.handleInvalidCardCountException(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("Invalid card count", responseEntity.getBody());
+    }
+
     @Test
     @DisplayName("Should return BAD_REQUEST status when CardAlreadyActivatedException is thrown")
     void shouldReturnBadRequestStatusWhenCardAlreadyActivatedExceptionIsThrown() {
@@ -114,4 +166,46 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
         assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
         assertEquals("Transaction already annulated", responseEntity.getBody());
     }
+
+    @Test
+    @DisplayName("Should return BAD_REQUEST status when InvalidPageCursorException is thrown")
+    void shouldReturnBadRequestStatusWhenInvalidPageCursorExceptionIsThrown() {
+        InvalidPageCursorException exception = new InvalidPageCursorException("Invalid page cursor");
+
+        ResponseEntity<String> responseEntity = handlerExceptionController.handleInvalidPageCursorException(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("Invalid page cursor", responseEntity.getBody());
+    }
+
+    @Test
+    @DisplayName("Should return BAD_REQUEST status when InvalidExportFilterException is thrown")
+    void shouldReturnBadRequestStatusWhenInvalidExportFilterExceptionIsThrown() {
+        InvalidExportFilterException exception = new InvalidExportFilterException("Invalid export filter");
+
+        ResponseEntity<String> responseEntity = handlerExceptionController.handleInvalidExportFilterException(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, responseEntity.getStatusCode());
+        assertEquals("Invalid export filter", responseEntity.getBody());
+    }
+
+    @Test
+    @DisplayName("Should return TOO_MANY_REQUESTS status and Retry-After when CardRateLimitExceededException is thrown")
+    void shouldReturnTooManyRequestsStatusWhenCardRateLimitExceededExceptionIsThrown() {
+        ResponseEntity<String> responseEntity = handlerExceptionController
+                .handleCardRateLimitExceededException(CardRateLimitExceededException.TOO_MANY_REQUESTS);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, responseEntity.getStatusCode());
+        assertEquals("1", responseEntity.getHeaders().getFirst("Retry-After"));
+    }
+
+    @Test
+    @DisplayName("Should return SERVICE_UNAVAILABLE status and Retry-After when RechargeTimeoutException is thrown")
+    void shouldReturnServiceUnavailableStatusWhenRechargeTimeoutExceptionIsThrown() {
+        ResponseEntity<String> responseEntity = handlerExceptionController
+                .handleRechargeTimeoutException(RechargeTimeoutException.NOT_APPLIED);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, responseEntity.getStatusCode());
+        assertEquals("1", responseEntity.getHeaders().getFirst("Retry-After"));
+    }
 }
@@ -1,7 +1,14 @@
 package com.jjmontenegrop.bankinc.controllers;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
 import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
 import com.jjmontenegrop.bankinc.entities.dto.TransactionAnulationRequestDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
+import com.jjmontenegrop.bankinc.exceptions.CardRateLimitExceededException;
+import com.jjmontenegrop.bankinc.services.CardRateLimiter;
 import com.jjmontenegrop.bankinc.services.TransactionServiceImpl;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -10,16 +17,26 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.ByteArrayOutputStream;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
 @SpringBootTest
@@ -34,9 +51,18 @@ class TransactionControllerTests {
     @Mock
     private TransactionServiceImpl transactionService;
 
+    @Mock
+    private CardRateLimiter cardRateLimiter;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper()
+            .findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
     @BeforeEach
     public void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(cardRateLimiter.admit(any(), any())).thenReturn(true);
     }
 
     @Test
@@ -54,6 +80,76 @@ class TransactionControllerTests {
         assertEquals("Purchase id: 1", responseEntity.getBody());
     }
 
+    @Test
+    @DisplayName("Should reject a rate-limited purchase before calling the service")
+    void shouldRejectRateLimitedPurchase() {
+        PurchaseRequestResponseDTO request = new PurchaseRequestResponseDTO();
+        request.setCardId("validCardId");
+        request.setPrice(new BigDecimal("100.00"));
+
+        doThrow(CardRateLimitExceededException.TOO_MANY_REQUESTS)
+                .when(cardRateLimiter).acquire(CardRateLimiter.Endpoint.PURCHASE, "validCardId");
+
+        assertThrows(CardRateLimitExceededException.class, () -> transactionController.purchase(request));
+        verify(transactionService, never()).purchase(anyString(), any(BigDecimal.class));
+    }
+
+    @Test
+    @DisplayName("Should charge each batch card once and decline only the items of rate-limited cards")
+    void shouldDeclineOnlyItemsOfRateLimitedCardsInBatch() {
+        PurchaseRequestResponseDTO first = new PurchaseRequestResponseDTO();
+        first.setCardId("otherCardId");
+        first.setPrice(new BigDecimal("10.00"));
+        PurchaseRequestResponseDTO limited = new PurchaseRequestResponseDTO();
+        limited.setCardId("validCardId");
+        limited.setPrice(new BigDecimal("10.00"));
+        PurchaseRequestResponseDTO second = new PurchaseRequestResponseDTO();
+        second.setCardId("otherCardId");
+        second.setPrice(new BigDecimal("20.00"));
+
+        when(cardRateLimiter.admit(CardRateLimiter.Endpoint.PURCHASE, "validCardId")).thenReturn(false);
+        when(transactionService.purchaseBatch(List.of(first, second))).thenReturn(List.of(
+                PurchaseBatchResultDTO.approved("otherCardId", 1L), PurchaseBatchResultDTO.approved("otherCardId", 2L)));
+
+        List<PurchaseBatchResultDTO> results = transactionController.purchaseBatch(List.of(first, limited, second)).getBody();
+
+        assertEquals(3, results.size());
+        assertEquals(1L, results.get(0).getTransactionId());
+        assertEquals(CardRateLimitExceededException.TOO_MANY_REQUESTS.getMessage(), results.get(1).getDeclineReason());
+        assertEquals(2L, results.get(2).getTransactionId());
+        verify(cardRateLimiter, times(1)).admit(CardRateLimiter.Endpoint.PURCHASE, "otherCardId");
+        verify(cardRateLimiter, never()).release(any(), anyString());
+    }
+
+    @Test
+    @DisplayName("Should give the batch's tokens back when the batch fails")
+    void shouldReleaseBatchTokensWhenBatchFails() {
+        PurchaseRequestResponseDTO request = new PurchaseRequestResponseDTO();
+        request.setCardId("validCardId");
+        request.setPrice(new BigDecimal("10.00"));
+
+        when(transactionService.purchaseBatch(anyList())).thenThrow(new QueryTimeoutException("Lock timeout"));
+
+        assertThrows(QueryTimeoutException.class, () -> transactionController.purchaseBatch(List.of(request, request)));
+        verify(cardRateLimiter, times(1)).release(CardRateLimiter.Endpoint.PURCHASE, "validCardId");
+    }
+
+    @Test
+    @DisplayName("Should return OK status and per item results when purchase batch is processed")
+    void shouldReturnOkStatusAndPerItemResultsWhenPurchaseBatchIsProcessed() {
+        PurchaseRequestResponseDTO request = new PurchaseRequestResponseDTO();
+        request.setCardId("validCardId");
+        request.setPrice(new BigDecimal("100.00"));
+        List<PurchaseBatchResultDTO> expectedResults = List.of(PurchaseBatchResultDTO.approved("validCardId", 1L));
+
+        when(transactionService.purchaseBatch(anyList())).thenReturn(expectedResults);
+
+        ResponseEntity<List<PurchaseBatchResultDTO>> responseEntity = transactionController.purchaseBatch(List.of(request));
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(expectedResults, responseEntity.getBody());
+    }
+
     @Test
     @DisplayName("Should return transaction details when transaction id is valid")
     void shouldReturnTransactionDetailsWhenTransactionIdIsValid() {
@@ -70,6 +166,45 @@ class TransactionControllerTests {
         assertEquals(expectedTransaction, responseEntity.getBody());
     }
 
+    @Test
+    @DisplayName("Should return OK status and history page when card transactions are requested")
+    void shouldReturnOkStatusAndHistoryPageWhenCardTransactionsAreRequested() {
+        TransactionPageDTO expectedPage = new TransactionPageDTO(List.of(), null);
+
+        when(transactionService.getCardTransactions("validCardId", null, null, null, null, 50)).thenReturn(expectedPage);
+
+        ResponseEntity<TransactionPageDTO> responseEntity =
+                transactionController.getCardTransactions("validCardId", null, null, null, null, 50);
+
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(expectedPage, responseEntity.getBody());
+    }
+
+    @Test
+    @DisplayName("Should stream exported transactions as NDJSON")
+    @SuppressWarnings("unchecked")
+    void shouldStreamExportedTransactionsAsNdjson() throws Exception {
+        TransactionDTO transaction = new TransactionDTO(1000L, "validCardId", new BigDecimal("100.00"),
+                LocalDateTime.of(2024, 5, 1, 10, 0), false);
+
+        doAnswer(invocation -> {
+            Consumer<TransactionDTO> exportedTransaction = invocation.getArgument(4);
+            exportedTransaction.accept(transaction);
+            exportedTransaction.accept(transaction);
+            return null;
+        }).when(transactionService).exportTransactions(eq("validCardId"), isNull(), isNull(), isNull(), any(Consumer.class));
+
+        ResponseEntity<StreamingResponseBody> responseEntity =
+                transactionController.exportTransactions("validCardId", null, null, null, new MockHttpServletRequest());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        responseEntity.getBody().writeTo(outputStream);
+
+        String line = "{\"transactionId\":1000,\"cardId\":\"validCardId\",\"price\":100.00," +
+                "\"transactionDate\":\"2024-05-01T10:00:00\",\"isAnnulled\":false}\n";
+        assertEquals(HttpStatus.OK, responseEntity.getStatusCode());
+        assertEquals(line + line, outputStream.toString(StandardCharsets.UTF_8));
+    }
+
     @Test
     @DisplayName("Should return OK status when transaction anulation is successful")
     void shouldReturnOkStatusWhenTransactionAnulationIsSuccessful() {
@@ -0,0 +1,82 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimitTests {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // Runs rounds of requests that fill the whole limit, all completing with the given latency
+    private static void saturate(AdaptiveConcurrencyLimit limit, long latencyNanos, int rounds) {
+        for (int round = 0; round < rounds; round++) {
+            int admitted = 0;
+            while (limit.tryAcquire()) {
+                admitted++;
+            }
+            for (int i = 0; i < admitted; i++) {
+                limit.release(latencyNanos, false);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Should admit up to the limit and no further")
+    void shouldAdmitUpToTheLimit() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(3, 1, 10, 2.0);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+        assertEquals(3, limit.getInFlight());
+
+        limit.release();
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    @DisplayName("Should grow while latency is steady and shrink when it rises")
+    void shouldShrinkWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 100, 2.0);
+
+        saturate(limit, FAST, 20);
+        int steady = limit.getLimit();
+        assertTrue(steady > 10);
+
+        saturate(limit, SLOW, 20);
+        assertTrue(limit.getLimit() < steady / 2);
+        assertTrue(limit.getLimit() >= 2);
+    }
+
+    @Test
+    @DisplayName("Should not grow on samples taken with the limit mostly unused")
+    void shouldNotGrowWhenUnderused() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 100, 2.0);
+
+        for (int i = 0; i < 1000; i++) {
+            limit.tryAcquire();
+            limit.release(FAST, false);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    @DisplayName("Should back off on failed requests")
+    void shouldBackOffOnFailures() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 2, 100, 2.0);
+
+        for (int i = 0; i < 10; i++) {
+            limit.tryAcquire();
+            limit.release(FAST, true);
+        }
+
+        assertEquals(6, limit.getLimit());
+    }
+}
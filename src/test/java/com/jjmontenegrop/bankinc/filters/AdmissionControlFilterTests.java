@@ -0,0 +1,93 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionControlFilterTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final AdmissionControlFilter filter = new AdmissionControlFilter(1, 1, 1, 1, 1, 2.0, meterRegistry);
+
+    // Holds one purchase inside the chain until the returned latch is released
+    private CountDownLatch holdPurchase() throws InterruptedException {
+        CountDownLatch inHandler = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                filter.doFilter(new MockHttpServletRequest("POST", "/transaction/purchase"), new MockHttpServletResponse(),
+                        new MockFilterChain(new HttpServlet() {
+                            @Override
+                            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                                inHandler.countDown();
+                                try {
+                                    release.await();
+                                } catch (InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }));
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        inHandler.await();
+
+        return release;
+    }
+
+    @Test
+    @DisplayName("Should shed a write over its budget with 503 and Retry-After without waiting")
+    void shouldShedWriteOverBudget() throws Exception {
+        CountDownLatch release = holdPurchase();
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        long start = System.nanoTime();
+        filter.doFilter(new MockHttpServletRequest("POST", "/transaction/purchase"), rejected, new MockFilterChain());
+        long elapsed = System.nanoTime() - start;
+        release.countDown();
+
+        assertEquals(503, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+        assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(1, meterRegistry.get("bankinc.admission.rejected").tag("budget", "write").counter().count());
+    }
+
+    @Test
+    @DisplayName("Should keep serving reads while the write budget is full")
+    void shouldServeReadsWhileWritesAreFull() throws Exception {
+        CountDownLatch release = holdPurchase();
+
+        MockHttpServletResponse read = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/card/balance/1"), read, new MockFilterChain());
+        release.countDown();
+
+        assertEquals(200, read.getStatus());
+        assertEquals(1, meterRegistry.get("bankinc.admission.limit").tag("budget", "read").gauge().value());
+    }
+
+    @Test
+    @DisplayName("Should not limit actuator requests")
+    void shouldNotLimitActuator() throws Exception {
+        CountDownLatch release = holdPurchase();
+
+        MockHttpServletResponse health = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("POST", "/actuator/health"), health, new MockFilterChain());
+        release.countDown();
+
+        assertEquals(200, health.getStatus());
+    }
+}
@@ -0,0 +1,244 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import com.jjmontenegrop.bankinc.entities.IdempotencyRecord;
+import com.jjmontenegrop.bankinc.repositories.IdempotencyRecordRepository;
+import com.jjmontenegrop.bankinc.services.IdempotencyService;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class IdempotencyFilterTests {
+
+    private final IdempotencyRecordRepository idempotencyRecordRepository = mock(IdempotencyRecordRepository.class);
+
+    private final IdempotencyService idempotencyService = newNode();
+
+    private final IdempotencyFilter idempotencyFilter = new IdempotencyFilter(idempotencyService);
+
+    private final AtomicInteger handledRequests = new AtomicInteger();
+
+    // The idempotency_record table, shared by every node built with newNode()
+    private final Map<String, IdempotencyRecord> rows = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        when(idempotencyRecordRepository.save(any(IdempotencyRecord.class))).thenAnswer(invocation -> {
+            IdempotencyRecord record = invocation.getArgument(0);
+            record.prePersist();
+            if (rows.putIfAbsent(record.getIdempotencyKey(), record) != null) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint");
+            }
+            return record;
+        });
+        when(idempotencyRecordRepository.findById(any()))
+                .thenAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<String>getArgument(0))));
+        when(idempotencyRecordRepository.complete(any(), anyInt(), any(), any())).thenAnswer(invocation -> {
+            IdempotencyRecord claim = rows.get(invocation.<String>getArgument(0));
+            if (claim == null || claim.isCompleted()) {
+                return 0;
+            }
+            IdempotencyRecord completed = new IdempotencyRecord(claim.getIdempotencyKey(), claim.getRequestHash(),
+                    invocation.getArgument(1), invocation.getArgument(2), invocation.getArgument(3));
+            completed.setCreatedAt(claim.getCreatedAt());
+            rows.put(claim.getIdempotencyKey(), completed);
+            return 1;
+        });
+        when(idempotencyRecordRepository.deleteInProgress(any())).thenAnswer(invocation ->
+                rows.computeIfPresent(invocation.getArgument(0), (key, record) -> record.isCompleted() ? record : null)
+                        == null ? 1 : 0);
+        when(idempotencyRecordRepository.deleteExpired(any(), any())).thenAnswer(invocation -> {
+            LocalDateTime before = invocation.getArgument(1);
+            return rows.computeIfPresent(invocation.getArgument(0),
+                    (key, record) -> record.getCreatedAt().isBefore(before) ? null : record) == null ? 1 : 0;
+        });
+    }
+
+    private IdempotencyService newNode() {
+        return new IdempotencyService(idempotencyRecordRepository, "maximumSize=100", Duration.ofHours(24));
+    }
+
+    @Test
+    @DisplayName("Should replay the stored response without calling the handler again")
+    void shouldReplayStoredResponseWithoutCallingHandlerAgain() throws Exception {
+        MockHttpServletResponse first = perform("POST", "/transaction/purchase", "key-1");
+        MockHttpServletResponse second = perform("POST", "/transaction/purchase", "key-1");
+
+        assertEquals(1, handledRequests.get());
+        assertEquals(200, second.getStatus());
+        assertEquals(first.getContentAsString(), second.getContentAsString());
+        assertEquals("true", second.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAY_HEADER));
+        verify(idempotencyRecordRepository, times(1)).save(any(IdempotencyRecord.class));
+    }
+
+    @Test
+    @DisplayName("Should replay a response stored by another node")
+    void shouldReplayResponseStoredByAnotherNode() throws Exception {
+        MockHttpServletResponse first = perform("POST", "/card/balance", "key-2");
+        IdempotencyFilter otherNode = new IdempotencyFilter(newNode());
+
+        MockHttpServletResponse second = perform(otherNode, "POST", "/card/balance", "key-2", "");
+
+        assertEquals(1, handledRequests.get());
+        assertEquals(first.getContentAsString(), second.getContentAsString());
+        assertEquals("true", second.getHeader(IdempotencyFilter.IDEMPOTENT_REPLAY_HEADER));
+    }
+
+    @Test
+    @DisplayName("Should reject a request whose key another node has claimed")
+    void shouldRejectRequestWhoseKeyAnotherNodeHasClaimed() throws Exception {
+        String idempotencyKey = IdempotencyFilter.idempotencyKey("POST", "/transaction/anulation", "key-3");
+        assertTrue(newNode().claim(idempotencyKey, IdempotencyFilter.sha256(new byte[0])).isEmpty());
+
+        MockHttpServletResponse response = perform("POST", "/transaction/anulation", "key-3");
+
+        assertEquals(409, response.getStatus());
+        assertEquals(0, handledRequests.get());
+    }
+
+    @Test
+    @DisplayName("Should refuse a key reused with a different request body")
+    void shouldRefuseKeyReusedWithDifferentBody() throws Exception {
+        perform(idempotencyFilter, "POST", "/transaction/purchase", "key-8", "{\"cardId\":\"1\",\"price\":10}");
+        MockHttpServletResponse reused =
+                perform(idempotencyFilter, "POST", "/transaction/purchase", "key-8", "{\"cardId\":\"1\",\"price\":99}");
+
+        assertEquals(422, reused.getStatus());
+        assertEquals(1, handledRequests.get());
+    }
+
+    @Test
+    @DisplayName("Should pass the request body on to the handler")
+    void shouldPassRequestBodyToHandler() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/transaction/purchase");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, "key-9");
+        request.setContent("{\"cardId\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        idempotencyFilter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.getWriter().write(new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }));
+
+        assertEquals("{\"cardId\":\"1\"}", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("Should not store a rate-limited response, so a later retry with the same key runs")
+    void shouldNotStoreRateLimitedResponse() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/transaction/purchase");
+        request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, "key-5");
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+
+        idempotencyFilter.doFilter(request, rejected, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                resp.setStatus(429);
+                resp.setHeader("Retry-After", "1");
+            }
+        }));
+        MockHttpServletResponse retried = perform("POST", "/transaction/purchase", "key-5");
+
+        assertEquals(429, rejected.getStatus());
+        assertEquals(200, retried.getStatus());
+        assertEquals(1, handledRequests.get());
+        verify(idempotencyRecordRepository, times(1)).deleteInProgress(any());
+    }
+
+    @Test
+    @DisplayName("Should store a fixed-length key however long the URI is")
+    void shouldStoreFixedLengthKeyForLongUris() throws Exception {
+        ArgumentCaptor<IdempotencyRecord> saved = ArgumentCaptor.forClass(IdempotencyRecord.class);
+
+        perform("DELETE", "/card/" + "1".repeat(1000), "k".repeat(255));
+
+        verify(idempotencyRecordRepository).save(saved.capture());
+        assertEquals(64, saved.getValue().getIdempotencyKey().length());
+    }
+
+    @Test
+    @DisplayName("Should still replay on this node when storing the response fails")
+    void shouldReplayLocallyWhenStoringFails() throws Exception {
+        doThrow(new QueryTimeoutException("statement timeout"))
+                .when(idempotencyRecordRepository).complete(any(), anyInt(), any(), any());
+
+        MockHttpServletResponse first = perform("POST", "/transaction/purchase", "key-7");
+        MockHttpServletResponse second = perform("POST", "/transaction/purchase", "key-7");
+
+        assertEquals(1, handledRequests.get());
+        assertEquals(first.getContentAsString(), second.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("Should run the request again once the stored response is past its retention")
+    void shouldIgnoreRecordsPastRetention() throws Exception {
+        String idempotencyKey = IdempotencyFilter.idempotencyKey("POST", "/transaction/purchase", "key-6");
+        IdempotencyRecord stored = new IdempotencyRecord(idempotencyKey, IdempotencyFilter.sha256(new byte[0]), 200,
+                "text/plain", "Purchase id: 1");
+        stored.setCreatedAt(LocalDateTime.now().minusDays(2));
+        rows.put(idempotencyKey, stored);
+
+        MockHttpServletResponse response = perform("POST", "/transaction/purchase", "key-6");
+
+        assertEquals(1, handledRequests.get());
+        assertEquals("Purchase id: 1001", response.getContentAsString());
+    }
+
+    @Test
+    @DisplayName("Should ignore requests without key or outside the mutating routes")
+    void shouldIgnoreRequestsWithoutKeyOrOutsideMutatingRoutes() throws Exception {
+        perform("POST", "/transaction/purchase", null);
+        perform("GET", "/card/balance/123", "key-4");
+        perform("GET", "/card/balance/123", "key-4");
+
+        assertEquals(3, handledRequests.get());
+        verifyNoInteractions(idempotencyRecordRepository);
+    }
+
+    private MockHttpServletResponse perform(String method, String uri, String idempotencyKey) throws Exception {
+        return perform(idempotencyFilter, method, uri, idempotencyKey, "");
+    }
+
+    private MockHttpServletResponse perform(IdempotencyFilter filter, String method, String uri, String idempotencyKey,
+                                            String body) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        if (idempotencyKey != null) {
+            request.addHeader(IdempotencyFilter.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        }
+        request.setContent(body.getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.setContentType("text/plain");
+                resp.getWriter().write("Purchase id: " + (1000 + handledRequests.incrementAndGet()));
+            }
+        }));
+
+        return response;
+    }
+}
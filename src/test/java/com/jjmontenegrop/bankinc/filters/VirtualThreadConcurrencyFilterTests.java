@@ -0,0 +1,67 @@
+package com.jjmontenegrop.bankinc.filters;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class VirtualThreadConcurrencyFilterTests {
+
+    private final VirtualThreadConcurrencyFilter filter = new VirtualThreadConcurrencyFilter(1, Duration.ofMillis(50));
+
+    @Test
+    @DisplayName("Should reject with 503 and Retry-After when every permit is taken")
+    void shouldRejectWhenEveryPermitIsTaken() throws Exception {
+        CountDownLatch inHandler = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread.ofVirtual().start(() -> {
+            try {
+                filter.doFilter(new MockHttpServletRequest("GET", "/card/balance/1"), new MockHttpServletResponse(),
+                        new MockFilterChain(new HttpServlet() {
+                            @Override
+                            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                                inHandler.countDown();
+                                try {
+                                    release.await();
+                                } catch (InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }));
+            } catch (Exception ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+        inHandler.await();
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/card/balance/2"), rejected, new MockFilterChain());
+        release.countDown();
+
+        assertEquals(503, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+    }
+
+    @Test
+    @DisplayName("Should let requests through while permits are available")
+    void shouldLetRequestsThroughWhilePermitsAreAvailable() throws Exception {
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        MockHttpServletResponse second = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/card/balance/1"), first, new MockFilterChain());
+        filter.doFilter(new MockHttpServletRequest("GET", "/card/balance/1"), second, new MockFilterChain());
+
+        assertEquals(200, first.getStatus());
+        assertEquals(200, second.getStatus());
+    }
+}
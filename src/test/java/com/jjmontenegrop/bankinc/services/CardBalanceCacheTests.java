@@ -0,0 +1,94 @@
+package com.jjmontenegrop.bankinc.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardBalanceCacheTests {
+
+    private static final LocalDateTime VALID_UNTIL = LocalDateTime.now().plusYears(3);
+
+    private final CardBalanceCache cardBalanceCache = new CardBalanceCache("maximumSize=100,expireAfterWrite=1m");
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    @DisplayName("Should load once and count hits and misses")
+    void shouldLoadOnceAndCountHitsAndMisses() {
+        AtomicInteger loads = new AtomicInteger();
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        cardBalanceCache.bindTo(registry);
+
+        for (int i = 0; i < 3; i++) {
+            cardBalanceCache.get("card", cardId -> {
+                loads.incrementAndGet();
+                return new CardBalanceCache.Entry(BigDecimal.TEN, true, VALID_UNTIL);
+            });
+        }
+
+        assertEquals(1, loads.get());
+        assertEquals(2.0, registry.get("cache.gets").tag("result", "hit").functionCounter().count());
+        assertEquals(1.0, registry.get("cache.gets").tag("result", "miss").functionCounter().count());
+    }
+
+    @Test
+    @DisplayName("Should not cache unknown cards")
+    void shouldNotCacheUnknownCards() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cardBalanceCache.get("unknown", cardId -> { loads.incrementAndGet(); return null; });
+        cardBalanceCache.get("unknown", cardId -> { loads.incrementAndGet(); return null; });
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @DisplayName("Should bypass the cache while a write on the card is committing")
+    void shouldBypassCacheWhileWriteIsCommitting() {
+        cardBalanceCache.get("card", cardId -> new CardBalanceCache.Entry(BigDecimal.TEN, true, VALID_UNTIL));
+
+        TransactionSynchronizationManager.initSynchronization();
+        cardBalanceCache.evict("card");
+        TransactionSynchronization synchronization = TransactionSynchronizationManager.getSynchronizations().get(0);
+        synchronization.beforeCommit(false);
+
+        CardBalanceCache.Entry duringCommit =
+                cardBalanceCache.get("card", cardId -> new CardBalanceCache.Entry(BigDecimal.ONE, true, VALID_UNTIL));
+
+        synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+
+        CardBalanceCache.Entry afterCommit =
+                cardBalanceCache.get("card", cardId -> new CardBalanceCache.Entry(BigDecimal.ONE, true, VALID_UNTIL));
+
+        assertEquals(BigDecimal.ONE, duringCommit.balance());
+        assertEquals(BigDecimal.ONE, afterCommit.balance());
+    }
+
+    @Test
+    @DisplayName("Should drop a value loaded concurrently with a committed write")
+    void shouldDropValueLoadedConcurrentlyWithCommittedWrite() {
+        cardBalanceCache.get("card", cardId -> {
+            cardBalanceCache.evict(cardId);
+            return new CardBalanceCache.Entry(BigDecimal.TEN, true, VALID_UNTIL);
+        });
+
+        CardBalanceCache.Entry entry =
+                cardBalanceCache.get("card", cardId -> new CardBalanceCache.Entry(BigDecimal.ONE, true, VALID_UNTIL));
+
+        assertEquals(BigDecimal.ONE, entry.balance());
+    }
+}
@@ -0,0 +1,158 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.BalanceSnapshot;
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.dto.LedgerTailDTO;
+import com.jjmontenegrop.bankinc.repositories.BalanceSnapshotRepository;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import com.jjmontenegrop.bankinc.repositories.LedgerEntryRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class CardBalanceLedgerTests {
+
+    @Mock
+    private LedgerEntryRepository ledgerEntryRepository;
+
+    @Mock
+    private BalanceSnapshotRepository balanceSnapshotRepository;
+
+    @Mock
+    private CardRepository cardRepository;
+
+    private CardBalanceLedger cardBalanceLedger;
+
+    @BeforeEach
+    void setUp() {
+        cardBalanceLedger = new CardBalanceLedger(ledgerEntryRepository, balanceSnapshotRepository, cardRepository,
+                true, Duration.ofSeconds(60), 3);
+    }
+
+    @Test
+    @DisplayName("Debit check should pass only for an available card whose ledger balance covers the amount")
+    void lockForDebitShouldCheckAvailabilityAndFunds() {
+        Card active = new Card("active", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+        Card blocked = new Card("blocked", LocalDateTime.now().plusYears(3), true, true, BigDecimal.ZERO);
+
+        when(cardRepository.findById("active")).thenReturn(Optional.of(active));
+        when(cardRepository.findById("blocked")).thenReturn(Optional.of(blocked));
+        when(cardRepository.findById("unknown")).thenReturn(Optional.empty());
+        when(balanceSnapshotRepository.findForUpdate("active")).thenReturn(Optional.of(
+                new BalanceSnapshot("active", BigDecimal.valueOf(80), 7L, LocalDateTime.now())));
+        when(ledgerEntryRepository.findTail("active", 7L)).thenReturn(new LedgerTailDTO(BigDecimal.valueOf(20), 2L));
+
+        assertEquals(1, cardBalanceLedger.lockForDebit("active", BigDecimal.valueOf(100)));
+        assertEquals(0, cardBalanceLedger.lockForDebit("active", BigDecimal.valueOf(101)));
+        assertEquals(0, cardBalanceLedger.lockForDebit("blocked", BigDecimal.ONE));
+        assertEquals(0, cardBalanceLedger.lockForDebit("unknown", BigDecimal.ONE));
+
+        verify(cardRepository, never()).findAllForUpdate(anyCollection());
+        verify(balanceSnapshotRepository, never()).findForUpdate("blocked");
+        verify(balanceSnapshotRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("First debit of a card should create its snapshot before locking it")
+    void lockBalanceShouldCreateMissingSnapshot() {
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.empty(), Optional.of(
+                new BalanceSnapshot("123", BigDecimal.valueOf(40), 0L, LocalDateTime.now())));
+        when(ledgerEntryRepository.findTail("123", 0L)).thenReturn(new LedgerTailDTO(BigDecimal.valueOf(-15), 1L));
+
+        assertEquals(BigDecimal.valueOf(25), cardBalanceLedger.lockBalance("123"));
+
+        verify(balanceSnapshotRepository).insertIfAbsent(eq("123"), any());
+        verify(balanceSnapshotRepository, times(2)).findForUpdate("123");
+    }
+
+    @Test
+    @DisplayName("Debit should fold the settled entries of a tail over the threshold into the locked snapshot")
+    void lockBalanceShouldFoldSettledEntriesOverThreshold() {
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.of(
+                new BalanceSnapshot("123", BigDecimal.valueOf(40), 7L, LocalDateTime.now())));
+        when(ledgerEntryRepository.findTail("123", 7L)).thenReturn(new LedgerTailDTO(BigDecimal.valueOf(-30), 4L));
+        when(ledgerEntryRepository.findLastEntryIdCreatedBefore(eq("123"), any())).thenReturn(10L);
+        when(ledgerEntryRepository.sumEntries("123", 7L, 10L)).thenReturn(BigDecimal.valueOf(-20));
+
+        assertEquals(BigDecimal.valueOf(10), cardBalanceLedger.lockBalance("123"));
+
+        ArgumentCaptor<BalanceSnapshot> snapshot = ArgumentCaptor.forClass(BalanceSnapshot.class);
+        verify(balanceSnapshotRepository).save(snapshot.capture());
+        assertEquals(BigDecimal.valueOf(20), snapshot.getValue().getBalance());
+        assertEquals(10L, snapshot.getValue().getLastEntryId());
+    }
+
+    @Test
+    @DisplayName("Debit should leave the snapshot alone while none of the tail has settled")
+    void lockBalanceShouldNotFoldUnsettledEntries() {
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.of(
+                new BalanceSnapshot("123", BigDecimal.valueOf(40), 7L, LocalDateTime.now())));
+        when(ledgerEntryRepository.findTail("123", 7L)).thenReturn(new LedgerTailDTO(BigDecimal.valueOf(-30), 4L));
+        when(ledgerEntryRepository.findLastEntryIdCreatedBefore(eq("123"), any())).thenReturn(7L);
+
+        assertEquals(BigDecimal.valueOf(10), cardBalanceLedger.lockBalance("123"));
+
+        verify(balanceSnapshotRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("First compaction should start from the card balance and cover every entry up to the given id")
+    void firstCompactionShouldStartFromCardBalance() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(40));
+
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.empty());
+        when(cardRepository.findById("123")).thenReturn(Optional.of(card));
+        when(ledgerEntryRepository.sumEntries("123", 0L, 7L)).thenReturn(BigDecimal.valueOf(-15));
+
+        cardBalanceLedger.compact("123", 7L);
+
+        ArgumentCaptor<BalanceSnapshot> snapshot = ArgumentCaptor.forClass(BalanceSnapshot.class);
+        verify(balanceSnapshotRepository).save(snapshot.capture());
+        assertEquals(BigDecimal.valueOf(25), snapshot.getValue().getBalance());
+        assertEquals(7L, snapshot.getValue().getLastEntryId());
+    }
+
+    @Test
+    @DisplayName("Compaction should roll only the entries after the previous snapshot into the new one")
+    void compactionShouldRollEntriesAfterPreviousSnapshot() {
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.of(
+                new BalanceSnapshot("123", BigDecimal.valueOf(25), 7L, LocalDateTime.now())));
+        when(ledgerEntryRepository.sumEntries("123", 7L, 12L)).thenReturn(BigDecimal.valueOf(10));
+
+        cardBalanceLedger.compact("123", 12L);
+
+        ArgumentCaptor<BalanceSnapshot> snapshot = ArgumentCaptor.forClass(BalanceSnapshot.class);
+        verify(balanceSnapshotRepository).save(snapshot.capture());
+        assertEquals(BigDecimal.valueOf(35), snapshot.getValue().getBalance());
+        assertEquals(12L, snapshot.getValue().getLastEntryId());
+        verify(cardRepository, never()).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("Compaction should leave a snapshot alone when it already covers the given id")
+    void compactionShouldSkipSnapshotThatIsAlreadyCurrent() {
+        when(balanceSnapshotRepository.findForUpdate("123")).thenReturn(Optional.of(
+                new BalanceSnapshot("123", BigDecimal.valueOf(25), 12L, LocalDateTime.now())));
+
+        cardBalanceLedger.compact("123", 9L);
+
+        verify(balanceSnapshotRepository, never()).save(any());
+        verify(ledgerEntryRepository, never()).sumEntries(anyString(), anyLong(), anyLong());
+    }
+}
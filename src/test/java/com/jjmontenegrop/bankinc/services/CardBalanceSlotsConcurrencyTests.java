@@ -0,0 +1,110 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.CardBalanceSlot;
+import com.jjmontenegrop.bankinc.repositories.CardBalanceSlotRepository;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs against the configured database: conservation only holds if the row locks really are taken
+@SpringBootTest
+class CardBalanceSlotsConcurrencyTests {
+
+    private static final int THREADS = 8;
+
+    private static final int OPERATIONS_PER_THREAD = 40;
+
+    private static final long INITIAL_BALANCE = 500;
+
+    @Autowired
+    private CardServiceImpl cardService;
+
+    @Autowired
+    private TransactionServiceImpl transactionService;
+
+    @Autowired
+    private CardRepository cardRepository;
+
+    @Autowired
+    private CardBalanceSlotRepository cardBalanceSlotRepository;
+
+    @Test
+    @DisplayName("Concurrent recharges, purchases and resizes should neither create nor lose money")
+    void concurrentOperationsShouldConserveBalance() throws InterruptedException {
+        String cardId = cardService.generateCardNumber("123456");
+        cardService.activateCard(cardId);
+        cardService.rechargeCard(cardId, BigDecimal.valueOf(INITIAL_BALANCE));
+        cardService.setBalanceSlots(cardId, 4);
+
+        AtomicLong credited = new AtomicLong();
+        AtomicLong debited = new AtomicLong();
+        AtomicLong approvedPurchases = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                awaitQuietly(start);
+
+                for (int operation = 0; operation < OPERATIONS_PER_THREAD; operation++) {
+                    int kind = random.nextInt(10);
+                    long amount = 1 + random.nextInt(40);
+
+                    // A failed call rolled its transaction back, so it moved no money and is not counted
+                    try {
+                        if (kind < 3) {
+                            cardService.rechargeCard(cardId, BigDecimal.valueOf(amount));
+                            credited.addAndGet(amount);
+                        } else if (kind < 9) {
+                            transactionService.purchase(cardId, BigDecimal.valueOf(amount));
+                            debited.addAndGet(amount);
+                            approvedPurchases.incrementAndGet();
+                        } else {
+                            // Includes 1, so cards keep moving between the plain balance and the slots
+                            cardService.setBalanceSlots(cardId, 1 + random.nextInt(8));
+                        }
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }));
+        }
+
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        BigDecimal expected = BigDecimal.valueOf(INITIAL_BALANCE + credited.get() - debited.get());
+
+        assertTrue(approvedPurchases.get() > 0);
+        assertEquals(0, expected.compareTo(cardBalanceSlotRepository.totalBalance(cardId)));
+        assertTrue(cardRepository.findById(cardId).orElseThrow().getBalance().signum() >= 0);
+        for (CardBalanceSlot slot : cardBalanceSlotRepository.findAll()) {
+            assertTrue(slot.getBalance().signum() >= 0);
+        }
+
+        cardService.setBalanceSlots(cardId, 1);
+
+        assertEquals(0, expected.compareTo(new BigDecimal(cardService.getCardBalance(cardId))));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.CardBalanceSlot;
+import com.jjmontenegrop.bankinc.repositories.CardBalanceSlotRepository;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.LockModeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class CardBalanceSlotsTests {
+
+    @Mock
+    private CardBalanceSlotRepository cardBalanceSlotRepository;
+
+    @Mock
+    private CardRepository cardRepository;
+
+    @Mock
+    private EntityManager entityManager;
+
+    private CardBalanceSlots cardBalanceSlots;
+
+    @BeforeEach
+    void setUp() {
+        cardBalanceSlots = new CardBalanceSlots(cardBalanceSlotRepository, cardRepository, entityManager, 64);
+    }
+
+    @Test
+    @DisplayName("Credit should fall back to the card row when the chosen slot was removed by a resize")
+    void creditShouldFallBackToCardRowWhenSlotIsGone() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO, 4);
+
+        when(cardBalanceSlotRepository.credit(eq("123"), anyInt(), any())).thenReturn(0);
+
+        assertTrue(cardBalanceSlots.credit(card, BigDecimal.TEN));
+        assertFalse(cardBalanceSlots.credit(new Card("456", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO),
+                BigDecimal.TEN));
+
+        verify(cardRepository, times(1)).creditBalance("123", BigDecimal.TEN);
+        verify(cardRepository, never()).creditBalance(eq("456"), any());
+    }
+
+    @Test
+    @DisplayName("Debit should lock the card and borrow across slots when the chosen slot is short")
+    void debitShouldBorrowAcrossSlotsWhenChosenSlotIsShort() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, new BigDecimal("5"), 3);
+        List<CardBalanceSlot> slots = List.of(new CardBalanceSlot("123", 0, new BigDecimal("10")),
+                new CardBalanceSlot("123", 1, new BigDecimal("20")),
+                new CardBalanceSlot("123", 2, new BigDecimal("30")));
+
+        when(cardBalanceSlotRepository.debit(eq("123"), anyInt(), any())).thenReturn(0);
+        when(cardBalanceSlotRepository.findAllForUpdate("123")).thenReturn(slots);
+
+        assertTrue(cardBalanceSlots.debit(card, new BigDecimal("25")));
+
+        verify(entityManager, times(1)).refresh(card, LockModeType.PESSIMISTIC_WRITE);
+        assertEquals(0, card.getBalance().signum());
+        assertEquals(0, slots.get(0).getBalance().signum());
+        assertEquals(new BigDecimal("10"), slots.get(1).getBalance());
+        assertEquals(new BigDecimal("30"), slots.get(2).getBalance());
+    }
+
+    @Test
+    @DisplayName("Debit should leave every slot untouched when the total cannot cover the amount")
+    void debitLockedShouldDeclineWhenTotalIsShort() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ONE, 2);
+        List<CardBalanceSlot> slots = List.of(new CardBalanceSlot("123", 0, BigDecimal.TEN),
+                new CardBalanceSlot("123", 1, BigDecimal.TEN));
+
+        when(cardBalanceSlotRepository.findAllForUpdate("123")).thenReturn(slots);
+
+        assertFalse(cardBalanceSlots.debitLocked(card, new BigDecimal("22")));
+
+        assertEquals(BigDecimal.ONE, card.getBalance());
+        assertEquals(BigDecimal.TEN, slots.get(0).getBalance());
+        assertEquals(BigDecimal.TEN, slots.get(1).getBalance());
+    }
+
+    @Test
+    @DisplayName("Resize should spread the whole balance evenly and give the rounding rest to slot 0")
+    void resizeShouldSpreadBalanceEvenly() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, new BigDecimal("0.01"), 2);
+        List<CardBalanceSlot> slots = List.of(new CardBalanceSlot("123", 0, new BigDecimal("50.00")),
+                new CardBalanceSlot("123", 1, new BigDecimal("50.00")));
+
+        when(cardBalanceSlotRepository.findAllForUpdate("123")).thenReturn(slots);
+
+        cardBalanceSlots.resize(card, 3);
+
+        ArgumentCaptor<CardBalanceSlot> added = ArgumentCaptor.forClass(CardBalanceSlot.class);
+        verify(entityManager, times(1)).persist(added.capture());
+        assertEquals(new BigDecimal("33.35"), slots.get(0).getBalance());
+        assertEquals(new BigDecimal("33.33"), slots.get(1).getBalance());
+        assertEquals(2, added.getValue().getSlot());
+        assertEquals(new BigDecimal("33.33"), added.getValue().getBalance());
+        assertEquals(0, card.getBalance().signum());
+        assertEquals(3, card.getBalanceSlots());
+
+        cardBalanceSlots.resize(card, 1);
+
+        verify(cardBalanceSlotRepository, times(1)).deleteAll(slots);
+        assertEquals(new BigDecimal("66.68"), card.getBalance());
+        assertFalse(card.isSharded());
+    }
+}
@@ -0,0 +1,82 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.dto.CardExpirationDTO;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class CardExpirationSweeperTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 5, 1, 12, 0);
+
+    @Mock
+    private CardRepository cardRepository;
+
+    @Mock
+    private CardBalanceCache cardBalanceCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private SimpleMeterRegistry meterRegistry;
+    private CardExpirationSweeper sweeper;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        sweeper = new CardExpirationSweeper(cardRepository, cardBalanceCache, transactionManager, meterRegistry, 2);
+    }
+
+    private static CardExpirationDTO expired(String cardId, int daysAgo) {
+        return new CardExpirationDTO(cardId, NOW.minusDays(daysAgo));
+    }
+
+    @Test
+    @DisplayName("Should deactivate chunk by chunk, resuming after the last card of the previous chunk")
+    void shouldSweepInKeysetOrderedChunks() {
+        when(cardRepository.findExpiredActiveCards(NOW, CardExpirationSweeper.SWEEP_START, "", Limit.of(2)))
+                .thenReturn(List.of(expired("1", 30), expired("2", 20)));
+        when(cardRepository.findExpiredActiveCards(NOW, NOW.minusDays(20), "2", Limit.of(2)))
+                .thenReturn(List.of(expired("3", 10)));
+        when(cardRepository.deactivateExpired(anyList(), any())).thenAnswer(invocation -> invocation.<List<?>>getArgument(0).size());
+
+        sweeper.sweep(NOW);
+
+        verify(cardRepository).deactivateExpired(List.of("1", "2"), NOW);
+        verify(cardRepository).deactivateExpired(List.of("3"), NOW);
+        verify(cardBalanceCache).evict("1");
+        verify(cardBalanceCache).evict("3");
+        verify(transactionManager, times(2)).commit(any());
+        assertEquals(3, meterRegistry.get("bankinc.cards.expired").counter().count());
+    }
+
+    @Test
+    @DisplayName("Should stop without updating when no card has expired")
+    void shouldStopWhenNothingExpired() {
+        when(cardRepository.findExpiredActiveCards(any(), any(), any(), any())).thenReturn(List.of());
+
+        sweeper.sweep(NOW);
+
+        verify(cardRepository, never()).deactivateExpired(anyList(), any());
+        verify(cardRepository, times(1)).findExpiredActiveCards(any(), any(), any(), any());
+    }
+}
@@ -0,0 +1,88 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CardNumberAllocatorTests {
+
+    private final CardRepository cardRepository = mock(CardRepository.class);
+
+    private final CardNumberAllocator cardNumberAllocator = new CardNumberAllocator(cardRepository, 100, 100_000);
+
+    @AfterEach
+    void tearDown() {
+        cardNumberAllocator.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should compute the Luhn check digit")
+    void shouldComputeLuhnCheckDigit() {
+        assertEquals(3, CardNumberAllocator.luhnCheckDigit("7992739871"));
+        assertEquals(6, CardNumberAllocator.luhnCheckDigit("453201511283036"));
+    }
+
+    @Test
+    @DisplayName("Should allocate unique Luhn valid numbers with the product prefix")
+    void shouldAllocateUniqueLuhnValidNumbersWithProductPrefix() {
+        Set<String> cardNumbers = new HashSet<>();
+
+        for (int i = 0; i < 5_000; i++) {
+            String cardNumber = cardNumberAllocator.next("123456");
+
+            assertEquals(16, cardNumber.length());
+            assertTrue(cardNumber.startsWith("123456"));
+            assertEquals(cardNumber.charAt(15) - '0', CardNumberAllocator.luhnCheckDigit(cardNumber.substring(0, 15)));
+            assertTrue(cardNumbers.add(cardNumber));
+        }
+    }
+
+    @Test
+    @DisplayName("Should mark card numbers already stored in the database as issued")
+    void shouldMarkStoredCardNumbersAsIssued() {
+        when(cardRepository.streamAllCardIds()).thenReturn(Stream.of("1234560000000009"));
+
+        cardNumberAllocator.loadIssuedCardNumbers();
+
+        for (int i = 0; i < 5_000; i++) {
+            assertNotEquals("1234560000000009", cardNumberAllocator.next("123456"));
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep allocating unique numbers far past the expected card count")
+    void shouldKeepAllocatingPastExpectedCards() {
+        CardNumberAllocator smallAllocator = new CardNumberAllocator(cardRepository, 100, 100);
+        Set<String> cardNumbers = new HashSet<>();
+
+        try {
+            assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+                for (int i = 0; i < 20_000; i++) {
+                    assertTrue(cardNumbers.add(smallAllocator.next("123456")));
+                }
+            });
+        } finally {
+            smallAllocator.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("Should allocate numbers for products beyond the pooled ones")
+    void shouldAllocateForProductsBeyondThePooledOnes() {
+        for (int product = 0; product < CardNumberAllocator.MAX_POOLED_PRODUCTS * 2; product++) {
+            String productId = String.valueOf(100_000 + product);
+
+            assertTrue(cardNumberAllocator.next(productId).startsWith(productId));
+        }
+    }
+}
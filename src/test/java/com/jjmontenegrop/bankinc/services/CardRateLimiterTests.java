@@ -0,0 +1,146 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.exceptions.CardRateLimitExceededException;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CardRateLimiterTests {
+
+    private static final String CARD = "1234560000000001";
+    private static final String OTHER_CARD = "1234560000000002";
+    private static final long SECOND = 1_000_000;
+
+    private static CardRateLimiter limiter(List<String> productOverrides) {
+        return new CardRateLimiter(true, 1024, "5/3", "10/10", productOverrides);
+    }
+
+    @Test
+    @DisplayName("Should admit the burst, reject past it and refill at the configured rate")
+    void shouldAdmitBurstThenRefill() {
+        CardRateLimiter limiter = limiter(List.of());
+        long now = 10 * SECOND;
+
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+
+        // 5 per second: one more token every 200 ms
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now + SECOND / 10));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now + SECOND / 5));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now + SECOND / 5));
+    }
+
+    @Test
+    @DisplayName("Should give a released token back to the card")
+    void shouldGiveReleasedTokenBack() {
+        CardRateLimiter limiter = limiter(List.of());
+        long now = 10 * SECOND;
+
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now);
+        }
+        limiter.release(CardRateLimiter.Endpoint.PURCHASE, CARD);
+
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+    }
+
+    @Test
+    @DisplayName("Should treat a bucket from before the clock wrapped as drained")
+    void shouldTreatWrappedBucketAsDrained() {
+        CardRateLimiter limiter = limiter(List.of());
+        long beforeWrap = (1L << 44) - SECOND;
+        long afterWrap = SECOND;
+
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, beforeWrap));
+
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, afterWrap));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, afterWrap + SECOND / 10));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, afterWrap + SECOND / 5));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, afterWrap + SECOND / 5));
+    }
+
+    @Test
+    @DisplayName("Should keep separate buckets per card and per endpoint")
+    void shouldKeepSeparateBuckets() {
+        CardRateLimiter limiter = limiter(List.of());
+        long now = 10 * SECOND;
+
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now);
+        }
+
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, OTHER_CARD, now));
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.BALANCE, CARD, now));
+    }
+
+    @Test
+    @DisplayName("Should apply the longest matching product prefix override")
+    void shouldApplyProductOverrides() {
+        CardRateLimiter limiter = limiter(List.of("purchase.123456=1/1", "purchase.1234560000=1/5"));
+        long now = 10 * SECOND;
+
+        int admitted = 0;
+        while (limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now)) {
+            admitted++;
+        }
+        assertEquals(5, admitted);
+
+        assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, "1234561111111111", now));
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, "1234561111111111", now));
+    }
+
+    @Test
+    @DisplayName("Should never admit more than the burst across concurrent callers")
+    void shouldHoldTheLimitUnderConcurrency() throws InterruptedException {
+        CardRateLimiter limiter = new CardRateLimiter(true, 1024, "0.001/50", "10/10", List.of());
+        AtomicInteger admitted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1000);
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 1000; i++) {
+                executor.execute(() -> {
+                    try {
+                        limiter.acquire(CardRateLimiter.Endpoint.PURCHASE, CARD);
+                        admitted.incrementAndGet();
+                    } catch (CardRateLimitExceededException ex) {
+                        rejected.incrementAndGet();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            done.await();
+        }
+
+        assertEquals(50, admitted.get());
+        assertEquals(950, rejected.get());
+    }
+
+    @Test
+    @DisplayName("Should stay usable when many more cards than slots are limited")
+    void shouldEvictWhenTheTableIsFull() {
+        CardRateLimiter limiter = new CardRateLimiter(true, 16, "5/3", "10/10", List.of());
+        long now = 10 * SECOND;
+
+        for (int i = 0; i < 10_000; i++) {
+            limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, String.valueOf(1234560000000000L + i), now);
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now + SECOND));
+        }
+        assertFalse(limiter.tryAcquire(CardRateLimiter.Endpoint.PURCHASE, CARD, now + SECOND));
+    }
+}
@@ -1,6 +1,7 @@
 package com.jjmontenegrop.bankinc.services;
 
 import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
 import com.jjmontenegrop.bankinc.exceptions.*;
 import com.jjmontenegrop.bankinc.repositories.CardRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,14 +11,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,12 +37,34 @@ class CardServiceImplTests {
     @Mock
     private CardRepository cardRepository;
 
+    @Spy
+    private CardBalanceCache cardBalanceCache = new CardBalanceCache("maximumSize=100");
+
+    @Mock
+    private CardNumberAllocator cardNumberAllocator;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private CardBalanceLedger cardBalanceLedger;
+
+    @Mock
+    private CardBalanceSlots cardBalanceSlots;
+
+    @Mock
+    private RechargeCoalescer rechargeCoalescer;
+
+    @Mock
+    private ReplicaReadPolicy replicaReadPolicy;
+
     @InjectMocks
     private CardServiceImpl cardService;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(replicaReadPolicy.read(any(), any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
     }
 
     // Generate card number tests
@@ -45,6 +74,7 @@ class CardServiceImplTests {
         String validProductId = "123456";
         Card card = new Card();
 
+        when(cardNumberAllocator.next(validProductId)).thenReturn("1234560000000009");
         when(cardRepository.save(any(Card.class))).thenReturn(card);
 
         String cardNumber = cardService.generateCardNumber(validProductId);
@@ -66,6 +96,61 @@ class CardServiceImplTests {
         verify(cardRepository, never()).save(any(Card.class));
     }
 
+    @Test
+    @DisplayName("Generate card number with non numeric product ID")
+    void shouldThrowExceptionWhenProductIdIsNotNumeric() {
+        assertThrows(InvalidProductIdException.class, () -> cardService.generateCardNumber("12345A"));
+
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("Generate card number with a product ID in non ASCII digits")
+    void shouldThrowExceptionWhenProductIdHasNonAsciiDigits() {
+        assertThrows(InvalidProductIdException.class, () -> cardService.generateCardNumber("\u0661\u0662\u0663\u0664\u0665\u0666"));
+
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("Generate card number retries when the number is already taken")
+    void shouldRetryWhenGeneratedCardNumberIsAlreadyTaken() {
+        String validProductId = "123456";
+
+        when(cardNumberAllocator.next(validProductId)).thenReturn("1234560000000009", "1234560000000017");
+        when(cardRepository.save(any(Card.class)))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"))
+                .thenReturn(new Card());
+
+        String cardNumber = cardService.generateCardNumber(validProductId);
+
+        assertEquals("1234560000000017", cardNumber);
+        verify(cardRepository, times(2)).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("Issue cards in committed chunks")
+    void shouldIssueCardsInCommittedChunks() {
+        String validProductId = "123456";
+        List<Integer> chunkSizes = new ArrayList<>();
+
+        when(cardNumberAllocator.next(validProductId)).thenReturn("1234560000000009");
+
+        cardService.issueCards(validProductId, 1200, cardNumbers -> chunkSizes.add(cardNumbers.size()));
+
+        assertEquals(List.of(500, 500, 200), chunkSizes);
+        verify(cardRepository, times(3)).saveAll(anyList());
+    }
+
+    @Test
+    @DisplayName("Issue cards with invalid count")
+    void shouldThrowExceptionWhenCardCountIsInvalid() {
+        assertThrows(InvalidCardCountException.class, () -> cardService.issueCards("123456", 0, cardNumbers -> { }));
+        assertThrows(InvalidCardCountException.class, () -> cardService.issueCards("123456", 1_000_001, cardNumbers -> { }));
+
+        verify(cardRepository, never()).saveAll(anyList());
+    }
+
     // Activate card tests
     @Test
     @DisplayName("Test activate a card that does not exists")
@@ -86,7 +171,7 @@ class CardServiceImplTests {
     @DisplayName("Test activate a card that is already activated")
     void testActivateCardAlreadyActivated() {
         String cardNumber = "1234567890123456";
-        Card card = new Card(cardNumber, LocalDateTime.now(), true, false, BigDecimal.valueOf(0));
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(0));
         when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
 
         Exception exception = assertThrows(CardAlreadyActivatedException.class, () -> cardService.activateCard(cardNumber));
@@ -104,11 +189,37 @@ class CardServiceImplTests {
         card.setIsActive(false);
 
         when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+        when(cardRepository.activate(cardId)).thenReturn(1);
 
         cardService.activateCard(cardId);
 
-        assertTrue(card.getIsActive());
-        verify(cardRepository, times(1)).save(card);
+        verify(cardRepository, times(1)).activate(cardId);
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("Should report the card as already activated when a concurrent request activated it first")
+    void shouldThrowCardAlreadyActivatedExceptionWhenActivatedConcurrently() {
+        String cardId = "validCardId";
+        Card card = new Card(cardId);
+        card.setIsActive(false);
+
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+        when(cardRepository.activate(cardId)).thenReturn(0);
+
+        assertThrows(CardAlreadyActivatedException.class, () -> cardService.activateCard(cardId));
+    }
+
+    @Test
+    @DisplayName("Should not activate card when card is expired")
+    void shouldNotActivateCardWhenCardIsExpired() {
+        String cardId = "validCardId";
+        Card card = new Card(cardId, LocalDateTime.now().minusDays(1), false, false, BigDecimal.ZERO);
+
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+
+        assertThrows(CardNotAvailableException.class, () -> cardService.activateCard(cardId));
+        verify(cardRepository, never()).activate(cardId);
     }
 
     @Test
@@ -121,7 +232,7 @@ class CardServiceImplTests {
         when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
 
         assertThrows(CardAlreadyActivatedException.class, () -> cardService.activateCard(cardId));
-        verify(cardRepository, never()).save(card);
+        verify(cardRepository, never()).activate(cardId);
     }
 
     @Test
@@ -132,7 +243,7 @@ class CardServiceImplTests {
         when(cardRepository.findById(cardId)).thenReturn(Optional.empty());
 
         assertThrows(CardNotFoundException.class, () -> cardService.activateCard(cardId));
-        verify(cardRepository, never()).save(any(Card.class));
+        verify(cardRepository, never()).activate(anyString());
     }
 
     // Block card tests
@@ -156,7 +267,7 @@ class CardServiceImplTests {
     @DisplayName("Test block a card that is already blocked")
     void testBlockCardAlreadyBlocked() {
         String cardNumber = "1234567890123456";
-        Card card = new Card(cardNumber, LocalDateTime.now(), true, true, BigDecimal.valueOf(0));
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, true, BigDecimal.valueOf(0));
         when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
 
         Exception exception = assertThrows(CardAlreadyBlockedException.class, () -> {
@@ -173,17 +284,14 @@ class CardServiceImplTests {
     @DisplayName("Test block a card successfully")
     void testBlockCardSuccess() {
         String cardNumber = "1234567890123456";
-        Card card = new Card(cardNumber, LocalDateTime.now(), true, false, BigDecimal.valueOf(0));
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(0));
         when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
+        when(cardRepository.block(cardNumber)).thenReturn(1);
 
         cardService.blockCard(cardNumber);
 
-        if (cardRepository.findById(cardNumber).isEmpty()) {
-            fail();
-        }
-        assertTrue(cardRepository.findById(cardNumber).get().getIsBlocked());
-
-        verify(cardRepository, times(1)).save(card);
+        verify(cardRepository, times(1)).block(cardNumber);
+        verify(cardRepository, never()).save(any(Card.class));
     }
 
     // Recharge card tests
@@ -240,13 +348,116 @@ class CardServiceImplTests {
     @DisplayName("Test recharge a card successfully")
     void testRechargeCardSuccess() {
         String cardNumber = "1234567890123456";
-        Card card = new Card(cardNumber, LocalDateTime.now(), true, false, BigDecimal.valueOf(50));
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(50));
         when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
 
         cardService.rechargeCard(cardNumber, BigDecimal.valueOf(100));
 
-        assertEquals(BigDecimal.valueOf(150), card.getBalance());
-        verify(cardRepository, times(1)).save(card);
+        verify(cardRepository, times(1)).creditBalance(cardNumber, BigDecimal.valueOf(100));
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
+    @Test
+    @DisplayName("Recharge should append a ledger entry instead of rewriting the card when the ledger is enabled")
+    void rechargeCardShouldAppendLedgerEntryWhenLedgerIsEnabled() {
+        String cardNumber = "1234567890123456";
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(50));
+        when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
+        when(cardBalanceLedger.isEnabled()).thenReturn(true);
+        when(cardBalanceLedger.balance(cardNumber)).thenReturn(BigDecimal.valueOf(150));
+
+        cardService.rechargeCard(cardNumber, BigDecimal.valueOf(100));
+
+        verify(cardBalanceLedger, times(1)).append(cardNumber, LedgerEntry.Type.RECHARGE, BigDecimal.valueOf(100), null);
+        verify(cardRepository, never()).save(any(Card.class));
+        assertEquals(BigDecimal.valueOf(50), card.getBalance());
+        assertEquals("150", cardService.getCardBalance(cardNumber));
+    }
+
+    @Test
+    @DisplayName("Recharge should credit a balance slot instead of rewriting the card when the card is sharded")
+    void rechargeCardShouldCreditSlotWhenCardIsSharded() {
+        String cardNumber = "1234567890123456";
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO, 4);
+        when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
+        when(cardBalanceSlots.credit(card, BigDecimal.valueOf(100))).thenReturn(true);
+        when(cardBalanceSlots.balance(cardNumber)).thenReturn(BigDecimal.valueOf(150));
+
+        cardService.rechargeCard(cardNumber, BigDecimal.valueOf(100));
+
+        verify(cardRepository, never()).save(any(Card.class));
+        assertEquals("150", cardService.getCardBalance(cardNumber));
+    }
+
+    @Test
+    @DisplayName("Recharge should hand the amount to the coalescer outside a transaction when coalescing is enabled")
+    void rechargeCardShouldUseCoalescerWhenEnabled() {
+        String cardNumber = "1234567890123456";
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(50));
+        when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
+        when(rechargeCoalescer.isEnabled()).thenReturn(true);
+
+        cardService.rechargeCard(cardNumber, BigDecimal.valueOf(100));
+
+        verify(rechargeCoalescer, times(1)).recharge(cardNumber, BigDecimal.valueOf(100));
+        verify(transactionManager, never()).getTransaction(any());
+        verify(cardRepository, never()).save(any(Card.class));
+        assertEquals(BigDecimal.valueOf(50), card.getBalance());
+    }
+
+    @Test
+    @DisplayName("Recharge should validate the card before handing the amount to the coalescer")
+    void rechargeCardShouldValidateBeforeCoalescing() {
+        String cardNumber = "1234567890123456";
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, true, BigDecimal.valueOf(50));
+        when(cardRepository.findById(cardNumber)).thenReturn(Optional.of(card));
+        when(rechargeCoalescer.isEnabled()).thenReturn(true);
+
+        assertThrows(CardNotAvailableException.class,
+                () -> cardService.rechargeCard(cardNumber, BigDecimal.valueOf(100)));
+
+        verify(rechargeCoalescer, never()).recharge(anyString(), any());
+    }
+
+    @Test
+    @DisplayName("Get card balance should reject a card that expired after its balance was cached")
+    void getCardBalanceShouldRejectCardExpiredWhileCached() {
+        String cardNumber = "1234567890123456";
+        cardBalanceCache.get(cardNumber,
+                id -> new CardBalanceCache.Entry(BigDecimal.TEN, true, LocalDateTime.now().minusSeconds(1)));
+
+        assertThrows(CardNotAvailableException.class, () -> cardService.getCardBalance(cardNumber));
+        verify(cardRepository, never()).findById(anyString());
+    }
+
+    @Test
+    @DisplayName("Set balance slots should lock the card and resize it")
+    void setBalanceSlotsShouldResizeLockedCard() {
+        String cardNumber = "1234567890123456";
+        Card card = new Card(cardNumber, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(50));
+        when(cardBalanceSlots.getMaxSlots()).thenReturn(64);
+        when(cardRepository.findAllForUpdate(List.of(cardNumber))).thenReturn(List.of(card));
+
+        cardService.setBalanceSlots(cardNumber, 8);
+
+        verify(cardBalanceSlots, times(1)).resize(card, 8);
+        verify(cardBalanceCache, times(1)).evict(cardNumber);
+    }
+
+    @Test
+    @DisplayName("Set balance slots should reject counts out of range, unknown cards and ledger mode")
+    void setBalanceSlotsShouldRejectInvalidRequests() {
+        when(cardBalanceSlots.getMaxSlots()).thenReturn(64);
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(List.of());
+
+        assertThrows(InvalidBalanceSlotsException.class, () -> cardService.setBalanceSlots("123", 0));
+        assertThrows(InvalidBalanceSlotsException.class, () -> cardService.setBalanceSlots("123", 65));
+        assertThrows(CardNotFoundException.class, () -> cardService.setBalanceSlots("123", 2));
+
+        when(cardBalanceLedger.isEnabled()).thenReturn(true);
+
+        assertThrows(InvalidBalanceSlotsException.class, () -> cardService.setBalanceSlots("123", 2));
+        verify(cardBalanceSlots, never()).resize(any(), anyInt());
     }
 
     @Test
@@ -317,6 +528,38 @@ class CardServiceImplTests {
 
         assertThrows(CardNotAvailableException.class, () -> cardService.getCardBalance(cardId));
     }
-}
 
+    @Test
+    @DisplayName("Should serve repeated balance reads from the cache")
+    void shouldServeRepeatedBalanceReadsFromTheCache() {
+        String cardId = "validCardId";
+        Card card = new Card(cardId, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(100));
+
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+
+        cardService.getCardBalance(cardId);
+        cardService.getCardBalance(cardId);
+
+        verify(cardRepository, times(1)).findById(cardId);
+    }
+
+    @Test
+    @DisplayName("Should return the recharged balance after a cached read")
+    void shouldReturnRechargedBalanceAfterCachedRead() {
+        String cardId = "validCardId";
+        Card card = new Card(cardId, LocalDateTime.now().plusYears(3), true, false, BigDecimal.valueOf(100));
+
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+        when(cardRepository.creditBalance(cardId, BigDecimal.valueOf(50))).thenAnswer(invocation -> {
+            card.setBalance(card.getBalance().add(BigDecimal.valueOf(50)));
+            return 1;
+        });
 
+        assertEquals("100", cardService.getCardBalance(cardId));
+
+        cardService.rechargeCard(cardId, BigDecimal.valueOf(50));
+
+        assertEquals("150", cardService.getCardBalance(cardId));
+        verify(cardBalanceCache, times(1)).evict(cardId);
+    }
+}
@@ -0,0 +1,153 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.exceptions.*;
+import com.jjmontenegrop.bankinc.repositories.ReactiveCardRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class ReactiveCardServiceImplTests {
+
+    @Mock
+    private ReactiveCardRepository cardRepository;
+
+    @Spy
+    private CardBalanceCache cardBalanceCache = new CardBalanceCache("maximumSize=100");
+
+    @Mock
+    private CardNumberAllocator cardNumberAllocator;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    @InjectMocks
+    private ReactiveCardServiceImpl cardService;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    @DisplayName("Generate card number should retry with a new number when the first one is already taken")
+    void generateCardNumberShouldRetryWhenTheNumberIsAlreadyTaken() {
+        when(cardNumberAllocator.next("123456")).thenReturn("1234560000000001", "1234560000000002");
+        when(cardRepository.insertCard(eq("1234560000000001"), any(LocalDateTime.class)))
+                .thenReturn(Mono.error(new DataIntegrityViolationException("duplicate key")));
+        when(cardRepository.insertCard(eq("1234560000000002"), any(LocalDateTime.class))).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cardService.generateCardNumber("123456"))
+                .expectNext("1234560000000002")
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Generate card number should reject an invalid product id without touching the database")
+    void generateCardNumberShouldRejectInvalidProductId() {
+        StepVerifier.create(cardService.generateCardNumber("12a456"))
+                .expectErrorMatches(ex -> ex == InvalidProductIdException.NOT_NUMERIC)
+                .verify();
+
+        verifyNoInteractions(cardRepository, cardNumberAllocator);
+    }
+
+    @Test
+    @DisplayName("Issue cards should emit every committed card number in chunk order")
+    void issueCardsShouldEmitEveryCommittedCardNumber() {
+        when(cardNumberAllocator.next("123456")).thenReturn("1", "2", "3");
+        when(cardRepository.insertCard(anyString(), any(LocalDateTime.class))).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cardService.issueCards("123456", 3))
+                .expectNext("1", "2", "3")
+                .verifyComplete();
+
+        verify(cardRepository, times(3)).insertCard(anyString(), any(LocalDateTime.class));
+    }
+
+    @Test
+    @DisplayName("Activate card should fail when the card is already active")
+    void activateCardShouldFailWhenAlreadyActive() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+
+        StepVerifier.create(cardService.activateCard("123"))
+                .expectError(CardAlreadyActivatedException.class)
+                .verify();
+
+        verify(cardRepository, never()).activate(anyString());
+    }
+
+    @Test
+    @DisplayName("Recharge card should credit the balance atomically and evict the cached balance after commit")
+    void rechargeCardShouldCreditBalanceAndEvictCache() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+        when(cardRepository.creditBalance("123", BigDecimal.TEN)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(cardService.rechargeCard("123", BigDecimal.TEN)).verifyComplete();
+
+        verify(cardRepository).creditBalance("123", BigDecimal.TEN);
+        verify(cardBalanceCache).evict("123");
+    }
+
+    @Test
+    @DisplayName("Recharge card should fail for a blocked card and leave the cache alone")
+    void rechargeCardShouldFailForBlockedCard() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, true, BigDecimal.ZERO);
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+
+        StepVerifier.create(cardService.rechargeCard("123", BigDecimal.TEN))
+                .expectError(CardNotAvailableException.class)
+                .verify();
+
+        verify(cardRepository, never()).creditBalance(anyString(), any());
+        verify(cardBalanceCache, never()).evict(anyString());
+    }
+
+    @Test
+    @DisplayName("Get card balance should be served from the cache after the first load")
+    void getCardBalanceShouldBeServedFromCache() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, new BigDecimal("50.00"));
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+
+        StepVerifier.create(cardService.getCardBalance("123")).expectNext("50.00").verifyComplete();
+        StepVerifier.create(cardService.getCardBalance("123")).expectNext("50.00").verifyComplete();
+
+        verify(cardRepository, times(1)).findCard("123");
+    }
+
+    @Test
+    @DisplayName("Get card balance should fail with not found for an unknown card")
+    void getCardBalanceShouldFailForUnknownCard() {
+        when(cardRepository.findCard("404")).thenReturn(Mono.empty());
+
+        StepVerifier.create(cardService.getCardBalance("404"))
+                .expectErrorSatisfies(ex -> {
+                    assertInstanceOf(CardNotFoundException.class, ex);
+                    assertEquals("Card with number: 404 not found", ex.getMessage());
+                })
+                .verify();
+    }
+}
@@ -0,0 +1,295 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
+import com.jjmontenegrop.bankinc.exceptions.InsufficientFundsException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPurchasePriceException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidExportFilterException;
+import com.jjmontenegrop.bankinc.exceptions.TransactionAlreadyAnnulatedException;
+import com.jjmontenegrop.bankinc.exceptions.TransactionNotFoundException;
+import com.jjmontenegrop.bankinc.repositories.ReactiveCardRepository;
+import com.jjmontenegrop.bankinc.repositories.ReactiveTransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static com.jjmontenegrop.bankinc.services.TransactionServiceImpl.HISTORY_START;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@SpringBootTest
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class ReactiveTransactionServiceImplTests {
+
+    @Mock
+    private ReactiveTransactionRepository transactionRepository;
+
+    @Mock
+    private ReactiveCardRepository cardRepository;
+
+    @Mock
+    private CardBalanceCache cardBalanceCache;
+
+    @Mock
+    private TransactionalOperator transactionalOperator;
+
+    @Mock
+    private TransactionArchive transactionArchive;
+
+    @Spy
+    private TransactionIdWatermarks transactionIdWatermarks = new TransactionIdWatermarks();
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ReactiveTransactionServiceImpl transactionService;
+
+    @BeforeEach
+    void setUp() {
+        when(transactionalOperator.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(transactionRepository.nextTransactionId()).thenReturn(Mono.just(1000L), Mono.just(1001L));
+        when(transactionRepository.insertTransaction(anyLong(), anyString(), any(), any())).thenReturn(Mono.just(1));
+    }
+
+    @Test
+    @DisplayName("Purchase should record the transaction and evict the cached balance when the debit succeeds")
+    void purchaseShouldRecordTransactionWhenDebitSucceeds() {
+        when(cardRepository.debitBalance(eq("123"), eq(BigDecimal.TEN), any())).thenReturn(Mono.just(1));
+
+        StepVerifier.create(transactionService.purchase("123", BigDecimal.TEN)).expectNext(1000L).verifyComplete();
+
+        verify(transactionRepository).insertTransaction(eq(1000L), eq("123"), eq(BigDecimal.TEN), any());
+        verify(cardBalanceCache).evict("123");
+        assertEquals(1, meterRegistry.summary("bankinc.purchase.amount").count());
+    }
+
+    @Test
+    @DisplayName("Purchase should fail with insufficient funds when an available card cannot be debited")
+    void purchaseShouldFailWithInsufficientFunds() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ONE);
+        when(cardRepository.debitBalance(eq("123"), eq(BigDecimal.TEN), any())).thenReturn(Mono.just(0));
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+
+        StepVerifier.create(transactionService.purchase("123", BigDecimal.TEN))
+                .expectErrorMatches(ex -> ex == InsufficientFundsException.INSUFFICIENT_FUNDS)
+                .verify();
+
+        verify(transactionRepository, never()).insertTransaction(anyLong(), anyString(), any(), any());
+        verify(cardBalanceCache, never()).evict(anyString());
+        assertEquals(0, meterRegistry.summary("bankinc.purchase.amount").count());
+    }
+
+    @Test
+    @DisplayName("Purchase should reject a zero or negative price before debiting the card")
+    void purchaseShouldRejectZeroOrNegativePrice() {
+        StepVerifier.create(transactionService.purchase("123", BigDecimal.ZERO))
+                .expectErrorMatches(ex -> ex == InvalidPurchasePriceException.INVALID_PRICE)
+                .verify();
+        StepVerifier.create(transactionService.purchase("123", BigDecimal.valueOf(-50)))
+                .expectErrorMatches(ex -> ex == InvalidPurchasePriceException.INVALID_PRICE)
+                .verify();
+
+        verify(cardRepository, never()).debitBalance(anyString(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Purchase should fail when the card is blocked and return 0 when it does not exist")
+    void purchaseShouldHandleUnavailableAndMissingCards() {
+        Card blocked = new Card("123", LocalDateTime.now().plusYears(3), true, true, BigDecimal.TEN);
+        when(cardRepository.debitBalance(anyString(), any(), any())).thenReturn(Mono.just(0));
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(blocked));
+        when(cardRepository.findCard("404")).thenReturn(Mono.empty());
+
+        StepVerifier.create(transactionService.purchase("123", BigDecimal.ONE))
+                .expectError(CardNotAvailableException.class)
+                .verify();
+        StepVerifier.create(transactionService.purchase("404", BigDecimal.ONE)).expectNext(0L).verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Purchase batch should debit locked cards in memory and write each balance once per chunk")
+    void purchaseBatchShouldWriteEachBalanceOncePerChunk() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, new BigDecimal("15"));
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(Flux.just(card));
+        when(cardRepository.updateBalance(anyString(), any())).thenReturn(Mono.just(1));
+
+        List<PurchaseRequestResponseDTO> purchases = List.of(
+                purchaseRequest("123", BigDecimal.TEN),
+                purchaseRequest("123", BigDecimal.TEN),
+                purchaseRequest("123", BigDecimal.ONE));
+
+        StepVerifier.create(transactionService.purchaseBatch(purchases))
+                .assertNext(results -> {
+                    assertEquals(1000L, results.get(0).getTransactionId());
+                    assertEquals("Insufficient funds", results.get(1).getDeclineReason());
+                    assertEquals(1001L, results.get(2).getTransactionId());
+                })
+                .verifyComplete();
+
+        verify(cardRepository, times(1)).updateBalance("123", new BigDecimal("4"));
+        verify(cardBalanceCache, times(1)).evict("123");
+    }
+
+    @Test
+    @DisplayName("Purchase batch should decline purchases for unknown cards without locking anything for them")
+    void purchaseBatchShouldDeclineUnknownCards() {
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(Flux.empty());
+
+        StepVerifier.create(transactionService.purchaseBatch(
+                        List.of(purchaseRequest("404", BigDecimal.ONE))))
+                .assertNext(results -> assertEquals("Card with number: 404 not found",
+                        results.get(0).getDeclineReason()))
+                .verifyComplete();
+
+        verify(cardRepository, never()).updateBalance(anyString(), any());
+        verify(cardBalanceCache, never()).evict(anyString());
+    }
+
+    @Test
+    @DisplayName("Purchase batch should commit each chunk on its own and decline the rest when a later chunk fails")
+    void purchaseBatchShouldCommitEachChunkAndAbortTheRest() {
+        when(cardRepository.findAllForUpdate(anyCollection()))
+                .thenReturn(Flux.empty())
+                .thenReturn(Flux.error(new QueryTimeoutException("lock timeout")));
+
+        List<PurchaseRequestResponseDTO> purchases = IntStream.range(0, 120)
+                .mapToObj(i -> purchaseRequest("card" + i, BigDecimal.ONE))
+                .toList();
+
+        StepVerifier.create(transactionService.purchaseBatch(purchases))
+                .assertNext(results -> {
+                    assertEquals(120, results.size());
+                    assertEquals("Card with number: card0 not found", results.get(0).getDeclineReason());
+                    assertEquals(TransactionServiceImpl.PURCHASE_BATCH_ABORTED, results.get(50).getDeclineReason());
+                    assertEquals(TransactionServiceImpl.PURCHASE_BATCH_ABORTED, results.get(119).getDeclineReason());
+                })
+                .verifyComplete();
+
+        verify(cardRepository, times(2)).findAllForUpdate(anyCollection());
+        verify(transactionalOperator, times(2)).transactional(any(Mono.class));
+    }
+
+    @Test
+    @DisplayName("Purchase batch should fail as a whole when its first chunk fails")
+    void purchaseBatchShouldFailWhenFirstChunkFails() {
+        when(cardRepository.findAllForUpdate(anyCollection()))
+                .thenReturn(Flux.error(new QueryTimeoutException("lock timeout")));
+
+        StepVerifier.create(transactionService.purchaseBatch(List.of(purchaseRequest("card0", BigDecimal.ONE))))
+                .expectError(QueryTimeoutException.class)
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Anulation should mark the transaction annulled and refund its price to the card")
+    void anulationShouldRefundCardAndMarkTransaction() {
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, "123")).thenReturn(Mono.just(1));
+        when(cardRepository.creditTransactionPrice("123", 1000L, HISTORY_START)).thenReturn(Mono.just(1));
+
+        StepVerifier.create(transactionService.anulation("123", "1000")).verifyComplete();
+
+        verify(cardRepository).creditTransactionPrice("123", 1000L, HISTORY_START);
+        verify(cardRepository, never()).findCard(anyString());
+        verify(cardBalanceCache).evict("123");
+    }
+
+    @Test
+    @DisplayName("Anulation should fail when the transaction is already annulled")
+    void anulationShouldFailWhenAlreadyAnnulled() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+        Transaction transaction = new Transaction();
+        transaction.setTransactionId(1000L);
+        transaction.setCardId("123");
+        transaction.setPrice(BigDecimal.TEN);
+        transaction.setIsAnnulled(true);
+
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, "123")).thenReturn(Mono.just(0));
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Mono.just(transaction));
+
+        StepVerifier.create(transactionService.anulation("123", "1000"))
+                .expectErrorMatches(ex -> ex == TransactionAlreadyAnnulatedException.ALREADY_ANNULATED)
+                .verify();
+
+        verify(cardRepository, never()).creditTransactionPrice(anyString(), anyLong(), any());
+    }
+
+    @Test
+    @DisplayName("Anulation should fail with not found for an unparseable id or another card's transaction")
+    void anulationShouldFailWhenTransactionIsNotFound() {
+        Card card = new Card("123", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+        Transaction transaction = new Transaction();
+        transaction.setTransactionId(1000L);
+        transaction.setCardId("456");
+        transaction.setIsAnnulled(false);
+
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, "123")).thenReturn(Mono.just(0));
+        when(cardRepository.findCard("123")).thenReturn(Mono.just(card));
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Mono.just(transaction));
+
+        StepVerifier.create(transactionService.anulation("123", "1000"))
+                .expectError(TransactionNotFoundException.class)
+                .verify();
+        StepVerifier.create(transactionService.anulation("123", "abc"))
+                .expectError(TransactionNotFoundException.class)
+                .verify();
+    }
+
+    @Test
+    @DisplayName("Get card transactions should return a cursor only when there is another page")
+    void getCardTransactionsShouldReturnCursorWhenThereIsAnotherPage() {
+        LocalDateTime date = LocalDateTime.of(2024, 5, 1, 10, 0);
+        when(transactionRepository.findCardHistoryPage(eq("123"), any(), any(), any(), anyCollection(), eq(2)))
+                .thenReturn(Flux.just(new TransactionDTO(1L, "123", BigDecimal.ONE, date, false),
+                        new TransactionDTO(2L, "123", BigDecimal.ONE, date, false)));
+
+        StepVerifier.create(transactionService.getCardTransactions("123", null, null, null, null, 1))
+                .assertNext(page -> {
+                    assertEquals(1, page.getTransactions().size());
+                    assertEquals(date + "_1", page.getNextCursor());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @DisplayName("Export should fail before querying when neither or both filters are given")
+    void exportShouldRequireExactlyOneFilter() {
+        StepVerifier.create(transactionService.exportTransactions(null, null, null, null))
+                .expectErrorMatches(ex -> ex == InvalidExportFilterException.MISSING_FILTER)
+                .verify();
+
+        verifyNoInteractions(transactionRepository);
+    }
+
+    private static PurchaseRequestResponseDTO purchaseRequest(String cardId, BigDecimal price) {
+        PurchaseRequestResponseDTO purchase = new PurchaseRequestResponseDTO();
+        purchase.setCardId(cardId);
+        purchase.setPrice(price);
+        return purchase;
+    }
+}
@@ -0,0 +1,133 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
+import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
+import com.jjmontenegrop.bankinc.exceptions.RechargeTimeoutException;
+import com.jjmontenegrop.bankinc.repositories.CardRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class RechargeCoalescerTests {
+
+    @Mock
+    private CardRepository cardRepository;
+
+    @Mock
+    private CardBalanceCache cardBalanceCache;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private RechargeCoalescer rechargeCoalescer;
+
+    private final ExecutorService callers = Executors.newFixedThreadPool(6);
+
+    @BeforeEach
+    void setUp() {
+        rechargeCoalescer = new RechargeCoalescer(cardRepository, cardBalanceCache, transactionManager, true,
+                Duration.ofSeconds(1), 100, Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void tearDown() {
+        rechargeCoalescer.shutdown();
+        callers.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Recharges arriving within one window should be applied as one update per card in one commit")
+    void rechargesWithinWindowShouldBeSummedPerCard() throws Exception {
+        when(cardRepository.creditAvailableBalance(anyString(), any(), any())).thenReturn(1);
+
+        List<CompletableFuture<Void>> recharges = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int i = 0; i < 6; i++) {
+            String cardId = i % 2 == 0 ? "A" : "B";
+            recharges.add(CompletableFuture.runAsync(() -> {
+                awaitQuietly(start);
+                rechargeCoalescer.recharge(cardId, BigDecimal.TEN);
+            }, callers));
+        }
+        start.countDown();
+
+        CompletableFuture.allOf(recharges.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+        InOrder order = inOrder(cardRepository, transactionManager, cardBalanceCache);
+        order.verify(cardRepository).creditAvailableBalance(eq("A"), eq(BigDecimal.valueOf(30)), any());
+        order.verify(cardRepository).creditAvailableBalance(eq("B"), eq(BigDecimal.valueOf(30)), any());
+        order.verify(transactionManager).commit(any());
+        order.verify(cardBalanceCache).evict("A");
+        verify(transactionManager, times(1)).commit(any());
+    }
+
+    @Test
+    @DisplayName("Every caller in a batch should see the failure when the batch does not commit")
+    void failedBatchShouldFailEveryCaller() {
+        when(cardRepository.creditAvailableBalance(anyString(), any(), any())).thenThrow(new QueryTimeoutException("timeout"));
+
+        assertThrows(QueryTimeoutException.class, () -> rechargeCoalescer.recharge("A", BigDecimal.TEN));
+        verify(cardBalanceCache, never()).evict(anyString());
+    }
+
+    @Test
+    @DisplayName("A recharge for a card the update does not find should fail with card not found")
+    void missingCardShouldFailWithCardNotFound() {
+        when(cardRepository.creditAvailableBalance(eq("A"), any(), any())).thenReturn(0);
+
+        assertThrows(CardNotFoundException.class, () -> rechargeCoalescer.recharge("A", BigDecimal.TEN));
+    }
+
+    @Test
+    @DisplayName("A recharge for a card blocked or expired since it was validated should fail as not available")
+    void unavailableCardShouldFailWithCardNotAvailable() {
+        when(cardRepository.creditAvailableBalance(eq("A"), any(), any())).thenReturn(0);
+        when(cardRepository.existsById("A")).thenReturn(true);
+
+        assertThrows(CardNotAvailableException.class, () -> rechargeCoalescer.recharge("A", BigDecimal.TEN));
+    }
+
+    @Test
+    @DisplayName("A recharge no batch picks up within the timeout should be withdrawn and fail the caller")
+    void rechargeNotPickedUpShouldTimeOut() {
+        // Disabled, so no flusher ever takes it from the queue
+        RechargeCoalescer stalled = new RechargeCoalescer(cardRepository, cardBalanceCache, transactionManager, false,
+                Duration.ofSeconds(1), 100, Duration.ofMillis(100));
+
+        assertSame(RechargeTimeoutException.NOT_APPLIED,
+                assertThrows(RechargeTimeoutException.class, () -> stalled.recharge("A", BigDecimal.TEN)));
+        verify(cardRepository, never()).creditAvailableBalance(anyString(), any(), any());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
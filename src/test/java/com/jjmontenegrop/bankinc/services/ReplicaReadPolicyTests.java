@@ -0,0 +1,127 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.config.ReadReplicaConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class ReplicaReadPolicyTests {
+
+    @Mock
+    private DataSource primary;
+
+    @Mock
+    private DataSource replica;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Connection primaryConnection;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Connection replicaConnection;
+
+    private DataSource dataSource;
+    private DataSourceTransactionManager transactionManager;
+    private ReplicaReadPolicy replicaReadPolicy;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        when(replica.getConnection()).thenReturn(replicaConnection);
+
+        dataSource = new ReadReplicaConfig().dataSource(primary, replica);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        replicaReadPolicy = new ReplicaReadPolicy(transactionManager, true, Duration.ofMinutes(1), Duration.ofSeconds(1));
+    }
+
+    // Running a statement is what makes the lazy proxy pick a pool
+    private Void runStatement() {
+        try {
+            DataSourceUtils.getConnection(dataSource).prepareStatement("SELECT 1");
+            return null;
+        } catch (SQLException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private Connection readFor(String cardId) {
+        replicaReadPolicy.read(cardId, this::runStatement);
+
+        boolean replicaUsed = mockingDetails(replicaConnection).getInvocations().stream()
+                .anyMatch(invocation -> invocation.getMethod().getName().equals("prepareStatement"));
+        clearInvocations(primaryConnection, replicaConnection);
+
+        return replicaUsed ? replicaConnection : primaryConnection;
+    }
+
+    @Test
+    @DisplayName("Reads go to the replica and writes to the primary")
+    void testRoutesReadsToReplica() throws SQLException {
+        assertSame(replicaConnection, readFor("1234560000000001"));
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> runStatement());
+
+        verify(primaryConnection).prepareStatement("SELECT 1");
+        verify(replicaConnection, never()).prepareStatement(anyString());
+    }
+
+    @Test
+    @DisplayName("A card written through this instance is read from the primary within the window")
+    void testReadYourWrites() {
+        replicaReadPolicy.recordWrite("1234560000000001");
+
+        assertSame(primaryConnection, readFor("1234560000000001"));
+        assertSame(replicaConnection, readFor("1234560000000002"));
+    }
+
+    @Test
+    @DisplayName("Every read goes to the primary while the replica lags past max-lag")
+    void testLaggingReplica() {
+        replicaReadPolicy.setReplicaLag(Duration.ofSeconds(5));
+        assertSame(primaryConnection, readFor("1234560000000001"));
+
+        replicaReadPolicy.setReplicaLag(Duration.ofMillis(200));
+        assertSame(replicaConnection, readFor("1234560000000001"));
+    }
+
+    @Test
+    @DisplayName("Without a replica, reads run without a transaction and streaming reads keep theirs")
+    void testDisabledReplica() {
+        ReplicaReadPolicy disabled = new ReplicaReadPolicy(transactionManager, false, Duration.ofMinutes(1),
+                Duration.ofSeconds(1));
+
+        assertFalse(disabled.read("1234560000000001", TransactionSynchronizationManager::isActualTransactionActive));
+        assertTrue(disabled.readInTransaction("1234560000000001",
+                TransactionSynchronizationManager::isCurrentTransactionReadOnly));
+        assertFalse(disabled.readInTransaction("1234560000000001", ReplicaReadPolicy::isReplicaRead));
+    }
+
+    @Test
+    @DisplayName("A read joining a read-write transaction stays on the primary")
+    void testReadInsideWriteTransaction() throws SQLException {
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                replicaReadPolicy.read("1234560000000001", this::runStatement));
+
+        verify(primaryConnection).prepareStatement("SELECT 1");
+        verify(replicaConnection, never()).prepareStatement(anyString());
+    }
+}
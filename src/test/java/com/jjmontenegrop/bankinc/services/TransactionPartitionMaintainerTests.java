@@ -0,0 +1,173 @@
+package com.jjmontenegrop.bankinc.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@MockitoSettings(strictness = Strictness.LENIENT)
+@ExtendWith(MockitoExtension.class)
+class TransactionPartitionMaintainerTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private SimpleMeterRegistry meterRegistry;
+    private TransactionIdWatermarks transactionIdWatermarks;
+    private TransactionPartitionMaintainer maintainer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        transactionIdWatermarks = new TransactionIdWatermarks();
+        maintainer = new TransactionPartitionMaintainer(jdbcTemplate, transactionIdWatermarks, meterRegistry, 2, 12);
+    }
+
+    private void attachedPartitions(Object... namesAndDetachPending) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 0; i < namesAndDetachPending.length; i += 2) {
+                ResultSet row = mock(ResultSet.class);
+                when(row.getString(1)).thenReturn((String) namesAndDetachPending[i]);
+                when(row.getBoolean(2)).thenReturn((Boolean) namesAndDetachPending[i + 1]);
+                handler.processRow(row);
+            }
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    @DisplayName("Creates the current and upcoming months that have no partition yet")
+    void testMaintainCreatesMissingPartitions() {
+        attachedPartitions("transaction_legacy", false, "transaction_2026_10", false);
+
+        maintainer.maintain(YearMonth.of(2026, 10));
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS transaction_2026_11 PARTITION OF transaction " +
+                "FOR VALUES FROM ('2026-11-01') TO ('2026-12-01')");
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS transaction_2026_12 PARTITION OF transaction " +
+                "FOR VALUES FROM ('2026-12-01') TO ('2027-01-01')");
+        verify(jdbcTemplate, never()).execute(contains("transaction_2026_10 PARTITION OF"));
+        verify(jdbcTemplate, never()).execute(contains("DETACH"));
+    }
+
+    @Test
+    @DisplayName("Detaches partitions past retention and finishes interrupted detaches")
+    void testMaintainDetachesExpiredPartitions() {
+        attachedPartitions("transaction_legacy", false, "transaction_2025_08", true, "transaction_2025_09", false,
+                "transaction_2025_10", false, "transaction_2026_10", false, "transaction_2026_11", false,
+                "transaction_2026_12", false);
+
+        maintainer.maintain(YearMonth.of(2026, 10));
+
+        verify(jdbcTemplate).execute("ALTER TABLE transaction DETACH PARTITION transaction_2025_08 FINALIZE");
+        verify(jdbcTemplate).execute("ALTER TABLE transaction DETACH PARTITION transaction_2025_09 CONCURRENTLY");
+        verify(jdbcTemplate, never()).execute(contains("transaction_2025_10"));
+        verify(jdbcTemplate, never()).execute(contains("transaction_legacy"));
+        verify(jdbcTemplate, never()).execute(startsWith("CREATE"));
+    }
+
+    @Test
+    @DisplayName("Counts a failed statement and carries on with the rest")
+    void testMaintainCountsFailedStatements() {
+        attachedPartitions("transaction_2026_10", false);
+        doThrow(new QueryTimeoutException("Lock timeout")).when(jdbcTemplate).execute(contains("transaction_2026_11"));
+
+        maintainer.maintain(YearMonth.of(2026, 10));
+
+        verify(jdbcTemplate).execute(contains("transaction_2026_12 PARTITION OF"));
+        assertEquals(1.0, failureCount());
+    }
+
+    @Test
+    @DisplayName("Counts a failed partition listing instead of throwing")
+    void testMaintainCountsFailedPartitionListing() {
+        doThrow(new QueryTimeoutException("Catalog unavailable"))
+                .when(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class));
+
+        assertDoesNotThrow(() -> maintainer.maintain(YearMonth.of(2026, 10)));
+
+        verify(jdbcTemplate, never()).execute(anyString());
+        assertEquals(1.0, failureCount());
+    }
+
+    private void storedWatermarks(Object... idsAndMonthStarts) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 0; i < idsAndMonthStarts.length; i += 2) {
+                ResultSet row = mock(ResultSet.class);
+                when(row.getLong(1)).thenReturn((Long) idsAndMonthStarts[i]);
+                when(row.getTimestamp(2)).thenReturn(Timestamp.valueOf((LocalDateTime) idsAndMonthStarts[i + 1]));
+                handler.processRow(row);
+            }
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT last_id_before"), any(RowCallbackHandler.class));
+    }
+
+    @Test
+    @DisplayName("Records the current month's watermark once past the margin and loads every stored one")
+    void testRecordWatermarks() {
+        LocalDateTime october = LocalDateTime.of(2026, 10, 1, 0, 0);
+        LocalDateTime november = LocalDateTime.of(2026, 11, 1, 0, 0);
+        storedWatermarks(5000L, october, 9000L, november);
+
+        maintainer.recordWatermarks(LocalDateTime.of(2026, 11, 1, 3, 0));
+
+        verify(jdbcTemplate).update(startsWith("INSERT INTO transaction_id_watermark"), eq(november));
+        assertEquals(TransactionServiceImpl.HISTORY_START, transactionIdWatermarks.earliestDate(5000L));
+        assertEquals(october, transactionIdWatermarks.earliestDate(5001L));
+        assertEquals(october, transactionIdWatermarks.earliestDate(9000L));
+        assertEquals(november, transactionIdWatermarks.earliestDate(9001L));
+    }
+
+    @Test
+    @DisplayName("Does not record a watermark within the margin after the month starts")
+    void testRecordWatermarksWaitsForMargin() {
+        storedWatermarks(5000L, LocalDateTime.of(2026, 10, 1, 0, 0));
+
+        maintainer.recordWatermarks(LocalDateTime.of(2026, 11, 1, 0, 30));
+
+        verify(jdbcTemplate, never()).update(anyString(), any(Object[].class));
+        assertEquals(LocalDateTime.of(2026, 10, 1, 0, 0), transactionIdWatermarks.earliestDate(6000L));
+    }
+
+    @Test
+    @DisplayName("Keeps the loaded watermarks and counts the failure when they cannot be refreshed")
+    void testRecordWatermarksCountsFailure() {
+        storedWatermarks(5000L, LocalDateTime.of(2026, 10, 1, 0, 0));
+        maintainer.recordWatermarks(LocalDateTime.of(2026, 10, 15, 3, 0));
+        doThrow(new QueryTimeoutException("Lock timeout")).when(jdbcTemplate).update(anyString(), any(Object[].class));
+
+        assertDoesNotThrow(() -> maintainer.recordWatermarks(LocalDateTime.of(2026, 11, 1, 3, 0)));
+
+        assertEquals(LocalDateTime.of(2026, 10, 1, 0, 0), transactionIdWatermarks.earliestDate(6000L));
+        assertEquals(1.0, failureCount());
+    }
+
+    private double failureCount() {
+        return meterRegistry.get("bankinc.transaction-partitions.maintenance.failures").counter().count();
+    }
+
+    @Test
+    @DisplayName("Partition names follow transaction_yyyy_MM")
+    void testPartitionName() {
+        assertEquals("transaction_2027_01", TransactionPartitionMaintainer.partitionName(YearMonth.of(2027, 1)));
+    }
+}
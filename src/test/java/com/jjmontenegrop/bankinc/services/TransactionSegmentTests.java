@@ -0,0 +1,101 @@
+package com.jjmontenegrop.bankinc.services;
+
+import com.jjmontenegrop.bankinc.entities.Transaction;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransactionSegmentTests {
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0, 0, 123_000);
+
+    @TempDir
+    Path directory;
+
+    private static Transaction transaction(long id) {
+        Transaction transaction = new Transaction();
+        transaction.setTransactionId(id);
+        transaction.setCardId("123456" + String.format("%010d", id % 5000));
+        transaction.setPrice(new BigDecimal(id % 100_000).movePointLeft(2));
+        transaction.setTransactionDate(START.plusSeconds(id * 7));
+        transaction.setIsAnnulled(id % 50 == 0);
+        return transaction;
+    }
+
+    // Ids 1000, 1003, 1006, ... so that lookups also hit gaps between stored ids
+    private Path writeSegment(String name, int rows) throws IOException {
+        Path path = directory.resolve(name);
+        try (TransactionSegment.Writer writer = new TransactionSegment.Writer(path, 128)) {
+            for (int i = 0; i < rows; i++) {
+                writer.append(transaction(1000L + 3L * i));
+            }
+        }
+        return path;
+    }
+
+    @Test
+    @DisplayName("Every written transaction is found again with the same values")
+    void testRoundTrip() throws IOException {
+        TransactionSegment segment = TransactionSegment.open(writeSegment("round-trip.seg", 10_000));
+
+        assertEquals(10_000, segment.rowCount);
+        assertEquals(1000L, segment.minId);
+        assertEquals(1000L + 3L * 9_999, segment.maxId);
+
+        for (int i = 0; i < 10_000; i += 37) {
+            Transaction expected = transaction(1000L + 3L * i);
+            Transaction found = segment.find(expected.getTransactionId()).orElseThrow();
+
+            assertEquals(expected.getCardId(), found.getCardId());
+            assertEquals(expected.getPrice(), found.getPrice());
+            assertEquals(expected.getTransactionDate(), found.getTransactionDate());
+            assertEquals(expected.getIsAnnulled(), found.getIsAnnulled());
+        }
+    }
+
+    @Test
+    @DisplayName("Ids between stored ids or outside the segment are not found")
+    void testMissingIds() throws IOException {
+        TransactionSegment segment = TransactionSegment.open(writeSegment("missing.seg", 1_000));
+
+        assertEquals(Optional.empty(), segment.find(999L));
+        assertEquals(Optional.empty(), segment.find(1001L));
+        assertEquals(Optional.empty(), segment.find(1000L + 3L * 128 + 1));
+        assertEquals(Optional.empty(), segment.find(1000L + 3L * 1_000));
+    }
+
+    @Test
+    @DisplayName("Rows out of id order are rejected")
+    void testRejectsUnsortedRows() throws IOException {
+        try (TransactionSegment.Writer writer = new TransactionSegment.Writer(directory.resolve("unsorted.seg"), 128)) {
+            writer.append(transaction(2000L));
+            assertThrows(IllegalArgumentException.class, () -> writer.append(transaction(1999L)));
+        }
+    }
+
+    @Test
+    @DisplayName("The archive serves lookups from every segment in its directory and stays empty when disabled")
+    void testArchiveFindsAcrossSegments() throws IOException {
+        Files.move(writeSegment("a.tmp", 100), directory.resolve("transaction_2024_01-0.seg"));
+        try (TransactionSegment.Writer writer = new TransactionSegment.Writer(
+                directory.resolve("transaction_2024_02-0.seg"), 128)) {
+            writer.append(transaction(5000L));
+        }
+
+        TransactionArchive archive = new TransactionArchive(true, directory);
+
+        assertEquals("1234560000001000", archive.find(1000L).orElseThrow().getCardId());
+        assertEquals(5000L, archive.find(5000L).orElseThrow().getTransactionId());
+        assertTrue(archive.find(4000L).isEmpty());
+        assertTrue(new TransactionArchive(false, directory).find(1000L).isEmpty());
+    }
+}
@@ -1,27 +1,51 @@
 package com.jjmontenegrop.bankinc.services;
 
 import com.jjmontenegrop.bankinc.entities.Card;
+import com.jjmontenegrop.bankinc.entities.LedgerEntry;
+import com.jjmontenegrop.bankinc.entities.dto.PurchaseBatchResultDTO;
 import com.jjmontenegrop.bankinc.entities.dto.PurchaseRequestResponseDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionDTO;
+import com.jjmontenegrop.bankinc.entities.dto.TransactionPageDTO;
 import com.jjmontenegrop.bankinc.entities.Transaction;
+import com.jjmontenegrop.bankinc.exceptions.CardNotAvailableException;
 import com.jjmontenegrop.bankinc.exceptions.CardNotFoundException;
 import com.jjmontenegrop.bankinc.exceptions.InsufficientFundsException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPurchasePriceException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidExportFilterException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidPageCursorException;
+import com.jjmontenegrop.bankinc.exceptions.InvalidProductIdException;
 import com.jjmontenegrop.bankinc.exceptions.TransactionAlreadyAnnulatedException;
 import com.jjmontenegrop.bankinc.exceptions.TransactionNotFoundException;
 import com.jjmontenegrop.bankinc.repositories.CardRepository;
 import com.jjmontenegrop.bankinc.repositories.TransactionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
 import org.mockito.quality.Strictness;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.domain.Limit;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
+import static com.jjmontenegrop.bankinc.services.TransactionServiceImpl.HISTORY_START;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -36,23 +60,88 @@ class TransactionServiceImplTests {
     @Mock
     private CardRepository cardRepository;
 
+    @Mock
+    private CardBalanceCache cardBalanceCache;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private CardBalanceLedger cardBalanceLedger;
+
+    @Mock
+    private CardBalanceSlots cardBalanceSlots;
+
+    @Mock
+    private TransactionArchive transactionArchive;
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Mock
+    private ReplicaReadPolicy replicaReadPolicy;
+
+    @Spy
+    private TransactionIdWatermarks transactionIdWatermarks = new TransactionIdWatermarks();
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private TransactionServiceImpl transactionService;
 
+    @BeforeEach
+    void setUp() {
+        // The mocks are re-created after injection, so the template must be rebuilt around the current one
+        transactionService.transactionTemplate = new TransactionTemplate(transactionManager);
+        when(replicaReadPolicy.read(any(), any())).thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
+        when(replicaReadPolicy.readInTransaction(any(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
+    }
+
     @Test
     @DisplayName("Purchase should return transaction ID when card exists and has sufficient funds")
     void purchaseShouldReturnTransactionIdWhenCardExistsAndHasSufficientFunds() {
         String cardId = "123";
         BigDecimal price = BigDecimal.valueOf(100);
-        Card card = new Card();
-        card.setBalance(BigDecimal.valueOf(200));
 
-        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(1);
 
         Long transactionId = transactionService.purchase(cardId, price);
 
-        verify(cardRepository, times(1)).save(any(Card.class));
+        verify(cardRepository, never()).findById(anyString());
+        verify(cardRepository, never()).save(any(Card.class));
         verify(transactionRepository, times(1)).save(any(Transaction.class));
+        verify(cardBalanceCache, times(1)).evict(cardId);
+    }
+
+    @Test
+    @DisplayName("Purchase should check expiry against the application clock, as the sweeper does")
+    void purchaseShouldPassApplicationClockToDebit() {
+        when(cardRepository.debitBalance(anyString(), any(), any())).thenReturn(1);
+
+        LocalDateTime before = LocalDateTime.now();
+        transactionService.purchase("123", BigDecimal.TEN);
+        LocalDateTime after = LocalDateTime.now();
+
+        ArgumentCaptor<LocalDateTime> now = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(cardRepository).debitBalance(eq("123"), eq(BigDecimal.TEN), now.capture());
+        assertFalse(now.getValue().isBefore(before));
+        assertFalse(now.getValue().isAfter(after));
+    }
+
+    @Test
+    @DisplayName("Purchase should record the amount of approved purchases only")
+    void purchaseShouldRecordTheAmountOfApprovedPurchasesOnly() {
+        when(cardRepository.debitBalance(eq("123"), eq(BigDecimal.valueOf(100)), any())).thenReturn(1);
+        when(cardRepository.debitBalance(eq("456"), eq(BigDecimal.valueOf(50)), any())).thenReturn(0);
+        when(cardRepository.findById("456")).thenReturn(Optional.empty());
+
+        transactionService.purchase("123", BigDecimal.valueOf(100));
+        transactionService.purchase("456", BigDecimal.valueOf(50));
+
+        assertEquals(1, transactionService.purchaseAmounts.count());
+        assertEquals(100.0, transactionService.purchaseAmounts.totalAmount());
     }
 
     @Test
@@ -61,11 +150,28 @@ class TransactionServiceImplTests {
         String cardId = "123";
         BigDecimal price = BigDecimal.valueOf(100);
 
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(0);
         when(cardRepository.findById(cardId)).thenReturn(Optional.empty());
 
         Long transactionId = transactionService.purchase(cardId, price);
 
         assertEquals(0L, transactionId);
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Purchase should throw CardNotAvailableException when card is expired")
+    void purchaseShouldThrowCardNotAvailableExceptionWhenCardIsExpired() {
+        String cardId = "123";
+        BigDecimal price = BigDecimal.valueOf(10);
+        Card card = new Card(cardId, LocalDateTime.now().minusDays(1), true, false, BigDecimal.valueOf(100));
+
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(0);
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+
+        assertThrows(CardNotAvailableException.class, () -> transactionService.purchase(cardId, price));
+        verify(cardBalanceSlots, never()).debit(any(), any());
+        verify(transactionRepository, never()).save(any(Transaction.class));
     }
 
     @Test
@@ -73,55 +179,277 @@ class TransactionServiceImplTests {
     void purchaseShouldThrowInsufficientFundsExceptionWhenCardHasInsufficientFunds() {
         String cardId = "123";
         BigDecimal price = BigDecimal.valueOf(200);
-        Card card = new Card();
+        Card card = new Card(cardId);
+        card.setIsActive(true);
+        card.setIsBlocked(false);
         card.setBalance(BigDecimal.valueOf(100));
 
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(0);
         when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
 
         assertThrows(InsufficientFundsException.class, () -> transactionService.purchase(cardId, price));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Purchase should reject a zero or negative price before debiting the card")
+    void purchaseShouldRejectZeroOrNegativePrice() {
+        assertThrows(InvalidPurchasePriceException.class, () -> transactionService.purchase("123", BigDecimal.ZERO));
+        assertThrows(InvalidPurchasePriceException.class,
+                () -> transactionService.purchase("123", BigDecimal.valueOf(-50)));
+
+        verify(cardRepository, never()).debitBalance(anyString(), any(), any());
+        verify(cardBalanceLedger, never()).lockForDebit(anyString(), any());
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Purchase should throw CardNotAvailableException when card is blocked")
+    void purchaseShouldThrowCardNotAvailableExceptionWhenCardIsBlocked() {
+        String cardId = "123";
+        BigDecimal price = BigDecimal.valueOf(50);
+        Card card = new Card(cardId);
+        card.setIsActive(true);
+        card.setIsBlocked(true);
+        card.setBalance(BigDecimal.valueOf(100));
+
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(0);
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+
+        assertThrows(CardNotAvailableException.class, () -> transactionService.purchase(cardId, price));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Purchase batch should approve and decline each item independently")
+    void purchaseBatchShouldApproveAndDeclineEachItemIndependently() {
+        Card card = new Card("validCardId");
+        card.setIsActive(true);
+        card.setIsBlocked(false);
+        card.setBalance(BigDecimal.valueOf(150));
+
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(List.of(card));
+
+        List<PurchaseBatchResultDTO> results = transactionService.purchaseBatch(List.of(
+                purchaseRequest("validCardId", BigDecimal.valueOf(100)),
+                purchaseRequest("validCardId", BigDecimal.valueOf(100)),
+                purchaseRequest("unknownCardId", BigDecimal.valueOf(10)),
+                purchaseRequest("validCardId", BigDecimal.valueOf(-5))));
+
+        assertEquals(4, results.size());
+        assertNull(results.get(0).getDeclineReason());
+        assertEquals("Insufficient funds", results.get(1).getDeclineReason());
+        assertEquals("Card with number: unknownCardId not found", results.get(2).getDeclineReason());
+        assertEquals("Purchase price should be valid", results.get(3).getDeclineReason());
+        assertEquals(BigDecimal.valueOf(50), card.getBalance());
+        verify(transactionRepository, times(1)).save(any(Transaction.class));
+    }
+
+    @Test
+    @DisplayName("Purchase batch should commit each chunk in its own transaction")
+    void purchaseBatchShouldCommitEachChunkInItsOwnTransaction() {
+        List<PurchaseRequestResponseDTO> purchases = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            purchases.add(purchaseRequest("card" + i, BigDecimal.ONE));
+        }
+
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(List.of());
+
+        List<PurchaseBatchResultDTO> results = transactionService.purchaseBatch(purchases);
+
+        assertEquals(120, results.size());
+        verify(cardRepository, times(3)).findAllForUpdate(anyCollection());
+        verify(transactionManager, times(3)).getTransaction(any());
+        verify(transactionManager, times(3)).commit(any());
+    }
+
+    @Test
+    @DisplayName("Purchase batch should keep committed chunks and decline the rest when a later chunk fails")
+    void purchaseBatchShouldDeclineRemainingPurchasesWhenLaterChunkFails() {
+        List<PurchaseRequestResponseDTO> purchases = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            purchases.add(purchaseRequest("card" + i, BigDecimal.ONE));
+        }
+
+        when(cardRepository.findAllForUpdate(anyCollection()))
+                .thenReturn(List.of())
+                .thenThrow(new QueryTimeoutException("lock timeout"));
+
+        List<PurchaseBatchResultDTO> results = transactionService.purchaseBatch(purchases);
+
+        assertEquals(120, results.size());
+        assertEquals("Card with number: card0 not found", results.get(0).getDeclineReason());
+        assertEquals(TransactionServiceImpl.PURCHASE_BATCH_ABORTED, results.get(50).getDeclineReason());
+        assertEquals(TransactionServiceImpl.PURCHASE_BATCH_ABORTED, results.get(119).getDeclineReason());
+        verify(cardRepository, times(2)).findAllForUpdate(anyCollection());
+        verify(transactionManager, times(1)).commit(any());
+        verify(transactionManager, times(1)).rollback(any());
+    }
+
+    @Test
+    @DisplayName("Purchase batch should fail as a whole when its first chunk fails")
+    void purchaseBatchShouldFailWhenFirstChunkFails() {
+        when(cardRepository.findAllForUpdate(anyCollection())).thenThrow(new QueryTimeoutException("lock timeout"));
+
+        assertThrows(QueryTimeoutException.class,
+                () -> transactionService.purchaseBatch(List.of(purchaseRequest("card0", BigDecimal.ONE))));
     }
 
     @Test
     @DisplayName("Should successfully annulate transaction when card and transaction exist and transaction is not annulated")
     void shouldSuccessfullyAnnulateTransactionWhenCardAndTransactionExistAndTransactionIsNotAnnulated() {
         String cardId = "validCardId";
-        String transactionId = "validTransactionId";
-        Card card = new Card(cardId);
-        card.setBalance(BigDecimal.valueOf(100));
+
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, cardId)).thenReturn(1);
+        when(cardRepository.creditTransactionPrice(cardId, 1000L, HISTORY_START)).thenReturn(1);
+
+        transactionService.anulation(cardId, "1000");
+
+        verify(cardRepository, times(1)).creditTransactionPrice(cardId, 1000L, HISTORY_START);
+        verify(cardRepository, never()).findById(anyString());
+        verify(transactionRepository, never()).findTransaction(anyLong(), any());
+        verify(cardRepository, never()).save(any(Card.class));
+        verify(transactionRepository, never()).save(any(Transaction.class));
+        verify(cardBalanceCache, times(1)).evict(cardId);
+    }
+
+    @Test
+    @DisplayName("A second anulation of the same transaction should be rejected without refunding again")
+    void secondAnulationShouldNotRefundAgain() {
+        String cardId = "validCardId";
         Transaction transaction = new Transaction();
+        transaction.setTransactionId(1000L);
         transaction.setCardId(cardId);
-        transaction.setPrice(BigDecimal.valueOf(50));
-        transaction.setIsAnnulled(false);
+        transaction.setIsAnnulled(true);
 
-        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
-        when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, cardId)).thenReturn(1, 0);
+        when(cardRepository.creditTransactionPrice(cardId, 1000L, HISTORY_START)).thenReturn(1);
+        when(cardRepository.existsById(cardId)).thenReturn(true);
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Optional.of(transaction));
+
+        transactionService.anulation(cardId, "1000");
+
+        assertThrows(TransactionAlreadyAnnulatedException.class, () -> transactionService.anulation(cardId, "1000"));
+        verify(cardRepository, times(1)).creditTransactionPrice(cardId, 1000L, HISTORY_START);
+    }
+
+    @Test
+    @DisplayName("Purchase should lock the card and append a debit entry when the ledger is enabled")
+    void purchaseShouldAppendDebitEntryWhenLedgerIsEnabled() {
+        String cardId = "123";
+        BigDecimal price = BigDecimal.valueOf(100);
+
+        when(cardBalanceLedger.isEnabled()).thenReturn(true);
+        when(cardBalanceLedger.lockForDebit(cardId, price)).thenReturn(1);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setTransactionId(1000L);
+            return transaction;
+        });
+
+        assertEquals(1000L, transactionService.purchase(cardId, price));
+
+        verify(cardRepository, never()).debitBalance(anyString(), any(), any());
+        verify(cardBalanceLedger, times(1)).append(cardId, LedgerEntry.Type.PURCHASE, price.negate(), 1000L);
+        verify(cardBalanceCache, times(1)).evict(cardId);
+    }
+
+    @Test
+    @DisplayName("Purchase batch should check funds against the ledger and leave the card row unlocked and untouched")
+    void purchaseBatchShouldUseLedgerBalanceWhenLedgerIsEnabled() {
+        Card card = new Card("validCardId", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO);
+
+        when(cardBalanceLedger.isEnabled()).thenReturn(true);
+        when(cardBalanceLedger.lockBalance("validCardId")).thenReturn(BigDecimal.valueOf(150));
+        when(cardRepository.findAllById(anyCollection())).thenReturn(List.of(card));
+
+        List<PurchaseBatchResultDTO> results = transactionService.purchaseBatch(List.of(
+                purchaseRequest("validCardId", BigDecimal.valueOf(100)),
+                purchaseRequest("validCardId", BigDecimal.valueOf(100))));
+
+        assertNull(results.get(0).getDeclineReason());
+        assertEquals("Insufficient funds", results.get(1).getDeclineReason());
+        verify(entityManager, times(1)).detach(card);
+        verify(cardRepository, never()).findAllForUpdate(anyCollection());
+        verify(cardBalanceLedger, times(1))
+                .append(eq("validCardId"), eq(LedgerEntry.Type.PURCHASE), eq(BigDecimal.valueOf(-100)), any());
+    }
+
+    @Test
+    @DisplayName("Purchase should debit the balance slots when the card row alone cannot cover the price")
+    void purchaseShouldDebitSlotsWhenCardIsSharded() {
+        String cardId = "123";
+        BigDecimal price = BigDecimal.valueOf(100);
+        Card card = new Card(cardId, LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO, 4);
 
-        transactionService.anulation(cardId, transactionId);
+        when(cardRepository.debitBalance(eq(cardId), eq(price), any())).thenReturn(0);
+        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
+        when(cardBalanceSlots.debit(card, price)).thenReturn(true, false);
+        when(transactionRepository.save(any(Transaction.class))).thenAnswer(invocation -> {
+            Transaction transaction = invocation.getArgument(0);
+            transaction.setTransactionId(1000L);
+            return transaction;
+        });
+
+        assertEquals(1000L, transactionService.purchase(cardId, price));
+        assertThrows(InsufficientFundsException.class, () -> transactionService.purchase(cardId, price));
 
-        verify(cardRepository, times(1)).save(any(Card.class));
         verify(transactionRepository, times(1)).save(any(Transaction.class));
     }
 
+    @Test
+    @DisplayName("Purchase batch should borrow across the balance slots of a sharded card")
+    void purchaseBatchShouldDebitSlotsWhenCardIsSharded() {
+        Card card = new Card("validCardId", LocalDateTime.now().plusYears(3), true, false, BigDecimal.ZERO, 4);
+
+        when(cardRepository.findAllForUpdate(anyCollection())).thenReturn(List.of(card));
+        when(cardBalanceSlots.debitLocked(card, BigDecimal.valueOf(100))).thenReturn(true, false);
+
+        List<PurchaseBatchResultDTO> results = transactionService.purchaseBatch(List.of(
+                purchaseRequest("validCardId", BigDecimal.valueOf(100)),
+                purchaseRequest("validCardId", BigDecimal.valueOf(100))));
+
+        assertNull(results.get(0).getDeclineReason());
+        assertEquals("Insufficient funds", results.get(1).getDeclineReason());
+        assertEquals(BigDecimal.ZERO, card.getBalance());
+    }
+
+    @Test
+    @DisplayName("Anulation should append a reversal entry instead of rewriting the card when the ledger is enabled")
+    void anulationShouldAppendReversalEntryWhenLedgerIsEnabled() {
+        when(cardBalanceLedger.isEnabled()).thenReturn(true);
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, "validCardId")).thenReturn(1);
+        when(transactionRepository.findPrice(1000L, HISTORY_START)).thenReturn(BigDecimal.valueOf(50));
+
+        transactionService.anulation("validCardId", "1000");
+
+        verify(cardBalanceLedger, times(1))
+                .append("validCardId", LedgerEntry.Type.REVERSAL, BigDecimal.valueOf(50), 1000L);
+        verify(cardRepository, never()).creditTransactionPrice(anyString(), anyLong(), any());
+        verify(cardRepository, never()).save(any(Card.class));
+    }
+
     @Test
     @DisplayName("Should throw CardNotFoundException when card does not exist")
     void shouldThrowCardNotFoundExceptionWhenCardDoesNotExist() {
         String cardId = "invalidCardId";
-        String transactionId = "validTransactionId";
 
-        when(cardRepository.findById(cardId)).thenReturn(Optional.empty());
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, cardId)).thenReturn(0);
+        when(cardRepository.existsById(cardId)).thenReturn(false);
 
-        assertThrows(CardNotFoundException.class, () -> transactionService.anulation(cardId, transactionId));
+        assertThrows(CardNotFoundException.class, () -> transactionService.anulation(cardId, "1000"));
+        verify(cardRepository, never()).creditTransactionPrice(anyString(), anyLong(), any());
     }
 
     @Test
     @DisplayName("Should return transaction details when transaction id is valid")
     void shouldReturnTransactionDetailsWhenTransactionIdIsValid() {
-        String transactionId = "validTransactionId";
+        String transactionId = "1000";
         Transaction transaction = new Transaction();
         transaction.setCardId("validCardId");
         transaction.setPrice(BigDecimal.valueOf(100.00));
 
-        when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Optional.of(transaction));
 
         PurchaseRequestResponseDTO response = transactionService.getTransaction(transactionId);
 
@@ -130,13 +458,29 @@ class TransactionServiceImplTests {
         assertEquals(transaction.getPrice(), response.getPrice());
     }
 
+    @Test
+    @DisplayName("Should fall through to the archive when the transaction is no longer in the database")
+    void shouldFallThroughToArchiveWhenTransactionIsNotInDatabase() {
+        Transaction archived = new Transaction();
+        archived.setTransactionId(1000L);
+        archived.setCardId("validCardId");
+        archived.setPrice(BigDecimal.TEN);
+
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Optional.empty());
+        when(transactionArchive.find(1000L)).thenReturn(Optional.of(archived));
+
+        PurchaseRequestResponseDTO response = transactionService.getTransaction("1000");
+
+        assertNotNull(response);
+        assertEquals("validCardId", response.getCardId());
+        assertEquals(BigDecimal.TEN, response.getPrice());
+    }
+
     @Test
     @DisplayName("Should return null when transaction id is invalid")
     void shouldReturnNullWhenTransactionIdIsInvalid() {
         String transactionId = "invalidTransactionId";
 
-        when(transactionRepository.findById(transactionId)).thenReturn(Optional.empty());
-
         PurchaseRequestResponseDTO response = transactionService.getTransaction(transactionId);
 
         assertNull(response);
@@ -146,28 +490,147 @@ class TransactionServiceImplTests {
     @DisplayName("Should throw TransactionNotFoundException when transaction does not exist")
     void shouldThrowTransactionNotFoundExceptionWhenTransactionDoesNotExist() {
         String cardId = "validCardId";
-        String transactionId = "invalidTransactionId";
-        Card card = new Card(cardId);
-
-        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
-        when(transactionRepository.findById(transactionId)).thenReturn(Optional.empty());
-
-        assertThrows(TransactionNotFoundException.class, () -> transactionService.anulation(cardId, transactionId));
+        Transaction otherCardTransaction = new Transaction();
+        otherCardTransaction.setCardId("otherCardId");
+        otherCardTransaction.setIsAnnulled(false);
+
+        when(transactionRepository.markAnnulled(anyLong(), any(), eq(cardId))).thenReturn(0);
+        when(cardRepository.existsById(cardId)).thenReturn(true);
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Optional.empty());
+        when(transactionRepository.findTransaction(1001L, HISTORY_START)).thenReturn(Optional.of(otherCardTransaction));
+
+        assertThrows(TransactionNotFoundException.class, () -> transactionService.anulation(cardId, "1000"));
+        assertThrows(TransactionNotFoundException.class, () -> transactionService.anulation(cardId, "1001"));
+        assertThrows(TransactionNotFoundException.class,
+                () -> transactionService.anulation(cardId, "invalidTransactionId"));
+        verify(cardRepository, never()).creditTransactionPrice(anyString(), anyLong(), any());
     }
 
     @Test
     @DisplayName("Should throw TransactionAlreadyAnnulatedException when transaction is already annulated")
     void shouldThrowTransactionAlreadyAnnulatedExceptionWhenTransactionIsAlreadyAnnulated() {
         String cardId = "validCardId";
-        String transactionId = "validTransactionId";
-        Card card = new Card(cardId);
         Transaction transaction = new Transaction();
         transaction.setCardId(cardId);
         transaction.setIsAnnulled(true);
 
-        when(cardRepository.findById(cardId)).thenReturn(Optional.of(card));
-        when(transactionRepository.findById(transactionId)).thenReturn(Optional.of(transaction));
+        when(transactionRepository.markAnnulled(1000L, HISTORY_START, cardId)).thenReturn(0);
+        when(cardRepository.existsById(cardId)).thenReturn(true);
+        when(transactionRepository.findTransaction(1000L, HISTORY_START)).thenReturn(Optional.of(transaction));
+
+        assertThrows(TransactionAlreadyAnnulatedException.class, () -> transactionService.anulation(cardId, "1000"));
+    }
+
+    @Test
+    @DisplayName("Card history should return a next cursor when more transactions exist")
+    void cardHistoryShouldReturnNextCursorWhenMoreTransactionsExist() {
+        LocalDateTime date = LocalDateTime.of(2024, 5, 1, 10, 0);
+        List<TransactionDTO> transactions = List.of(
+                new TransactionDTO(1000L, "validCardId", BigDecimal.ONE, date, false),
+                new TransactionDTO(1001L, "validCardId", BigDecimal.ONE, date, false),
+                new TransactionDTO(1002L, "validCardId", BigDecimal.ONE, date.plusMinutes(1), false));
+
+        when(transactionRepository.findCardHistoryPage(eq("validCardId"), any(LocalDateTime.class), anyLong(),
+                any(LocalDateTime.class), anyCollection(), eq(Limit.of(3)))).thenReturn(transactions);
+
+        TransactionPageDTO page = transactionService.getCardTransactions("validCardId", null, null, null, null, 2);
+
+        assertEquals(2, page.getTransactions().size());
+        assertEquals("2024-05-01T10:00_1001", page.getNextCursor());
+    }
+
+    @Test
+    @DisplayName("Card history should seek past the cursor position")
+    void cardHistoryShouldSeekPastCursorPosition() {
+        LocalDateTime from = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+        when(transactionRepository.findCardHistoryPage(anyString(), any(LocalDateTime.class), anyLong(),
+                any(LocalDateTime.class), anyCollection(), any(Limit.class))).thenReturn(List.of());
+
+        TransactionPageDTO page = transactionService.getCardTransactions("validCardId", from, null, true,
+                "2024-05-01T10:00_1001", 50);
+
+        assertNull(page.getNextCursor());
+        verify(transactionRepository).findCardHistoryPage(eq("validCardId"), eq(LocalDateTime.of(2024, 5, 1, 10, 0)),
+                eq(1001L), any(LocalDateTime.class), eq(List.of(true)), eq(Limit.of(51)));
+    }
+
+    @Test
+    @DisplayName("Card history of live purchases only should use the query matching the partial index")
+    void cardHistoryOfLivePurchasesShouldUseLiveQuery() {
+        when(transactionRepository.findLiveCardHistoryPage(anyString(), any(LocalDateTime.class), anyLong(),
+                any(LocalDateTime.class), any(Limit.class))).thenReturn(List.of());
+
+        transactionService.getCardTransactions("validCardId", null, null, false, null, 50);
+
+        verify(transactionRepository).findLiveCardHistoryPage(eq("validCardId"), any(LocalDateTime.class),
+                anyLong(), any(LocalDateTime.class), eq(Limit.of(51)));
+        verify(transactionRepository, never()).findCardHistoryPage(anyString(), any(), anyLong(), any(),
+                anyCollection(), any());
+    }
+
+    @Test
+    @DisplayName("Card history should throw InvalidPageCursorException when cursor is malformed")
+    void cardHistoryShouldThrowInvalidPageCursorExceptionWhenCursorIsMalformed() {
+        assertThrows(InvalidPageCursorException.class,
+                () -> transactionService.getCardTransactions("validCardId", null, null, null, "bad", 50));
+    }
+
+    @Test
+    @DisplayName("Export should stream every transaction of the card to the consumer")
+    void exportShouldStreamEveryTransactionOfTheCard() {
+        LocalDateTime date = LocalDateTime.of(2024, 5, 1, 10, 0);
+        List<TransactionDTO> exported = new ArrayList<>();
+
+        when(transactionRepository.streamByCardId(eq("validCardId"), any(LocalDateTime.class), any(LocalDateTime.class)))
+                .thenReturn(Stream.of(
+                        new TransactionDTO(1000L, "validCardId", BigDecimal.ONE, date, false),
+                        new TransactionDTO(1001L, "validCardId", BigDecimal.TEN, date, true)));
+
+        transactionService.exportTransactions("validCardId", null, null, null, exported::add);
+
+        assertEquals(2, exported.size());
+        verify(transactionRepository, never()).streamByProductId(anyString(), any(), any());
+        verify(replicaReadPolicy, times(1)).readInTransaction(eq("validCardId"), any());
+    }
+
+    @Test
+    @DisplayName("Export should stream transactions by product when no card is given")
+    void exportShouldStreamTransactionsByProductWhenNoCardIsGiven() {
+        LocalDateTime from = LocalDateTime.of(2024, 1, 1, 0, 0);
+        LocalDateTime to = LocalDateTime.of(2025, 1, 1, 0, 0);
+
+        when(transactionRepository.streamByProductId("123456", from, to)).thenReturn(Stream.empty());
+
+        transactionService.exportTransactions(null, "123456", from, to, transaction -> { });
+
+        verify(transactionRepository, times(1)).streamByProductId("123456", from, to);
+    }
+
+    @Test
+    @DisplayName("Export should throw InvalidExportFilterException when neither or both filters are given")
+    void exportShouldThrowInvalidExportFilterExceptionWhenFiltersAreInvalid() {
+        assertThrows(InvalidExportFilterException.class,
+                () -> transactionService.exportTransactions(null, null, null, null, transaction -> { }));
+        assertThrows(InvalidExportFilterException.class,
+                () -> transactionService.exportTransactions("validCardId", "123456", null, null, transaction -> { }));
+    }
+
+    @Test
+    @DisplayName("Export should reject product ids that would widen the LIKE prefix to other products")
+    void exportShouldRejectWildcardProductIds() {
+        for (String productId : List.of("%", "123456%", "12345_", "")) {
+            assertThrows(InvalidProductIdException.class,
+                    () -> transactionService.exportTransactions(null, productId, null, null, transaction -> { }));
+        }
+
+        verify(transactionRepository, never()).streamByProductId(any(), any(), any());
+    }
 
-        assertThrows(TransactionAlreadyAnnulatedException.class, () -> transactionService.anulation(cardId, transactionId));
+    private PurchaseRequestResponseDTO purchaseRequest(String cardId, BigDecimal price) {
+        PurchaseRequestResponseDTO request = new PurchaseRequestResponseDTO();
+        request.setCardId(cardId);
+        request.setPrice(price);
+        return request;
     }
-}
\ No newline at end of file
+}